@@ -0,0 +1,37 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+// Same command line as the JMH main, with the GC profiler always on so that
+// every run reports the allocation rate (gc.alloc.rate.norm, bytes per
+// operation) next to the time.
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        for (ProfilerConfig profiler : options.getProfilers()) {
+            if ("gc".equals(profiler.getKlass()) || GCProfiler.class.getName().equals(profiler.getKlass())) {
+                new Runner(options).run();
+                return;
+            }
+        }
+
+        Options withAllocations = new OptionsBuilder()
+                .parent(options)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(withAllocations).run();
+    }
+}
@@ -0,0 +1,98 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import android.graphics.ImageFormat;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameEncoder;
+import com.virtuoworks.cordova.plugin.canvascamera.JavaJpegEncoder;
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Converter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+// Encodes a whole frame with each encoder and quality. java-420, java-422
+// and java-444 are JavaJpegEncoder straight from NV21, imageio the JPEG
+// stand-in of the android encoder (RGB conversion then ImageIO), png the
+// ImageIO PNG writer and raw the RGBA conversion the raw format sends.
+// The time is the JMH score, the size of the last encoded frame is printed
+// at the end of the trial.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncoderBenchmark {
+
+    @Param({"640x480", "1280x720"})
+    public String size;
+
+    @Param({"java-420", "java-422", "java-444", "imageio", "png", "raw"})
+    public String encoder;
+
+    // Ignored by png and raw.
+    @Param({"50", "85", "100"})
+    public int quality;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private int[] mCrop;
+    private FrameEncoder mEncoder;
+    private byte[] mPixels;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+        mCrop = new int[]{0, 0, mWidth, mHeight};
+
+        if (encoder.startsWith("java-")) {
+            mEncoder = new JavaJpegEncoder(FrameEncoder.JPEG, quality, encoder.substring("java-".length()));
+        } else if (!"imageio".equals(encoder) && !"png".equals(encoder) && !"raw".equals(encoder)) {
+            throw new IllegalArgumentException("Unknown encoder : " + encoder);
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        if (mEncoder != null) {
+            mEncoded = mEncoder.encode(mFrame, ImageFormat.NV21, mWidth, mHeight, mCrop);
+        } else if ("imageio".equals(encoder)) {
+            mEncoded = JpegFrames.compress(mFrame, mWidth, mHeight, quality);
+        } else if ("png".equals(encoder)) {
+            mPixels = Nv21Converter.convert(mFrame, mWidth, mHeight, Nv21Converter.RGB888, mPixels);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write(JpegFrames.toImage(mPixels, mWidth, mHeight), "png", bytes);
+            mEncoded = bytes.toByteArray();
+        } else {
+            mEncoded = Nv21Converter.convert(mFrame, mWidth, mHeight, Nv21Converter.RGBA8888, mEncoded);
+        }
+        return mEncoded;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println("Encoded size (" + encoder + ", quality " + quality + ", " + size + ") : " + mEncoded.length + " bytes");
+    }
+}
@@ -0,0 +1,45 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameEnvelope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Binary frame envelope around an encoded frame.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEnvelopeBenchmark {
+
+    // Payload bytes, about a 352x288 JPEG and a 1280x720 one.
+    @Param({"16384", "131072"})
+    public int payloadLength;
+
+    private byte[] mPayload;
+    private long mSequence = 0;
+
+    @Setup
+    public void setUp() {
+        mPayload = new byte[payloadLength];
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return FrameEnvelope.encode(mSequence++, 1700000000000L, 1700000000040L, 90, FrameEnvelope.ORIENTATION_PORTRAIT,
+                FrameEnvelope.FLAG_MIRRORED, 288, 352, 0, FrameEnvelope.FORMAT_JPEG, mPayload);
+    }
+}
@@ -0,0 +1,60 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameGeometry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Aspect ratio fitting and preview size selection.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameGeometryBenchmark {
+
+    // Preview size lists as reported by Camera.Parameters, a 16:9 sensor
+    // with a long list and a 4:3 sensor with a short one.
+    private static final int[][][] DEVICES = {
+            {{1920, 1080}, {1440, 1080}, {1280, 960}, {1280, 720}, {1056, 864}, {960, 720}, {800, 450},
+                    {720, 480}, {640, 480}, {480, 320}, {352, 288}, {320, 240}, {176, 144}},
+            {{1280, 960}, {1024, 768}, {800, 600}, {640, 480}, {320, 240}, {176, 144}}
+    };
+
+    @Param({"224x224", "352x288", "640x480", "1280x720"})
+    public String size;
+
+    private int[] mSize;
+
+    @Setup
+    public void setUp() {
+        mSize = Frames.parseSize(size);
+    }
+
+    @Benchmark
+    public void optimalPreviewSize(Blackhole blackhole) {
+        for (int[][] sizes : DEVICES) {
+            blackhole.consume(FrameGeometry.getOptimalSizeIndex(sizes, mSize[0], mSize[1]));
+        }
+    }
+
+    // Fitting the preview into the canvas, then the thumbnail.
+    @Benchmark
+    public void aspectRatio(Blackhole blackhole) {
+        int[] fitted = FrameGeometry.calculateAspectRatio(1280, 720, mSize[0], mSize[1]);
+        blackhole.consume(FrameGeometry.calculateAspectRatio(fitted[0], fitted[1], fitted[0] / 6, 0));
+    }
+}
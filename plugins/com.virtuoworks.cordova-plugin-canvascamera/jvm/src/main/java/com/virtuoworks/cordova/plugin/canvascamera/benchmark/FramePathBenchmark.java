@@ -0,0 +1,79 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameTransform;
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Converter;
+import com.virtuoworks.cordova.plugin.canvascamera.RowBands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Per frame cost of a front camera frame in portrait, fitted into 3/4 of its
+// size, from the NV21 preview bytes to the encoded JPEG, one thread.
+// jpegRoundTrip is the former path (the frame compressed at quality 100,
+// decoded, scaled and rotated, then compressed again), direct the NV21 path
+// (scaled, rotated and mirrored through the lookup tables, then encoded once).
+// See JpegFrames for the framework calls both paths stand on.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramePathBenchmark {
+
+    private static final int ANGLE = 90;
+    private static final boolean MIRROR = true;
+    private static final int QUALITY = 85;
+
+    @Param({"224x224", "352x288", "640x480", "1280x720"})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private FrameTransform mTransform;
+    private byte[] mTransformed;
+    private byte[] mPixels;
+
+    @Setup
+    public void setUp() {
+        RowBands.configure(0, 1);
+
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+        // Portrait canvas, the transposed frame is fitted into it.
+        mTransform = new FrameTransform(mWidth, mHeight, mHeight * 3 / 4, mWidth * 3 / 4, ANGLE, MIRROR, "portrait", null);
+    }
+
+    @Benchmark
+    public byte[] jpegRoundTrip() throws IOException {
+        byte[] jpeg = JpegFrames.compress(mFrame, mWidth, mHeight, 100);
+        // Same fitted size as the direct path, before the rotation transposes it.
+        int width = mTransform.getOutputHeight();
+        int height = mTransform.getOutputWidth();
+        return JpegFrames.compress(JpegFrames.resizeAndRotate(JpegFrames.decode(jpeg), width, height, ANGLE, MIRROR), QUALITY);
+    }
+
+    @Benchmark
+    public byte[] direct() throws IOException {
+        int width = mTransform.getOutputWidth();
+        int height = mTransform.getOutputHeight();
+        mTransformed = mTransform.transform(mFrame, mTransformed);
+        mPixels = Nv21Converter.convert(mTransformed, width, height, Nv21Converter.RGB888, mPixels);
+        return JpegFrames.compress(JpegFrames.toImage(mPixels, width, height), QUALITY);
+    }
+}
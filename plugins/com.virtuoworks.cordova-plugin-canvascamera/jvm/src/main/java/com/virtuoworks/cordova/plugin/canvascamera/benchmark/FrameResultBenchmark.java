@@ -0,0 +1,97 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameResult;
+import com.virtuoworks.cordova.plugin.canvascamera.FrameStats;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Result message of a "data" frame : the fullsize and thumbnail data URLs,
+// the timings and the message around them, serialized as the bridge does.
+// java.util.Base64 stands in for android.util.Base64, the DEFAULT flags
+// wrap lines at 76 characters. The options and preview descriptions come
+// from the plugin state, they are built once here.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameResultBenchmark {
+
+    private static final Base64.Encoder BASE64 = Base64.getMimeEncoder(76, new byte[]{'\n'});
+    private static final String MIME_TYPE = "image/jpeg";
+
+    // Fullsize JPEG bytes, about a 352x288 frame and a 1280x720 one, the
+    // thumbnail being 1/16th of it.
+    @Param({"16384", "131072"})
+    public int payloadLength;
+
+    private byte[] mFullsize;
+    private byte[] mThumbnail;
+    private long[] mTimings;
+    private JSONObject mOptions;
+    private JSONObject mPreview;
+
+    @Setup
+    public void setUp() throws JSONException {
+        Random random = new Random(15);
+        mFullsize = new byte[payloadLength];
+        random.nextBytes(mFullsize);
+        mThumbnail = Arrays.copyOf(mFullsize, payloadLength / 16);
+
+        mTimings = new long[FrameStats.STAGES.length];
+        for (int i = 0; i < mTimings.length; i++) {
+            mTimings[i] = 1000000L * (i + 1);
+        }
+
+        mOptions = new JSONObject("{\"width\":352,\"height\":288,\"fps\":30,\"flashMode\":false,\"cameraFacing\":\"front\","
+                + "\"hasThumbnail\":true,\"thumbnailRatio\":0.25,\"pixelFormat\":\"RGBA8888\",\"binary\":false,\"cameraApi\":\"camera\","
+                + "\"processors\":[],\"timings\":true,\"outputs\":[],\"encoder\":{\"name\":\"default\",\"format\":\"jpeg\",\"quality\":85,"
+                + "\"subsampling\":\"420\"},\"canvas\":{\"width\":352,\"height\":288},\"capture\":{\"width\":352,\"height\":288}}");
+        mPreview = new JSONObject("{\"started\":true,\"format\":\"NV21\",\"focusMode\":\"continuous-video\",\"width\":352,\"height\":288,"
+                + "\"cameraApi\":\"camera\",\"buffers\":{\"size\":3,\"inFlight\":1,\"reused\":1000,\"starved\":0}}");
+    }
+
+    @Benchmark
+    public String dataUrl() {
+        return FrameResult.getDataUrl(MIME_TYPE, BASE64.encodeToString(mFullsize));
+    }
+
+    @Benchmark
+    public String message() {
+        long timestamp = 1700000000040L;
+        JSONObject images = new JSONObject();
+
+        JSONObject fullsize = FrameResult.getImage("fullsize", FrameResult.getDataUrl(MIME_TYPE, BASE64.encodeToString(mFullsize)), null, null);
+        FrameResult.putImage(images, "fullsize", fullsize, null, 90, "portrait", timestamp);
+        JSONObject thumbnail = FrameResult.getImage("thumbnail", FrameResult.getDataUrl(MIME_TYPE, BASE64.encodeToString(mThumbnail)), null, null);
+        FrameResult.putImage(images, "thumbnail", thumbnail, null, 90, "portrait", timestamp);
+
+        JSONObject output = new JSONObject();
+        try {
+            output.put("images", images);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        FrameResult.putTimings(mTimings, output);
+
+        return FrameResult.getMessage("OK", mOptions, mPreview, null, output).toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameStats;
+import com.virtuoworks.cordova.plugin.canvascamera.PreviewFrame;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Per frame stage timings, recorded for every frame sent, and the getStats
+// result built from them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameStatsBenchmark {
+
+    // android.graphics.ImageFormat.NV21
+    private static final int NV21 = 17;
+
+    private FrameStats mStats;
+    private PreviewFrame mFrame;
+
+    @Setup
+    public void setUp() {
+        mStats = new FrameStats();
+        mFrame = new PreviewFrame(new byte[0], 352, 288, NV21, 0, 0);
+
+        // A frame that went through every stage, a few milliseconds each.
+        long[] timings = mFrame.getTimings();
+        for (int i = 0; i < timings.length; i++) {
+            timings[i] = 250000L + 750000L * i;
+        }
+        for (int i = 0; i < 10000; i++) {
+            mStats.commit(mFrame);
+        }
+    }
+
+    @Benchmark
+    public void commit() {
+        mStats.commit(mFrame);
+    }
+
+    @Benchmark
+    public JSONObject toJSON() {
+        return mStats.toJSON();
+    }
+}
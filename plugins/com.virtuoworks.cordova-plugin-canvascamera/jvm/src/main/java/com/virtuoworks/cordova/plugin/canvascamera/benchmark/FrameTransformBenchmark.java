@@ -0,0 +1,78 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameTransform;
+import com.virtuoworks.cordova.plugin.canvascamera.RowBands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Building the frame plan (done once per configuration) and running a
+// frame through it, one thread.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameTransformBenchmark {
+
+    @Param({"224x224", "352x288", "640x480", "1280x720"})
+    public String size;
+
+    private static final double[] ROI = {0.125, 0.125, 0.75, 0.75};
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private FrameTransform mScaled;
+    private FrameTransform mCropped;
+    private byte[] mOutput;
+
+    @Setup
+    public void setUp() {
+        RowBands.configure(0, 1);
+
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+        mScaled = plan();
+        mCropped = new FrameTransform(mWidth, mHeight, 0, 0, 90, true, "portrait", ROI);
+    }
+
+    // Front camera in portrait, fitted into half the frame size.
+    @Benchmark
+    public FrameTransform plan() {
+        return new FrameTransform(mWidth, mHeight, mWidth / 2, mHeight / 2, 90, true, "portrait", null);
+    }
+
+    @Benchmark
+    public FrameTransform planRegion() {
+        return new FrameTransform(mWidth, mHeight, mWidth / 2, mHeight / 2, 90, true, "portrait", ROI);
+    }
+
+    // Sampled through the plan lookup tables.
+    @Benchmark
+    public byte[] scaled() {
+        mOutput = mScaled.transform(mFrame, mOutput);
+        return mOutput;
+    }
+
+    // Unscaled region of interest, through the crop, mirror and rotate kernels.
+    @Benchmark
+    public byte[] cropped() {
+        mOutput = mCropped.transform(mFrame, mOutput);
+        return mOutput;
+    }
+}
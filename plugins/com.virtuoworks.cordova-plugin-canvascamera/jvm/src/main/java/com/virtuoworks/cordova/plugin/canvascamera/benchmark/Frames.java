@@ -0,0 +1,34 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import java.util.Random;
+
+// Synthetic NV21 frames: a luma gradient with some noise, so that the
+// kernels do not run on constant data, and neutral chroma with the same noise.
+public class Frames {
+
+    private Frames() {}
+
+    // "width x height" as used by the size parameters.
+    public static int[] parseSize(String size) {
+        String[] widthHeight = size.split("x");
+        return new int[]{Integer.parseInt(widthHeight[0]), Integer.parseInt(widthHeight[1])};
+    }
+
+    public static byte[] nv21(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int frameSize = width * height;
+        byte[] frame = new byte[frameSize * 3 / 2];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = 16 + (x * 219 / width + y * 219 / height) / 2 + random.nextInt(9) - 4;
+                frame[y * width + x] = (byte) Math.max(0, Math.min(255, luma));
+            }
+        }
+        for (int i = frameSize; i < frame.length; i++) {
+            frame[i] = (byte) (128 + random.nextInt(33) - 16);
+        }
+
+        return frame;
+    }
+}
@@ -0,0 +1,99 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Converter;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+// JVM stand-ins for the framework calls of the bitmap path, so that it can be
+// measured next to the NV21 path: ImageIO for YuvImage.compressToJpeg,
+// BitmapFactory.decodeByteArray and Bitmap.compress, a bilinear Graphics2D
+// draw for createScaledBitmap and the rotation matrix.
+public class JpegFrames {
+
+    static {
+        ImageIO.setUseCache(false);
+    }
+
+    private JpegFrames() {}
+
+    // YuvImage.compressToJpeg.
+    public static byte[] compress(byte[] nv21, int width, int height, int quality) throws IOException {
+        return compress(toImage(Nv21Converter.convert(nv21, width, height, Nv21Converter.RGB888), width, height), quality);
+    }
+
+    // Bitmap.compress.
+    public static byte[] compress(BufferedImage image, int quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageOutputStream output = ImageIO.createImageOutputStream(bytes);
+        try {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            output.close();
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // BitmapFactory.decodeByteArray.
+    public static BufferedImage decode(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    // Scales image to width x height, then rotates (clockwise) and mirrors it.
+    public static BufferedImage resizeAndRotate(BufferedImage image, int width, int height, int angle, boolean mirror) {
+        boolean transposed = angle == 90 || angle == 270;
+        int outWidth = transposed ? height : width;
+        int outHeight = transposed ? width : height;
+
+        AffineTransform matrix = new AffineTransform();
+        matrix.translate(outWidth / 2.0, outHeight / 2.0);
+        matrix.rotate(Math.toRadians(angle));
+        if (mirror) {
+            matrix.scale(-1, 1);
+        }
+        matrix.scale((double) width / image.getWidth(), (double) height / image.getHeight());
+        matrix.translate(-image.getWidth() / 2.0, -image.getHeight() / 2.0);
+
+        BufferedImage out = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = out.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, matrix, null);
+        } finally {
+            graphics.dispose();
+        }
+        return out;
+    }
+
+    // RGB888 pixels, as converted from NV21.
+    public static BufferedImage toImage(byte[] rgb, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, i += 3) {
+                row[x] = (rgb[i] & 0xff) << 16 | (rgb[i + 1] & 0xff) << 8 | (rgb[i + 2] & 0xff);
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+}
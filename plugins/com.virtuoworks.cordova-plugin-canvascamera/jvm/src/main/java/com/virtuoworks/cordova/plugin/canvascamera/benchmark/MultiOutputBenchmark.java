@@ -0,0 +1,131 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.FrameTransform;
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Converter;
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Transformer;
+import com.virtuoworks.cordova.plugin.canvascamera.RowBands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Fullsize, half size (model input) and thumbnail (the default 1/6 ratio)
+// outputs of a front camera frame in portrait, one thread.
+// independent samples every output from the preview frame through its own
+// lookup tables, cascade transforms the fullsize output only and scales the
+// others down from it through the levels planned with the transform.
+// Encoding costs the same in both and is left out.
+// jpegThumbnail is the former thumbnail path (the fullsize JPEG decoded to
+// read its size, decoded again, scaled and compressed), cascadeThumbnail the
+// same thumbnail scaled from the fullsize NV21 output and compressed once.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiOutputBenchmark {
+
+    private static final int ANGLE = 90;
+    private static final boolean MIRROR = true;
+    private static final int QUALITY = 85;
+    private static final int THUMBNAIL_RATIO = 6;
+
+    @Param({"352x288", "640x480", "1280x720"})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private FrameTransform mTransform;
+    // Output sizes, fullsize first.
+    private int[][] mSizes;
+    // Lookup tables of every output, from the preview frame.
+    private int[][][] mLuts;
+    private byte[][] mOutputs;
+    private byte[][] mBuffers;
+    private byte[][] mLevels;
+    private Nv21Transformer.Cascade mCascade;
+    private Nv21Transformer.Cascade mThumbnailCascade;
+    private byte[] mFullsizeJpeg;
+    private int[][] mThumbnailSize;
+    private byte[][] mThumbnailBuffer;
+    private byte[][] mThumbnailLevel;
+    private byte[] mPixels;
+
+    @Setup
+    public void setUp() throws IOException {
+        RowBands.configure(0, 1);
+
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+        mTransform = new FrameTransform(mWidth, mHeight, mHeight * 3 / 4, mWidth * 3 / 4, ANGLE, MIRROR, "portrait", null);
+
+        int width = mTransform.getOutputWidth();
+        int height = mTransform.getOutputHeight();
+        mSizes = new int[][]{{width, height}, {width / 2, height / 2}, {width / THUMBNAIL_RATIO, height / THUMBNAIL_RATIO}};
+
+        int[] crop = {0, 0, mWidth, mHeight};
+        mLuts = new int[mSizes.length][][];
+        for (int i = 0; i < mSizes.length; i++) {
+            // Sizes before the rotation transposes them.
+            mLuts[i] = Nv21Transformer.getLuts(mWidth, crop, mSizes[i][1], mSizes[i][0], ANGLE, MIRROR);
+        }
+        mCascade = new Nv21Transformer.Cascade(width, height, mSizes);
+        mOutputs = new byte[mSizes.length][];
+        mBuffers = new byte[mSizes.length][];
+        mLevels = new byte[mSizes.length][];
+
+        mOutputs[0] = mTransform.transform(mFrame, null);
+        mFullsizeJpeg = JpegFrames.compress(JpegFrames.toImage(Nv21Converter.convert(mOutputs[0], width, height, Nv21Converter.RGB888), width, height), QUALITY);
+        mThumbnailSize = new int[][]{mSizes[2]};
+        mThumbnailCascade = new Nv21Transformer.Cascade(width, height, mThumbnailSize);
+        mThumbnailBuffer = new byte[1][];
+        mThumbnailLevel = new byte[1][];
+    }
+
+    @Benchmark
+    public byte[][] independent() {
+        for (int i = 0; i < mSizes.length; i++) {
+            mOutputs[i] = Nv21Transformer.transform(mFrame, mWidth, mHeight, mLuts[i], mOutputs[i]);
+        }
+        return mOutputs;
+    }
+
+    @Benchmark
+    public byte[][] cascade() {
+        mOutputs[0] = mTransform.transform(mFrame, mOutputs[0]);
+        return Nv21Transformer.cascade(mOutputs[0], mCascade, mBuffers, mLevels);
+    }
+
+    @Benchmark
+    public byte[] jpegThumbnail() throws IOException {
+        BufferedImage sizing = JpegFrames.decode(mFullsizeJpeg);
+        int width = sizing.getWidth();
+        int height = sizing.getHeight();
+        return JpegFrames.compress(JpegFrames.resizeAndRotate(JpegFrames.decode(mFullsizeJpeg), width / THUMBNAIL_RATIO, height / THUMBNAIL_RATIO, 0, false), QUALITY);
+    }
+
+    @Benchmark
+    public byte[] cascadeThumbnail() throws IOException {
+        byte[] thumbnail = Nv21Transformer.cascade(mOutputs[0], mThumbnailCascade, mThumbnailBuffer, mThumbnailLevel)[0];
+        int width = Nv21Transformer.toEven(mSizes[2][0]);
+        int height = Nv21Transformer.toEven(mSizes[2][1]);
+        mPixels = Nv21Converter.convert(thumbnail, width, height, Nv21Converter.RGB888, mPixels);
+        return JpegFrames.compress(JpegFrames.toImage(mPixels, width, height), QUALITY);
+    }
+}
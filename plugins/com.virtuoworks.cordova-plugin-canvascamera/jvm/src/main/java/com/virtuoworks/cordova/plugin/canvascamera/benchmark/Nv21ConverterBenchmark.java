@@ -0,0 +1,55 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Converter;
+import com.virtuoworks.cordova.plugin.canvascamera.RowBands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// NV21 to the raw output pixel formats, one thread.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Nv21ConverterBenchmark {
+
+    @Param({"224x224", "352x288", "640x480", "1280x720"})
+    public String size;
+
+    @Param({Nv21Converter.GRAY8, Nv21Converter.RGB888, Nv21Converter.RGBA8888})
+    public String format;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private byte[] mPixels;
+
+    @Setup
+    public void setUp() {
+        RowBands.configure(0, 1);
+
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+    }
+
+    @Benchmark
+    public byte[] convert() {
+        mPixels = Nv21Converter.convert(mFrame, mWidth, mHeight, format, mPixels);
+        return mPixels;
+    }
+}
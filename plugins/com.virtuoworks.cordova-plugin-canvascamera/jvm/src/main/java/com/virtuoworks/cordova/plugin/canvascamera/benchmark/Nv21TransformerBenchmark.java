@@ -0,0 +1,92 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Transformer;
+import com.virtuoworks.cordova.plugin.canvascamera.RowBands;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Scaling, rotation and mirroring of a NV21 preview frame, one thread.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Nv21TransformerBenchmark {
+
+    @Param({"224x224", "352x288", "640x480", "1280x720"})
+    public String size;
+
+    @Param({"0", "90"})
+    public int angle;
+
+    @Param({"false", "true"})
+    public boolean mirror;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private int[] mCrop;
+    private int[][] mLuts;
+    private byte[] mScaled;
+    private int[][] mLevelSizes;
+    private byte[][] mLevels;
+
+    @Setup
+    public void setUp() {
+        RowBands.configure(0, 1);
+
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+        mCrop = new int[]{0, 0, mWidth, mHeight};
+        mLuts = Nv21Transformer.getLuts(mWidth, mCrop, mWidth * 3 / 4, mHeight * 3 / 4, angle, mirror);
+
+        // Fullsize, thumbnail at the default 1/6 ratio and a model input.
+        int scaledWidth = Nv21Transformer.getOutputWidth(mWidth * 3 / 4, mHeight * 3 / 4, angle);
+        int scaledHeight = Nv21Transformer.getOutputHeight(mWidth * 3 / 4, mHeight * 3 / 4, angle);
+        mScaled = Nv21Transformer.transform(mFrame, mWidth, mHeight, mLuts, null);
+        mLevelSizes = new int[][]{{scaledWidth, scaledHeight}, {scaledWidth / 6, scaledHeight / 6}, {scaledWidth / 2, scaledHeight / 2}};
+        mLevels = new byte[mLevelSizes.length][];
+    }
+
+    // 3/4 scale, lookup tables built for every frame.
+    @Benchmark
+    public byte[] transform() {
+        mScaled = Nv21Transformer.transform(mFrame, mWidth, mHeight, mCrop, mWidth * 3 / 4, mHeight * 3 / 4, angle, mirror, mScaled);
+        return mScaled;
+    }
+
+    // Same, lookup tables built once, as planned by FrameTransform.
+    @Benchmark
+    public byte[] transformPlanned() {
+        mScaled = Nv21Transformer.transform(mFrame, mWidth, mHeight, mLuts, mScaled);
+        return mScaled;
+    }
+
+    @Benchmark
+    public int[][] luts() {
+        return Nv21Transformer.getLuts(mWidth, mCrop, mWidth * 3 / 4, mHeight * 3 / 4, angle, mirror);
+    }
+
+    // Fullsize, thumbnail and half size outputs from the transformed frame.
+    @Benchmark
+    public byte[][] cascade() {
+        int scaledWidth = mLevelSizes[0][0];
+        int scaledHeight = mLevelSizes[0][1];
+        return Nv21Transformer.cascade(mScaled, scaledWidth, scaledHeight, mLevelSizes, mLevels);
+    }
+}
@@ -0,0 +1,85 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Converter;
+import com.virtuoworks.cordova.plugin.canvascamera.Nv21Transformer;
+import com.virtuoworks.cordova.plugin.canvascamera.RowBands;
+import com.virtuoworks.cordova.plugin.canvascamera.Yuv420Kernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Row band kernels on 1 to 4 threads, the speedup is the threads=1 score
+// divided by the others. Frames are split whatever their size, the default
+// threshold only splits from 1280x720. Scores are only meaningful with at
+// least as many cores as threads.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowBandsBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private int[][] mLuts;
+    private int[] mCrop;
+    private byte[] mScaled;
+    private byte[] mRotated;
+    private byte[] mPixels;
+
+    @Setup
+    public void setUp() {
+        RowBands.configure(threads > 1 ? 1 : 0, threads);
+
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+        mCrop = new int[]{0, 0, mWidth, mHeight};
+        // Scaled by 3/4, rotated and mirrored: front camera in portrait.
+        mLuts = Nv21Transformer.getLuts(mWidth, mCrop, mWidth * 3 / 4, mHeight * 3 / 4, 90, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        RowBands.shutdown();
+    }
+
+    @Benchmark
+    public byte[] scale() {
+        mScaled = Nv21Transformer.transform(mFrame, mWidth, mHeight, mLuts, mScaled);
+        return mScaled;
+    }
+
+    @Benchmark
+    public byte[] rotate() {
+        mRotated = Yuv420Kernels.transform(mFrame, Yuv420Kernels.NV21, mWidth, mHeight, mCrop, 90, true, mRotated, Yuv420Kernels.NV21);
+        return mRotated;
+    }
+
+    @Benchmark
+    public byte[] convert() {
+        mPixels = Nv21Converter.convert(mFrame, mWidth, mHeight, Nv21Converter.RGBA8888, mPixels);
+        return mPixels;
+    }
+}
@@ -0,0 +1,70 @@
+package com.virtuoworks.cordova.plugin.canvascamera.benchmark;
+
+import com.virtuoworks.cordova.plugin.canvascamera.RowBands;
+import com.virtuoworks.cordova.plugin.canvascamera.Yuv420Kernels;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Unscaled crop, mirror and rotate of a NV21 preview frame, one thread.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Yuv420KernelsBenchmark {
+
+    @Param({"224x224", "352x288", "640x480", "1280x720"})
+    public String size;
+
+    @Param({"0", "90", "180", "270"})
+    public int angle;
+
+    @Param({"false", "true"})
+    public boolean mirror;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private int[] mCrop;
+    private byte[] mNv21;
+    private byte[] mI420;
+
+    @Setup
+    public void setUp() {
+        RowBands.configure(0, 1);
+
+        int[] widthHeight = Frames.parseSize(size);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+        mFrame = Frames.nv21(mWidth, mHeight, 1);
+        // Centered region of interest, 3/4 of the frame.
+        int cropWidth = mWidth * 3 / 4 & ~1;
+        int cropHeight = mHeight * 3 / 4 & ~1;
+        mCrop = new int[]{(mWidth - cropWidth) / 2 & ~1, (mHeight - cropHeight) / 2 & ~1, cropWidth, cropHeight};
+    }
+
+    @Benchmark
+    public byte[] nv21() {
+        mNv21 = Yuv420Kernels.transform(mFrame, Yuv420Kernels.NV21, mWidth, mHeight, mCrop, angle, mirror, mNv21, Yuv420Kernels.NV21);
+        return mNv21;
+    }
+
+    @Benchmark
+    public byte[] nv21ToI420() {
+        mI420 = Yuv420Kernels.transform(mFrame, Yuv420Kernels.NV21, mWidth, mHeight, mCrop, angle, mirror, mI420, Yuv420Kernels.I420);
+        return mI420;
+    }
+}
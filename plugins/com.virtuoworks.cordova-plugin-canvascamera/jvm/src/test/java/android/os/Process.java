@@ -0,0 +1,8 @@
+package android.os;
+
+// Stands in for the stub of the android.jar, whose thread priority calls are
+// native and missing on a plain JVM. Test classes come first on the classpath.
+public class Process {
+    public static void setThreadPriority(int priority) {
+    }
+}
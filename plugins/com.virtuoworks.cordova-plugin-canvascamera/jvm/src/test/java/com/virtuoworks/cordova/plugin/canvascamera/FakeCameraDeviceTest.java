@@ -0,0 +1,380 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// What the camera2 backend does with a device, off device: YUV_420_888
+// planes laid out the ways camera HALs hand them out are packed into NV21,
+// the capture size and fps range are picked from capability lists, and the
+// backend is driven by a fake Camera2Device.
+public class FakeCameraDeviceTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int CHROMA_WIDTH = WIDTH / 2;
+    private static final int CHROMA_HEIGHT = HEIGHT / 2;
+
+    // Preview sizes and AE target fps ranges of a typical back camera.
+    private static final int[][] SIZES = {{1920, 1080}, {1280, 720}, {960, 720}, {640, 480}, {352, 288}, {320, 240}, {176, 144}};
+    private static final int[][] FPS_RANGES = {{15, 15}, {7, 30}, {30, 30}, {24, 24}};
+
+    private final byte[] mFrame = getFrame();
+    private final FakeDevice mDevice = new FakeDevice();
+    private final List<byte[]> mFrames = new ArrayList<byte[]>();
+    private final List<String> mErrors = new ArrayList<String>();
+    private final FrameSource.Listener mListener = new FrameSource.Listener() {
+        @Override
+        public void onFrame(byte[] data, int width, int height, int format, long timestamp, long receivedAt) {
+            assertEquals(WIDTH, width);
+            assertEquals(HEIGHT, height);
+            assertEquals(ImageFormat.NV21, format);
+            mFrames.add(data.clone());
+        }
+
+        @Override
+        public void onError(String message) {
+            mErrors.add(message);
+        }
+    };
+
+    // Semi-planar VU in one buffer, U one byte after V, padded rows: the usual layout.
+    @Test
+    public void nv21Interleaved() {
+        ByteBuffer[] planes = getSemiPlanar(WIDTH + 32, true);
+        assertTrue(Yuv420Kernels.isNv21Interleaved(planes[1], planes[2], WIDTH + 32, 2, WIDTH, HEIGHT));
+        check(planes, WIDTH + 32, 2);
+    }
+
+    // Same layout in read only planes, as images hand them out: the layout
+    // check only reads them.
+    @Test
+    public void nv21ReadOnly() {
+        ByteBuffer[] planes = getSemiPlanar(WIDTH, true);
+        planes[1] = planes[1].asReadOnlyBuffer();
+        planes[2] = planes[2].asReadOnlyBuffer();
+        assertTrue(Yuv420Kernels.isNv21Interleaved(planes[1], planes[2], WIDTH, 2, WIDTH, HEIGHT));
+        check(planes, WIDTH, 2);
+    }
+
+    // Chroma planes of a different length than a whole plane are packed one
+    // sample at a time, whatever they hold.
+    @Test
+    public void nv21Truncated() {
+        ByteBuffer[] planes = getSemiPlanar(WIDTH, true);
+        planes[1].limit(planes[1].limit() - 2);
+        planes[2].limit(planes[2].limit() - 2);
+        assertFalse(Yuv420Kernels.isNv21Interleaved(planes[1], planes[2], WIDTH, 2, WIDTH, HEIGHT));
+    }
+
+    // UV order in one buffer, V one byte after U.
+    @Test
+    public void nv12Interleaved() {
+        ByteBuffer[] planes = getSemiPlanar(WIDTH + 16, false);
+        assertFalse(Yuv420Kernels.isNv21Interleaved(planes[1], planes[2], WIDTH + 16, 2, WIDTH, HEIGHT));
+        check(planes, WIDTH + 16, 2);
+    }
+
+    // Pixel stride 2 in two unrelated buffers.
+    @Test
+    public void separateStrided() {
+        int rowStride = WIDTH + 8;
+        ByteBuffer u = ByteBuffer.allocateDirect((CHROMA_HEIGHT - 1) * rowStride + 2 * CHROMA_WIDTH - 1);
+        ByteBuffer v = ByteBuffer.allocateDirect(u.capacity());
+        for (int row = 0; row < CHROMA_HEIGHT; row++) {
+            for (int col = 0; col < CHROMA_WIDTH; col++) {
+                u.put(row * rowStride + 2 * col, getU(col, row));
+                v.put(row * rowStride + 2 * col, getV(col, row));
+            }
+        }
+        ByteBuffer[] planes = {getLuma(WIDTH), u, v};
+        assertFalse(Yuv420Kernels.isNv21Interleaved(u, v, rowStride, 2, WIDTH, HEIGHT));
+        check(planes, rowStride, 2);
+    }
+
+    // Fully planar (I420), padded rows.
+    @Test
+    public void planar() {
+        int rowStride = CHROMA_WIDTH + 16;
+        ByteBuffer u = ByteBuffer.allocateDirect((CHROMA_HEIGHT - 1) * rowStride + CHROMA_WIDTH);
+        ByteBuffer v = ByteBuffer.allocateDirect(u.capacity());
+        for (int row = 0; row < CHROMA_HEIGHT; row++) {
+            for (int col = 0; col < CHROMA_WIDTH; col++) {
+                u.put(row * rowStride + col, getU(col, row));
+                v.put(row * rowStride + col, getV(col, row));
+            }
+        }
+        ByteBuffer[] planes = {getLuma(WIDTH + 64), u, v};
+        assertFalse(Yuv420Kernels.isNv21Interleaved(u, v, rowStride, 1, WIDTH, HEIGHT));
+        check(planes, rowStride, 1, WIDTH + 64);
+    }
+
+    @Test
+    public void captureSize() {
+        assertArrayEquals(new int[]{1280, 720}, SIZES[FrameGeometry.getOptimalSizeIndex(SIZES, 640, 360)]);
+        assertArrayEquals(new int[]{352, 288}, SIZES[FrameGeometry.getOptimalSizeIndex(SIZES, 352, 288)]);
+        // Closest height among the 4:3 sizes, 1280x720 is as close but 16:9.
+        assertArrayEquals(new int[]{960, 720}, SIZES[FrameGeometry.getOptimalSizeIndex(SIZES, 1024, 768)]);
+        // No matching aspect ratio at all, closest height.
+        assertArrayEquals(new int[]{1920, 1080}, SIZES[FrameGeometry.getOptimalSizeIndex(SIZES, 1000, 1000)]);
+        assertEquals(-1, FrameGeometry.getOptimalSizeIndex(new int[0][], 640, 480));
+    }
+
+    @Test
+    public void fpsRange() {
+        // Fixed rate preferred over a variable one with the same upper bound.
+        assertArrayEquals(new int[]{30000, 30000}, FrameGeometry.getOptimalFpsRange(FPS_RANGES, 30));
+        assertArrayEquals(new int[]{24000, 24000}, FrameGeometry.getOptimalFpsRange(FPS_RANGES, 25));
+        // Every range goes over, the slowest one.
+        assertArrayEquals(new int[]{15000, 15000}, FrameGeometry.getOptimalFpsRange(FPS_RANGES, 5));
+        // No range reported.
+        assertArrayEquals(new int[]{20000, 20000}, FrameGeometry.getOptimalFpsRange(null, 20));
+    }
+
+    // The front camera, its stream configuration picked like the preview one.
+    @Test
+    public void opensCamera() {
+        Camera2Backend backend = new Camera2Backend(mDevice, new PreviewBufferPool(2), mListener);
+        assertTrue(backend.open(Camera.CameraInfo.CAMERA_FACING_FRONT, 640, 360, 30, true, 1));
+
+        assertTrue(backend.isOpened());
+        assertEquals("1", mDevice.mId);
+        assertEquals(1280, mDevice.mWidth);
+        assertEquals(720, mDevice.mHeight);
+        assertArrayEquals(new int[]{30, 30}, mDevice.mFpsRange);
+        // The reader skips to the latest image with one image to spare.
+        assertEquals(2, mDevice.mMaxImages);
+        assertTrue(mDevice.mContinuousVideoFocus);
+        // No flash on the front camera.
+        assertFalse(mDevice.mFlash);
+
+        assertEquals(270, backend.getSensorOrientation());
+        assertArrayEquals(new int[]{30000, 30000}, backend.getFpsRange());
+        assertEquals(Camera2Backend.FOCUS_MODE_CONTINUOUS_VIDEO, backend.getFocusMode());
+        assertFalse(backend.isFlashOn());
+
+        backend.close();
+        assertFalse(backend.isOpened());
+        assertNull(mDevice.mCallback);
+    }
+
+    @Test
+    public void noCameraFacing() {
+        mDevice.mCameras = new Camera2Device.Info[]{mDevice.mCameras[0]};
+        Camera2Backend backend = new Camera2Backend(mDevice, new PreviewBufferPool(2), mListener);
+        assertFalse(backend.open(Camera.CameraInfo.CAMERA_FACING_FRONT, 640, 480, 30, false, 2));
+        assertFalse(backend.isOpened());
+        assertNull(mDevice.mId);
+    }
+
+    @Test
+    public void openFailure() {
+        mDevice.mFailOpen = true;
+        Camera2Backend backend = new Camera2Backend(mDevice, new PreviewBufferPool(2), mListener);
+        assertFalse(backend.open(Camera.CameraInfo.CAMERA_FACING_BACK, 640, 480, 30, true, 2));
+        assertFalse(backend.isOpened());
+    }
+
+    // Images come out as NV21 frames of the pool, the chroma layout being
+    // checked again for every session.
+    @Test
+    public void deliversFrames() {
+        // Frames are kept, not released to the pool.
+        PreviewBufferPool pool = new PreviewBufferPool(3);
+        Camera2Backend backend = openSmall(pool);
+        ByteBuffer[] planes = getSemiPlanar(WIDTH + 32, true);
+        mDevice.deliver(planes, WIDTH, WIDTH + 32, 2);
+        mDevice.deliver(planes, WIDTH, WIDTH + 32, 2);
+
+        backend = openSmall(pool);
+        mDevice.deliver(getSemiPlanar(WIDTH, false), WIDTH, WIDTH, 2);
+
+        assertEquals(3, mFrames.size());
+        for (byte[] frame : mFrames) {
+            assertArrayEquals(mFrame, frame);
+        }
+        backend.close();
+    }
+
+    // Images arriving while every buffer is being rendered are dropped.
+    @Test
+    public void dropsWithoutIdleBuffer() {
+        PreviewBufferPool pool = new PreviewBufferPool(1);
+        Camera2Backend backend = openSmall(pool);
+        ByteBuffer[] planes = getSemiPlanar(WIDTH, true);
+        mDevice.deliver(planes, WIDTH, WIDTH, 2);
+        mDevice.deliver(planes, WIDTH, WIDTH, 2);
+
+        assertEquals(1, mFrames.size());
+        assertEquals(1, pool.getStarvedCount());
+        backend.close();
+    }
+
+    @Test
+    public void reportsErrors() {
+        Camera2Backend backend = openSmall(new PreviewBufferPool(2));
+        mDevice.mCallback.onError("Camera [0] was disconnected.");
+
+        assertEquals(1, mErrors.size());
+        assertEquals("Camera [0] was disconnected.", mErrors.get(0));
+        backend.close();
+    }
+
+    private Camera2Backend openSmall(PreviewBufferPool pool) {
+        mDevice.mCameras = new Camera2Device.Info[]{
+                new Camera2Device.Info("0", Camera.CameraInfo.CAMERA_FACING_BACK, 90, new int[][]{{WIDTH, HEIGHT}}, null, false, true)
+        };
+        Camera2Backend backend = new Camera2Backend(mDevice, pool, mListener);
+        assertTrue(backend.open(Camera.CameraInfo.CAMERA_FACING_BACK, WIDTH, HEIGHT, 30, false, 2));
+        return backend;
+    }
+
+    private void check(ByteBuffer[] planes, int uvRowStride, int uvPixelStride) {
+        check(planes, uvRowStride, uvPixelStride, WIDTH);
+    }
+
+    private void check(ByteBuffer[] planes, int uvRowStride, int uvPixelStride, int yRowStride) {
+        boolean interleaved = Yuv420Kernels.isNv21Interleaved(planes[1], planes[2], uvRowStride, uvPixelStride, WIDTH, HEIGHT);
+        byte[] out = new byte[mFrame.length];
+        Yuv420Kernels.packNv21(planes[0], yRowStride, planes[1], planes[2], uvRowStride, uvPixelStride, interleaved, WIDTH, HEIGHT, out);
+        assertArrayEquals(mFrame, out);
+
+        // Both ways give the same frame.
+        out = new byte[mFrame.length];
+        Yuv420Kernels.packNv21(planes[0], yRowStride, planes[1], planes[2], uvRowStride, uvPixelStride, false, WIDTH, HEIGHT, out);
+        assertArrayEquals(mFrame, out);
+    }
+
+    private ByteBuffer getLuma(int rowStride) {
+        ByteBuffer y = ByteBuffer.allocateDirect((HEIGHT - 1) * rowStride + WIDTH);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                y.put(row * rowStride + col, mFrame[row * WIDTH + col]);
+            }
+        }
+        return y;
+    }
+
+    // One chroma buffer of interleaved samples, V first (NV21) or U first
+    // (NV12), each plane a view starting on its first sample.
+    private ByteBuffer[] getSemiPlanar(int rowStride, boolean vFirst) {
+        ByteBuffer chroma = ByteBuffer.allocateDirect(CHROMA_HEIGHT * rowStride);
+        for (int row = 0; row < CHROMA_HEIGHT; row++) {
+            for (int col = 0; col < CHROMA_WIDTH; col++) {
+                chroma.put(row * rowStride + 2 * col, vFirst ? getV(col, row) : getU(col, row));
+                chroma.put(row * rowStride + 2 * col + 1, vFirst ? getU(col, row) : getV(col, row));
+            }
+        }
+
+        int length = (CHROMA_HEIGHT - 1) * rowStride + 2 * CHROMA_WIDTH - 1;
+        ByteBuffer first = slice(chroma, 0, length);
+        ByteBuffer second = slice(chroma, 1, length);
+        return vFirst ? new ByteBuffer[]{getLuma(WIDTH), second, first} : new ByteBuffer[]{getLuma(WIDTH), first, second};
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice();
+    }
+
+    private byte getV(int col, int row) {
+        return mFrame[WIDTH * HEIGHT + row * WIDTH + 2 * col];
+    }
+
+    private byte getU(int col, int row) {
+        return mFrame[WIDTH * HEIGHT + row * WIDTH + 2 * col + 1];
+    }
+
+    private static byte[] getFrame() {
+        byte[] frame = new byte[Yuv420Kernels.getFrameSize(WIDTH, HEIGHT)];
+        new Random(10).nextBytes(frame);
+        return frame;
+    }
+
+    // A back camera with a flash and a front one without, the way
+    // Camera2Session reports them.
+    private static class FakeDevice implements Camera2Device {
+        Info[] mCameras = {
+                new Info("0", Camera.CameraInfo.CAMERA_FACING_BACK, 90, SIZES, FPS_RANGES, true, true),
+                new Info("1", Camera.CameraInfo.CAMERA_FACING_FRONT, 270, SIZES, FPS_RANGES, true, false)
+        };
+        boolean mFailOpen = false;
+
+        String mId = null;
+        int mWidth = 0;
+        int mHeight = 0;
+        int mMaxImages = 0;
+        int[] mFpsRange = null;
+        boolean mContinuousVideoFocus = false;
+        boolean mFlash = false;
+        Callback mCallback = null;
+
+        @Override
+        public Info[] getCameras() {
+            return mCameras;
+        }
+
+        @Override
+        public void open(String id, int width, int height, int maxImages, int[] fpsRange, boolean continuousVideoFocus, boolean flash, Callback callback) throws Exception {
+            if (mFailOpen) {
+                throw new Exception("Camera in use.");
+            }
+            mId = id;
+            mWidth = width;
+            mHeight = height;
+            mMaxImages = maxImages;
+            mFpsRange = fpsRange;
+            mContinuousVideoFocus = continuousVideoFocus;
+            mFlash = flash;
+            mCallback = callback;
+        }
+
+        @Override
+        public void close() {
+            mCallback = null;
+        }
+
+        void deliver(final ByteBuffer[] planes, final int yRowStride, final int uvRowStride, final int uvPixelStride) {
+            mCallback.onImage(new Planes() {
+                @Override
+                public int getWidth() {
+                    return mWidth;
+                }
+
+                @Override
+                public int getHeight() {
+                    return mHeight;
+                }
+
+                @Override
+                public ByteBuffer getBuffer(int plane) {
+                    return planes[plane];
+                }
+
+                @Override
+                public int getRowStride(int plane) {
+                    return plane == 0 ? yRowStride : uvRowStride;
+                }
+
+                @Override
+                public int getPixelStride(int plane) {
+                    return plane == 0 ? 1 : uvPixelStride;
+                }
+            }, System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Slot layout of the mapped frame ring: every slot header starts a page, so
+// no page holds the end of a frame and the header of the next slot.
+public class FrameMappedRingTest {
+
+    private static final int PAGE_SIZE = 4096;
+
+    private File mFile;
+    private FrameMappedRing mRing;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("frames", ".ring");
+        mRing = new FrameMappedRing(mFile, 3, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        mRing.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void slotsStartOnPages() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            checkSlot(mRing.write(frame(i, 5000), 1000 + i), i % 3);
+        }
+    }
+
+    // Growing the slots keeps them on pages.
+    @Test
+    public void grownSlotsStartOnPages() throws Exception {
+        checkSlot(mRing.write(frame(1, 100), 1000), 0);
+        checkSlot(mRing.write(frame(2, 3 * PAGE_SIZE + 1), 1001), 0);
+        checkSlot(mRing.write(frame(3, 10), 1002), 1);
+    }
+
+    private void checkSlot(FrameMappedRing.Slot slot, int index) throws Exception {
+        assertEquals(index, slot.getIndex());
+        int slotOffset = slot.getOffset() - FrameMappedRing.SLOT_HEADER_LENGTH;
+        assertEquals(0, slotOffset % PAGE_SIZE);
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            int stride = Integer.reverseBytes(readInt(file, 16));
+            assertEquals(0, stride % PAGE_SIZE);
+            assertEquals(FrameMappedRing.HEADER_LENGTH, Integer.reverseBytes(readInt(file, 8)));
+            assertTrue(slot.getLength() <= stride - FrameMappedRing.SLOT_HEADER_LENGTH);
+
+            byte[] payload = new byte[slot.getLength()];
+            file.seek(slot.getOffset());
+            file.readFully(payload);
+            assertArrayEquals(frame(payload[0], slot.getLength()), payload);
+            assertEquals(slot.getSequence(), Integer.reverseBytes(readInt(file, slotOffset)) & 0xFFFFFFFFL);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static int readInt(RandomAccessFile file, long offset) throws Exception {
+        file.seek(offset);
+        return file.readInt();
+    }
+
+    private static byte[] frame(int value, int length) {
+        byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte) value);
+        return frame;
+    }
+}
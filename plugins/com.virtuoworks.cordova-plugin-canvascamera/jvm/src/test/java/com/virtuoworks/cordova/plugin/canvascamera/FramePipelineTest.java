@@ -0,0 +1,123 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Frames handed through the encode and deliver stage threads, parked with
+// no timeout between frames, and stopped with frames still in flight.
+public class FramePipelineTest {
+
+    private static final int FRAMES = 2000;
+
+    private FramePipeline<long[]> mPipeline;
+
+    @After
+    public void tearDown() {
+        if (mPipeline != null) {
+            mPipeline.stop();
+        }
+    }
+
+    // Every published frame is delivered, in order, nothing relies on a timed wake up.
+    @Test(timeout = 30000)
+    public void deliversInOrder() throws Exception {
+        final List<Long> delivered = new ArrayList<Long>();
+        final CountDownLatch done = new CountDownLatch(FRAMES);
+        mPipeline = new FramePipeline<long[]>(getSlots(3), new FramePipeline.Stage<long[]>() {
+            public void process(long[] slot) {
+                slot[1] = slot[0] * 2;
+            }
+        }, new FramePipeline.Stage<long[]>() {
+            public void process(long[] slot) {
+                assertEquals(slot[0] * 2, slot[1]);
+                delivered.add(slot[0]);
+                done.countDown();
+            }
+        }, 0);
+        mPipeline.start();
+
+        for (long frame = 0; frame < FRAMES; frame++) {
+            long[] slot = mPipeline.obtain();
+            slot[0] = frame;
+            assertTrue(mPipeline.publish(slot));
+        }
+
+        assertTrue("Frames not delivered", done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(i, (long) delivered.get(i));
+        }
+        assertEquals(FRAMES, mPipeline.getCount(FramePipeline.DELIVER));
+    }
+
+    // The slot being encoded when stopping is finished and counted with the
+    // ones still queued, the stage threads have ended when stop() returns.
+    @Test(timeout = 30000)
+    public void stopCountsFramesInFlight() throws Exception {
+        final CountDownLatch encoding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> delivered = new ArrayList<Long>();
+        mPipeline = new FramePipeline<long[]>(getSlots(4), new FramePipeline.Stage<long[]>() {
+            public void process(long[] slot) {
+                encoding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, new FramePipeline.Stage<long[]>() {
+            public void process(long[] slot) {
+                delivered.add(slot[0]);
+            }
+        }, 0);
+        mPipeline.start();
+
+        for (long frame = 0; frame < 3; frame++) {
+            long[] slot = mPipeline.obtain();
+            slot[0] = frame;
+            assertTrue(mPipeline.publish(slot));
+        }
+        assertTrue(encoding.await(10, TimeUnit.SECONDS));
+
+        final int[] abandoned = {-1};
+        Thread stopper = new Thread(new Runnable() {
+            public void run() {
+                abandoned[0] = mPipeline.stop();
+            }
+        });
+        stopper.start();
+        while (mPipeline.isRunning()) {
+            Thread.sleep(1);
+        }
+
+        // Stopped, a slot converted in the meantime is not published.
+        long[] late = mPipeline.obtain();
+        assertEquals(null, late);
+        assertFalse(mPipeline.publish(new long[2]));
+
+        release.countDown();
+        stopper.join(10000);
+        assertFalse(stopper.isAlive());
+
+        assertEquals(3, abandoned[0]);
+        assertTrue(delivered.isEmpty());
+        assertEquals(0, mPipeline.stop());
+    }
+
+    private static List<long[]> getSlots(int count) {
+        List<long[]> slots = new ArrayList<long[]>();
+        for (int i = 0; i < count; i++) {
+            slots.add(new long[2]);
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,135 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Java encoder output read back with ImageIO : the crop size, pixels close
+// to the NV21 source at every subsampling, and fewer bytes at lower quality.
+public class JavaJpegEncoderTest {
+
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 60;
+
+    @Test
+    public void decodesCloseToSourceAtEverySubsampling() throws Exception {
+        byte[] frame = getFrame(WIDTH, HEIGHT);
+        String[] subsamplings = {FrameEncoder.SUBSAMPLING_420, FrameEncoder.SUBSAMPLING_422, FrameEncoder.SUBSAMPLING_444};
+        for (String subsampling : subsamplings) {
+            JavaJpegEncoder encoder = new JavaJpegEncoder(FrameEncoder.JPEG, 95, subsampling);
+            BufferedImage image = decode(encoder.encode(frame, ImageFormat.NV21, WIDTH, HEIGHT, new int[]{0, 0, WIDTH, HEIGHT}));
+
+            assertEquals(WIDTH, image.getWidth());
+            assertEquals(HEIGHT, image.getHeight());
+            double error = getMeanError(frame, WIDTH, new int[]{0, 0, WIDTH, HEIGHT}, image);
+            assertTrue(subsampling + " mean error " + error, error < 3);
+        }
+    }
+
+    @Test
+    public void encodesTheCrop() throws Exception {
+        byte[] frame = getFrame(WIDTH, HEIGHT);
+        int[] crop = {10, 6, 37, 23};
+        JavaJpegEncoder encoder = new JavaJpegEncoder(FrameEncoder.JPEG, 95, null);
+        BufferedImage image = decode(encoder.encode(frame, ImageFormat.NV21, WIDTH, HEIGHT, crop));
+
+        assertEquals(37, image.getWidth());
+        assertEquals(23, image.getHeight());
+        double error = getMeanError(frame, WIDTH, crop, image);
+        assertTrue("mean error " + error, error < 3);
+    }
+
+    @Test
+    public void lowerQualityIsSmaller() throws Exception {
+        byte[] frame = getFrame(WIDTH, HEIGHT);
+        int[] crop = {0, 0, WIDTH, HEIGHT};
+        int high = new JavaJpegEncoder(FrameEncoder.JPEG, 95, null).encode(frame, ImageFormat.NV21, WIDTH, HEIGHT, crop).length;
+        int low = new JavaJpegEncoder(FrameEncoder.JPEG, 30, null).encode(frame, ImageFormat.NV21, WIDTH, HEIGHT, crop).length;
+        assertTrue(low + " >= " + high, low < high);
+    }
+
+    @Test
+    public void rejectsOtherFormats() {
+        try {
+            new JavaJpegEncoder(FrameEncoder.PNG, 95, null);
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage().startsWith("Unsupported encoder format"));
+        }
+        try {
+            new JavaJpegEncoder(FrameEncoder.JPEG, 95, "411");
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getMessage().startsWith("Unsupported chroma subsampling"));
+        }
+    }
+
+    // Luma gradient, chroma waves.
+    private static byte[] getFrame(int width, int height) {
+        int frameSize = width * height;
+        byte[] frame = new byte[frameSize * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                frame[y * width + x] = (byte) (40 + x + y);
+            }
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                int offset = frameSize + y * width + 2 * x;
+                frame[offset] = (byte) (128 + 40 * Math.cos(y / 6.0));
+                frame[offset + 1] = (byte) (128 + 40 * Math.sin(x / 8.0));
+            }
+        }
+        return frame;
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        assertTrue(jpeg.length > 0);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        if (image == null) {
+            throw new IOException("Not a JPEG");
+        }
+        return image;
+    }
+
+    // Mean absolute difference per channel with the full range BT.601
+    // conversion of the crop.
+    private static double getMeanError(byte[] frame, int width, int[] crop, BufferedImage image) {
+        int frameSize = frame.length * 2 / 3;
+        double sum = 0;
+        for (int j = 0; j < crop[3]; j++) {
+            for (int i = 0; i < crop[2]; i++) {
+                int x = crop[0] + i;
+                int y = crop[1] + j;
+                int luma = frame[y * width + x] & 0xFF;
+                int offset = frameSize + (y >> 1) * width + (x & ~1);
+                int v = (frame[offset] & 0xFF) - 128;
+                int u = (frame[offset + 1] & 0xFF) - 128;
+                int[] expected = {
+                        clamp(luma + 1.402 * v),
+                        clamp(luma - 0.344136 * u - 0.714136 * v),
+                        clamp(luma + 1.772 * u)
+                };
+                int rgb = image.getRGB(i, j);
+                sum += Math.abs(((rgb >> 16) & 0xFF) - expected[0]);
+                sum += Math.abs(((rgb >> 8) & 0xFF) - expected[1]);
+                sum += Math.abs((rgb & 0xFF) - expected[2]);
+            }
+        }
+        return sum / (3.0 * crop[2] * crop[3]);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
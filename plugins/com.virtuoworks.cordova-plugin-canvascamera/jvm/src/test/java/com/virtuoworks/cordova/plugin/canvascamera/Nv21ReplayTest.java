@@ -0,0 +1,280 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Replays a recorded NV21 sequence through the transform and raw conversion
+// path, as fast as buffers are released, and compares every frame with the
+// output recorded when the test was written.
+public class Nv21ReplayTest {
+
+    // 4 frames of a square moving over a gradient.
+    private static final String FRAMES = "/replay/moving-square-32x24.nv21";
+    private static final String TIMESTAMPS = "/replay/moving-square-32x24.txt";
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+
+    private static final long[] RECORDED_TIMESTAMPS = {1000, 1033, 1067, 1100};
+
+    // Steady state of the render path, buffers and tables are all reused.
+    private static final long BUDGET_PER_FRAME = 16;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 200;
+
+    private PreviewBufferPool mBufferPool;
+    private Nv21FileSource mSource;
+    // Frames are rendered off the replay thread, like the frame mailbox does.
+    private ExecutorService mRenderer;
+
+    @Before
+    public void setUp() {
+        RowBands.configure(0, 1);
+        // A single buffer, the replay has to wait for every frame to be rendered.
+        mBufferPool = new PreviewBufferPool(1);
+        mRenderer = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        if (mSource != null) {
+            mSource.close();
+        }
+        mRenderer.shutdownNow();
+    }
+
+    // Front camera in portrait, fitted into 16x16: scaled through the lookup tables.
+    @Test
+    public void scaledRotatedMirrored() throws Exception {
+        FrameTransform transform = new FrameTransform(WIDTH, HEIGHT, 16, 16, 90, true, "portrait", null);
+
+        Replay replay = replay(transform);
+
+        assertArrayEquals(RECORDED_TIMESTAMPS, replay.getTimestamps());
+        assertArrayEquals(new long[]{2405085715L, 3225225587L, 2685869953L, 2186943883L}, replay.getChecksums());
+    }
+
+    // Unscaled region of interest: cropped, mirrored and rotated by the kernels.
+    @Test
+    public void croppedRegion() throws Exception {
+        FrameTransform transform = new FrameTransform(WIDTH, HEIGHT, 0, 0, 270, false, "landscape", new double[]{0.25, 0.25, 0.5, 0.5});
+
+        Replay replay = replay(transform);
+
+        assertArrayEquals(RECORDED_TIMESTAMPS, replay.getTimestamps());
+        assertArrayEquals(new long[]{3054997012L, 570518470L, 364937439L, 2878306168L}, replay.getChecksums());
+    }
+
+    // Transform, thumbnail and output levels, then RGBA pixels: the bytes
+    // allocated by the renderer thread while rendering, once warmed up.
+    @Test
+    public void allocationsPerFrame() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        FrameTransform transform = new FrameTransform(WIDTH, HEIGHT, 16, 16, 90, true, "portrait", null,
+                0.5, Collections.singletonList(new FrameOutput("model", 6, 6, 0, null)));
+        AllocationReplay replay = new AllocationReplay(transform, threads);
+        mSource = new Nv21FileSource(getResource(FRAMES), getResource(TIMESTAMPS), WIDTH, HEIGHT, 0, true, mBufferPool, replay);
+        assertTrue(mSource.open());
+
+        long perFrame = replay.await(10000);
+        assertTrue("Replay did not end", perFrame >= 0);
+        assertTrue(perFrame + " bytes allocated per frame, budget " + BUDGET_PER_FRAME, perFrame <= BUDGET_PER_FRAME);
+    }
+
+    private Replay replay(FrameTransform transform) throws Exception {
+        Replay replay = new Replay(transform);
+        mSource = new Nv21FileSource(getResource(FRAMES), getResource(TIMESTAMPS), WIDTH, HEIGHT, 0, false, mBufferPool, replay);
+        assertTrue(mSource.open());
+        assertEquals(RECORDED_TIMESTAMPS.length, mSource.getFrameCount());
+
+        assertTrue("Replay did not end", replay.await(RECORDED_TIMESTAMPS.length, 10000));
+        assertEquals(RECORDED_TIMESTAMPS.length, mSource.getDeliveredCount());
+        assertEquals(0, mSource.getSkippedCount());
+        assertEquals(0, mBufferPool.getInFlightCount());
+        assertEquals(null, replay.getError());
+
+        return replay;
+    }
+
+    private static File getResource(String name) throws URISyntaxException {
+        return new File(Nv21ReplayTest.class.getResource(name).toURI());
+    }
+
+    private class Replay implements FrameSource.Listener {
+        private final FrameTransform mTransform;
+        private final List<Long> mTimestamps = new ArrayList<Long>();
+        private final List<Long> mChecksums = new ArrayList<Long>();
+        private String mError = null;
+
+        // Kept from one frame to the next, like the render slots do.
+        private byte[] mTransformed = null;
+        private byte[] mPixels = null;
+
+        Replay(FrameTransform transform) {
+            mTransform = transform;
+        }
+
+        @Override
+        public void onFrame(final byte[] data, int width, int height, int format, final long timestamp, long receivedAt) {
+            mRenderer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long checksum;
+                    try {
+                        checksum = render(data);
+                    } finally {
+                        mBufferPool.release(data);
+                    }
+                    record(timestamp, checksum);
+                }
+            });
+        }
+
+        @Override
+        public synchronized void onError(String message) {
+            mError = message;
+        }
+
+        // Checksum of the transformed frame and its RGBA pixels.
+        private long render(byte[] data) {
+            mTransformed = mTransform.transform(data, mTransformed);
+            mPixels = Nv21Converter.convert(mTransformed, mTransform.getOutputWidth(), mTransform.getOutputHeight(), Nv21Converter.RGBA8888, mPixels);
+
+            CRC32 crc = new CRC32();
+            crc.update(mTransformed);
+            crc.update(mPixels);
+            return crc.getValue();
+        }
+
+        private synchronized void record(long timestamp, long checksum) {
+            mTimestamps.add(timestamp);
+            mChecksums.add(checksum);
+            notifyAll();
+        }
+
+        synchronized boolean await(int frames, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (mTimestamps.size() < frames) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                wait(wait);
+            }
+            return true;
+        }
+
+        synchronized long[] getTimestamps() {
+            return toArray(mTimestamps);
+        }
+
+        synchronized long[] getChecksums() {
+            return toArray(mChecksums);
+        }
+
+        synchronized String getError() {
+            return mError;
+        }
+    }
+
+    private class AllocationReplay implements FrameSource.Listener {
+        private final FrameTransform mTransform;
+        private final com.sun.management.ThreadMXBean mThreads;
+        private final byte[][] mBuffers;
+        private final byte[][] mLevels;
+        private byte[] mTransformed = null;
+        private byte[] mPixels = null;
+
+        private int mFrames = 0;
+        private long mAllocated = 0;
+
+        AllocationReplay(FrameTransform transform, com.sun.management.ThreadMXBean threads) {
+            mTransform = transform;
+            mThreads = threads;
+            mBuffers = new byte[transform.getCascade().getCount()][];
+            mLevels = new byte[mBuffers.length][];
+        }
+
+        @Override
+        public void onFrame(final byte[] data, int width, int height, int format, long timestamp, long receivedAt) {
+            mRenderer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long allocated;
+                    try {
+                        allocated = render(data);
+                    } finally {
+                        mBufferPool.release(data);
+                    }
+                    record(allocated);
+                }
+            });
+        }
+
+        @Override
+        public void onError(String message) {
+        }
+
+        private long render(byte[] data) {
+            long thread = Thread.currentThread().getId();
+            long before = mThreads.getThreadAllocatedBytes(thread);
+            mTransformed = mTransform.transform(data, mTransformed);
+            Nv21Transformer.cascade(mTransformed, mTransform.getCascade(), mBuffers, mLevels);
+            mPixels = Nv21Converter.convert(mTransformed, mTransform.getOutputWidth(), mTransform.getOutputHeight(), Nv21Converter.RGBA8888, mPixels);
+            long after = mThreads.getThreadAllocatedBytes(thread);
+            // What reading the counter itself allocates.
+            return (after - before) - (mThreads.getThreadAllocatedBytes(thread) - after);
+        }
+
+        private synchronized void record(long allocated) {
+            mFrames++;
+            if (mFrames > WARM_UP_FRAMES) {
+                mAllocated += allocated;
+            }
+            if (mFrames == WARM_UP_FRAMES + MEASURED_FRAMES) {
+                notifyAll();
+            }
+        }
+
+        // Bytes per measured frame, -1 on timeout.
+        synchronized long await(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (mFrames < WARM_UP_FRAMES + MEASURED_FRAMES) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return -1;
+                }
+                wait(wait);
+            }
+            return mAllocated / MEASURED_FRAMES;
+        }
+    }
+
+    private static long[] toArray(List<Long> values) {
+        long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,93 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+// Starvation counts frames actually lost for want of a buffer, not the times
+// the last idle buffer is taken.
+public class PreviewBufferPoolTest {
+
+    private static final int BUFFER_SIZE = 16;
+    // 30 fps.
+    private static final long INTERVAL = 33333333L;
+
+    private PreviewBufferPool mPool;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mPool = new PreviewBufferPool(2);
+        mPool.attach(BUFFER_SIZE);
+        mNow = 1000000000L;
+    }
+
+    // The camera fills the last buffer, which is released before the next frame.
+    @Test
+    public void lastBufferTakenWithoutLoss() {
+        byte[] first = take();
+        acquire(first, 0);
+        byte[] second = take();
+        acquire(second, INTERVAL);
+        mPool.release(first);
+        acquire(take(), INTERVAL);
+
+        assertEquals(0, mPool.getStarvedCount());
+    }
+
+    // No buffer for two frame intervals after the pool ran dry: two frames lost.
+    @Test
+    public void gapAfterRunningDry() {
+        byte[] first = take();
+        acquire(first, 0);
+        byte[] second = take();
+        acquire(second, INTERVAL);
+        mPool.release(first);
+        acquire(take(), 3 * INTERVAL);
+
+        assertEquals(2, mPool.getStarvedCount());
+    }
+
+    // A camera restart in between is not a gap.
+    @Test
+    public void restartIsNotAGap() {
+        byte[] first = take();
+        acquire(first, 0);
+        byte[] second = take();
+        acquire(second, INTERVAL);
+        mPool.release(first);
+        mPool.release(second);
+        mPool.detach();
+        mPool.attach(BUFFER_SIZE);
+        acquire(take(), 100 * INTERVAL);
+
+        assertEquals(0, mPool.getStarvedCount());
+    }
+
+    // Producers taking buffers themselves drop the frame when none is idle.
+    @Test
+    public void obtainWithNoIdleBuffer() {
+        assertNotNull(mPool.obtain());
+        assertNotNull(mPool.obtain());
+        assertEquals(0, mPool.getStarvedCount());
+
+        assertNull(mPool.obtain());
+        assertEquals(1, mPool.getStarvedCount());
+    }
+
+    // The buffer the camera fills next, as handed to it by the pool.
+    private byte[] take() {
+        byte[] buffer = mPool.obtain();
+        // Handed back right away, the camera owns it until it delivers a frame.
+        mPool.release(buffer);
+        return buffer;
+    }
+
+    private void acquire(byte[] buffer, long after) {
+        mNow += after;
+        mPool.acquire(buffer, mNow);
+    }
+}
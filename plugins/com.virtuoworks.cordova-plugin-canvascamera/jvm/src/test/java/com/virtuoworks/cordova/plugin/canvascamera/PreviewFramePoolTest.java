@@ -0,0 +1,46 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+// Recycled frames come back as new ones, a frame recycled twice is only
+// handed out once.
+public class PreviewFramePoolTest {
+
+    @Test
+    public void recycledFrameIsReset() {
+        PreviewFramePool pool = new PreviewFramePool(2);
+        byte[] data = new byte[6];
+        PreviewFrame frame = pool.obtain(data, 2, 2, 17, 1000, 1);
+        frame.setRotation(90);
+        frame.setCrop(new int[]{0, 0, 1, 1});
+        frame.mark(FrameStats.ENCODE, frame.getReceivedAt());
+        pool.recycle(frame);
+
+        PreviewFrame next = pool.obtain(data, 4, 2, 17, 1033, 2);
+        assertSame(frame, next);
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(4, next.getWidth());
+        assertEquals(1033, next.getTimestamp());
+        assertEquals(2, next.getSequence());
+        assertEquals(0, next.getRotation());
+        assertArrayEquals(new int[]{0, 0, 4, 2}, next.getCrop());
+        assertEquals(-1, next.getTimings()[FrameStats.ENCODE]);
+    }
+
+    @Test
+    public void recycledTwiceHandedOutOnce() {
+        PreviewFramePool pool = new PreviewFramePool(2);
+        PreviewFrame frame = pool.obtain(new byte[6], 2, 2, 17, 1000, 1);
+        pool.recycle(frame);
+        pool.recycle(frame);
+
+        assertSame(frame, pool.obtain(new byte[6], 2, 2, 17, 1033, 2));
+        assertNotSame(frame, pool.obtain(new byte[6], 2, 2, 17, 1067, 3));
+        assertEquals(2, pool.getCreatedCount());
+    }
+}
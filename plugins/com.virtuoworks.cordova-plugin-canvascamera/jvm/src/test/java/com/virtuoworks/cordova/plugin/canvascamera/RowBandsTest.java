@@ -0,0 +1,105 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+// Frames split in row bands on several threads must match the single thread
+// result bit for bit, also while the pool is being replaced.
+public class RowBandsTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static final byte[] FRAME = getFrame();
+    private static final int[] CROP = {0, 0, WIDTH, HEIGHT};
+
+    @After
+    public void tearDown() {
+        RowBands.configure(RowBands.DEFAULT_THRESHOLD, Runtime.getRuntime().availableProcessors());
+        RowBands.shutdown();
+    }
+
+    @Test
+    public void sameAsOneThread() {
+        RowBands.configure(0, 1);
+        byte[][] expected = render();
+
+        for (int threads = 2; threads <= 4; threads++) {
+            RowBands.configure(1, threads);
+            assertFrames(expected, render());
+        }
+    }
+
+    // Frames keep rendering while another thread keeps changing the thread
+    // count, shutting the pool down under them.
+    @Test
+    public void poolReplacedWhileRendering() throws Exception {
+        RowBands.configure(0, 1);
+        final byte[][] expected = render();
+        RowBands.configure(1, 2);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long end = System.currentTimeMillis() + 1000;
+        List<Thread> renderers = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            renderers.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (System.currentTimeMillis() < end) {
+                            assertFrames(expected, render());
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+        for (Thread renderer : renderers) {
+            renderer.start();
+        }
+
+        int threads = 2;
+        while (System.currentTimeMillis() < end) {
+            threads = threads == 2 ? 3 : 2;
+            RowBands.configure(1, threads);
+            if (threads == 2) {
+                RowBands.shutdown();
+            }
+            Thread.sleep(1);
+        }
+        for (Thread renderer : renderers) {
+            renderer.join();
+        }
+
+        assertNull(failure.get());
+    }
+
+    private static byte[][] render() {
+        int[][] luts = Nv21Transformer.getLuts(WIDTH, CROP, WIDTH * 3 / 4, HEIGHT * 3 / 4, 90, true);
+        return new byte[][]{
+                Nv21Transformer.transform(FRAME, WIDTH, HEIGHT, luts, null),
+                Yuv420Kernels.transform(FRAME, Yuv420Kernels.NV21, WIDTH, HEIGHT, CROP, 270, true, null, Yuv420Kernels.I420),
+                Nv21Converter.convert(FRAME, WIDTH, HEIGHT, Nv21Converter.RGBA8888, null)
+        };
+    }
+
+    private static void assertFrames(byte[][] expected, byte[][] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i]);
+        }
+    }
+
+    private static byte[] getFrame() {
+        byte[] frame = new byte[Yuv420Kernels.getFrameSize(WIDTH, HEIGHT)];
+        new Random(25).nextBytes(frame);
+        return frame;
+    }
+}
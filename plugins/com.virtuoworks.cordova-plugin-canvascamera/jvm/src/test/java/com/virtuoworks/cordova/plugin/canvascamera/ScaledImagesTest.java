@@ -0,0 +1,213 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.Bitmap;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// Scaled images of a render slot refilled frame after frame, as the encode
+// stage does through the levels planned with the frame transform: the images
+// must match a cascade built from scratch, and the allocations per frame
+// must stay within a small budget.
+public class ScaledImagesTest {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    // The row band kernels, the lookup tables and the cascade order being
+    // planned once, nothing is left to allocate.
+    private static final long BUDGET_PER_FRAME = 16;
+
+    private static final int WARM_UP_FRAMES = 20;
+    private static final int MEASURED_FRAMES = 100;
+
+    // Hands the level back as is, the encoders are the only allocations left on a device.
+    private static final FrameEncoder RAW = new FrameEncoder() {
+        public String getName() {
+            return "raw";
+        }
+
+        public String getFormat() {
+            return "raw";
+        }
+
+        public int getQuality() {
+            return 100;
+        }
+
+        public String getSubsampling() {
+            return SUBSAMPLING_420;
+        }
+
+        public String getMimeType() {
+            return "application/octet-stream";
+        }
+
+        public String getExtension() {
+            return "raw";
+        }
+
+        public byte[] encode(byte[] data, int imageFormat, int width, int height, int[] crop) {
+            // Checked field by field, so that the check itself does not allocate.
+            assertEquals(Yuv420Kernels.getFrameSize(width, height), data.length);
+            assertEquals(0, crop[0]);
+            assertEquals(0, crop[1]);
+            assertEquals(width, crop[2]);
+            assertEquals(height, crop[3]);
+            return data;
+        }
+
+        public byte[] encode(Bitmap bitmap) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static final int[][] SIZES = {{320, 180}, {224, 224}, {640, 360}};
+    private static final String[] NAMES = {"thumbnail", "model", "preview"};
+    private static final Nv21Transformer.Cascade CASCADE = new Nv21Transformer.Cascade(WIDTH, HEIGHT, SIZES);
+
+    private byte[][] mFrames;
+
+    @Before
+    public void setUp() {
+        RowBands.configure(0, 1);
+        Random random = new Random(21);
+        mFrames = new byte[2][Yuv420Kernels.getFrameSize(WIDTH, HEIGHT)];
+        for (byte[] frame : mFrames) {
+            random.nextBytes(frame);
+        }
+    }
+
+    @Test
+    public void matchesCascade() {
+        ScaledImages scaledImages = new ScaledImages();
+        for (int f = 0; f < 4; f++) {
+            byte[] frame = mFrames[f % 2];
+            fill(scaledImages, frame);
+
+            byte[][] levels = Nv21Transformer.cascade(frame, WIDTH, HEIGHT, SIZES);
+            for (int i = 0; i < NAMES.length; i++) {
+                assertArrayEquals(levels[i], scaledImages.getImage(NAMES[i]));
+                assertArrayEquals(SIZES[i], scaledImages.getImageSize(NAMES[i]));
+            }
+        }
+    }
+
+    // Unplanned, the levels are planned for the frame.
+    @Test
+    public void matchesUnplanned() {
+        ScaledImages planned = new ScaledImages();
+        ScaledImages unplanned = new ScaledImages();
+        fill(planned, mFrames[0]);
+        unplanned.reset(NAMES.length);
+        for (int i = 0; i < NAMES.length; i++) {
+            unplanned.add(NAMES[i], SIZES[i][0], SIZES[i][1], RAW);
+        }
+        unplanned.scale(mFrames[0], WIDTH, HEIGHT);
+
+        for (String name : NAMES) {
+            assertArrayEquals(unplanned.getImage(name), planned.getImage(name));
+            assertArrayEquals(unplanned.getImageSize(name), planned.getImageSize(name));
+        }
+    }
+
+    // Thumbnail then outputs, sized from the output frame of the transform.
+    @Test
+    public void plannedWithTransform() {
+        FrameTransform transform = new FrameTransform(WIDTH, HEIGHT, 0, 0, 90, true, "portrait", null, 0.25,
+                Arrays.asList(new FrameOutput("model", 224, 224, 0, RAW), new FrameOutput("half", 0, 0, 0.5, RAW)));
+        assertTrue(transform.isThumbnailScaled());
+        Nv21Transformer.Cascade cascade = transform.getCascade();
+        assertEquals(transform.getOutputWidth(), cascade.getSourceWidth());
+        assertEquals(transform.getOutputHeight(), cascade.getSourceHeight());
+        assertEquals(3, cascade.getCount());
+        assertArrayEquals(new int[]{180, 320}, cascade.getSize(0));
+        assertArrayEquals(new int[]{126, 224}, cascade.getSize(1));
+        assertArrayEquals(new int[]{360, 640}, cascade.getSize(2));
+
+        // Too small to be scaled, the thumbnail is the fullsize image.
+        transform = new FrameTransform(WIDTH, HEIGHT, 0, 0, 90, true, "portrait", null, 0.0001,
+                Arrays.asList(new FrameOutput("model", 224, 224, 0, RAW)));
+        assertFalse(transform.isThumbnailScaled());
+        assertEquals(1, transform.getCascade().getCount());
+    }
+
+    @Test
+    public void reusesBuffers() {
+        ScaledImages scaledImages = new ScaledImages();
+        fill(scaledImages, mFrames[0]);
+        byte[] model = scaledImages.getImage("model");
+        int[] modelSize = scaledImages.getImageSize("model");
+
+        fill(scaledImages, mFrames[1]);
+        assertSame(model, scaledImages.getImage("model"));
+        assertSame(modelSize, scaledImages.getImageSize("model"));
+    }
+
+    @Test
+    public void clearsPreviousFrame() {
+        ScaledImages scaledImages = new ScaledImages();
+        fill(scaledImages, mFrames[0]);
+
+        // Thumbnail too small to be scaled, no additional output.
+        byte[] fullsize = new byte[16];
+        int[] fullsizeSize = {WIDTH, HEIGHT};
+        scaledImages.reset(0);
+        scaledImages.put("thumbnail", fullsize, fullsizeSize);
+        scaledImages.scale(mFrames[1], WIDTH, HEIGHT);
+
+        assertSame(fullsize, scaledImages.getImage("thumbnail"));
+        assertSame(fullsizeSize, scaledImages.getImageSize("thumbnail"));
+        assertNull(scaledImages.getImage("model"));
+        assertNull(scaledImages.getImageSize("preview"));
+
+        scaledImages.clear();
+        assertNull(scaledImages.getImage("thumbnail"));
+        assertEquals(0, scaledImages.getCount());
+    }
+
+    @Test
+    public void allocationsPerFrame() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        ScaledImages scaledImages = new ScaledImages();
+        for (int f = 0; f < WARM_UP_FRAMES; f++) {
+            fill(scaledImages, mFrames[f % 2]);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int f = 0; f < MEASURED_FRAMES; f++) {
+            fill(scaledImages, mFrames[f % 2]);
+        }
+        long perFrame = (threads.getThreadAllocatedBytes(thread) - before) / MEASURED_FRAMES;
+
+        assertTrue(perFrame + " bytes allocated per frame, budget " + BUDGET_PER_FRAME, perFrame <= BUDGET_PER_FRAME);
+    }
+
+    // What the encode stage does for every frame.
+    private static void fill(ScaledImages scaledImages, byte[] frame) {
+        scaledImages.clear();
+        scaledImages.reset(CASCADE.getCount());
+        for (String name : NAMES) {
+            scaledImages.add(name, RAW);
+        }
+        scaledImages.scale(frame, CASCADE);
+    }
+}
@@ -0,0 +1,146 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+// Checks the crop, mirror and rotate kernels bit for bit against the bitmap
+// path: every plane drawn through the matrix FrameTransform hands to the
+// Canvas, sampling the source pixel under each destination pixel center
+// (nearest neighbour, as drawBitmap without filtering).
+public class Yuv420KernelsTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private static final int[] ANGLES = {0, 90, 180, 270};
+
+    // Full frame, even and odd origins, down to a single chroma sample.
+    private static final int[][] CROPS = {
+            {0, 0, WIDTH, HEIGHT},
+            {2, 4, 24, 16},
+            {1, 3, 24, 16},
+            {7, 5, 30, 20},
+            {0, 1, 38, 28},
+            {13, 9, 2, 2},
+            {WIDTH - 11, HEIGHT - 7, 10, 6}
+    };
+
+    private static final int Y = 0;
+    private static final int U = 1;
+    private static final int V = 2;
+
+    @Before
+    public void setUp() {
+        RowBands.configure(0, 1);
+    }
+
+    @Test
+    public void nv21ToNv21() {
+        check(Yuv420Kernels.NV21, Yuv420Kernels.NV21);
+    }
+
+    @Test
+    public void nv21ToI420() {
+        check(Yuv420Kernels.NV21, Yuv420Kernels.I420);
+    }
+
+    @Test
+    public void i420ToI420() {
+        check(Yuv420Kernels.I420, Yuv420Kernels.I420);
+    }
+
+    @Test
+    public void i420ToNv21() {
+        check(Yuv420Kernels.I420, Yuv420Kernels.NV21);
+    }
+
+    // A destination of the right size is written in place.
+    @Test
+    public void reusesDestination() {
+        byte[] src = getFrame(1);
+        int[] crop = CROPS[2];
+        byte[] dst = new byte[Yuv420Kernels.getFrameSize(crop[3], crop[2])];
+
+        byte[] out = Yuv420Kernels.transform(src, Yuv420Kernels.NV21, WIDTH, HEIGHT, crop, 90, true, dst, Yuv420Kernels.NV21);
+
+        assertSame(dst, out);
+        assertArrayEquals(drawThroughMatrix(src, Yuv420Kernels.NV21, crop, 90, true, Yuv420Kernels.NV21), out);
+    }
+
+    private static void check(int srcLayout, int dstLayout) {
+        byte[] src = getFrame(srcLayout + 2 * dstLayout);
+
+        for (int[] crop : CROPS) {
+            for (int angle : ANGLES) {
+                for (boolean mirror : new boolean[]{false, true}) {
+                    byte[] expected = drawThroughMatrix(src, srcLayout, crop, angle, mirror, dstLayout);
+                    byte[] actual = Yuv420Kernels.transform(src, srcLayout, WIDTH, HEIGHT, crop, angle, mirror, null, dstLayout);
+
+                    String message = "crop " + crop[0] + "," + crop[1] + " " + crop[2] + "x" + crop[3] + ", angle " + angle + ", mirror " + mirror;
+                    assertArrayEquals(message, expected, actual);
+                }
+            }
+        }
+    }
+
+    private static byte[] getFrame(long seed) {
+        byte[] frame = new byte[Yuv420Kernels.getFrameSize(WIDTH, HEIGHT)];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+
+    private static byte[] drawThroughMatrix(byte[] src, int srcLayout, int[] crop, int angle, boolean mirror, int dstLayout) {
+        boolean transposed = angle == 90 || angle == 270;
+        int outWidth = transposed ? crop[3] : crop[2];
+        int outHeight = transposed ? crop[2] : crop[3];
+        byte[] out = new byte[Yuv420Kernels.getFrameSize(outWidth, outHeight)];
+
+        // The chroma planes start from the even position at or before the crop.
+        int[] chromaCrop = {crop[0] / 2, crop[1] / 2, crop[2] / 2, crop[3] / 2};
+
+        drawPlane(src, srcLayout, WIDTH, HEIGHT, Y, crop, angle, mirror, out, dstLayout, outWidth, outHeight);
+        drawPlane(src, srcLayout, WIDTH, HEIGHT, U, chromaCrop, angle, mirror, out, dstLayout, outWidth, outHeight);
+        drawPlane(src, srcLayout, WIDTH, HEIGHT, V, chromaCrop, angle, mirror, out, dstLayout, outWidth, outHeight);
+
+        return out;
+    }
+
+    private static void drawPlane(byte[] src, int srcLayout, int srcWidth, int srcHeight, int plane, int[] crop, int angle, boolean mirror,
+                                  byte[] out, int outLayout, int outWidth, int outHeight) {
+        // Unscaled, the matrix maps the cropped plane onto the output plane.
+        float[] m = FrameTransform.getMatrixValues(crop[2], crop[3], crop[2], crop[3], angle, mirror);
+        float det = m[0] * m[4] - m[1] * m[3];
+
+        int planeWidth = plane == Y ? outWidth : outWidth / 2;
+        int planeHeight = plane == Y ? outHeight : outHeight / 2;
+        for (int oy = 0; oy < planeHeight; oy++) {
+            for (int ox = 0; ox < planeWidth; ox++) {
+                float dx = ox + 0.5f - m[2];
+                float dy = oy + 0.5f - m[5];
+                int x = (int) Math.floor((m[4] * dx - m[1] * dy) / det);
+                int y = (int) Math.floor((m[0] * dy - m[3] * dx) / det);
+
+                byte sample = src[getOffset(srcLayout, srcWidth, srcHeight, plane, crop[0] + x, crop[1] + y)];
+                out[getOffset(outLayout, outWidth, outHeight, plane, ox, oy)] = sample;
+            }
+        }
+    }
+
+    // Offset of the (x, y) sample of a plane, in plane coordinates.
+    private static int getOffset(int layout, int width, int height, int plane, int x, int y) {
+        int frameSize = width * height;
+        if (plane == Y) {
+            return y * width + x;
+        }
+        if (layout == Yuv420Kernels.NV21) {
+            return frameSize + y * width + 2 * x + (plane == V ? 0 : 1);
+        }
+        int chromaSize = (width / 2) * (height / 2);
+        return frameSize + (plane == U ? 0 : chromaSize) + y * (width / 2) + x;
+    }
+}
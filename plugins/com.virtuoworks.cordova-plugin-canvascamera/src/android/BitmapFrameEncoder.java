@@ -0,0 +1,159 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+// Encoder backed by the framework codecs, YuvImage for JPEG straight from
+// the preview bytes and Bitmap.compress for everything else. Both always
+// subsample chroma at 4:2:0. Intermediate buffers and the bitmap are kept
+// from one frame to the next, only the encoded image is a new array.
+public class BitmapFrameEncoder implements FrameEncoder {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    private final String mFormat;
+    private final int mQuality;
+    private final Bitmap.CompressFormat mCompressFormat;
+
+    private final FrameByteStream mStream = new FrameByteStream();
+    private byte[] mCropped;
+    private byte[] mRgba;
+    private ByteBuffer mPixels;
+    private Bitmap mBitmap;
+
+    public BitmapFrameEncoder(String format, int quality) {
+        mFormat = format;
+        mQuality = quality;
+        mCompressFormat = getCompressFormat(format);
+    }
+
+    public BitmapFrameEncoder(String format, int quality, String subsampling) throws Exception {
+        this(format, quality);
+        if (mCompressFormat == null) {
+            throw new Exception("Unsupported encoder format : " + format);
+        }
+        if (subsampling != null && !SUBSAMPLING_420.equals(subsampling)) {
+            throw new Exception("Unsupported chroma subsampling for the " + FrameEncoders.ANDROID + " encoder : " + subsampling);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return FrameEncoders.ANDROID;
+    }
+
+    @Override
+    public String getFormat() {
+        return mFormat;
+    }
+
+    @Override
+    public int getQuality() {
+        return mQuality;
+    }
+
+    @Override
+    public String getSubsampling() {
+        return SUBSAMPLING_420;
+    }
+
+    @Override
+    public String getMimeType() {
+        return "image/" + mFormat;
+    }
+
+    @Override
+    public String getExtension() {
+        return JPEG.equals(mFormat) ? "jpg" : mFormat;
+    }
+
+    @Override
+    public synchronized byte[] encode(byte[] data, int imageFormat, int width, int height, int[] crop) {
+        if (data.length == 0) {
+            return data;
+        }
+
+        if (JPEG.equals(mFormat)) {
+            return compressToJpeg(data, imageFormat, width, height, crop, mQuality);
+        }
+
+        if (imageFormat == ImageFormat.NV21) {
+            // Converting the cropped preview bytes, no intermediate JPEG.
+            int cropWidth = Nv21Transformer.getOutputWidth(crop[2], crop[3], 0);
+            int cropHeight = Nv21Transformer.getOutputHeight(crop[2], crop[3], 0);
+            mCropped = Nv21Transformer.transform(data, width, height, crop, cropWidth, cropHeight, 0, false, mCropped);
+            byte[] rgba = Nv21Converter.convert(mCropped, cropWidth, cropHeight, Nv21Converter.RGBA8888, mRgba);
+            if (rgba != mRgba) {
+                mRgba = rgba;
+                mPixels = ByteBuffer.wrap(rgba);
+            }
+            mPixels.rewind();
+
+            Bitmap bitmap = getBitmap(cropWidth, cropHeight);
+            bitmap.copyPixelsFromBuffer(mPixels);
+            return encode(bitmap);
+        }
+
+        compress(data, imageFormat, width, height, crop, 100);
+        Bitmap bitmap = BitmapFactory.decodeByteArray(mStream.getBuffer(), 0, mStream.size());
+        if (bitmap == null) {
+            if (LOGGING) Log.e(TAG, "Could not decode preview frame.");
+            return new byte[0];
+        }
+
+        byte[] encoded = encode(bitmap);
+        bitmap.recycle();
+
+        return encoded;
+    }
+
+    @Override
+    public synchronized byte[] encode(Bitmap bitmap) {
+        mStream.reset();
+        bitmap.compress(mCompressFormat, mQuality, mStream);
+        return mStream.toByteArray();
+    }
+
+    private byte[] compressToJpeg(byte[] data, int imageFormat, int width, int height, int[] crop, int quality) {
+        compress(data, imageFormat, width, height, crop, quality);
+        // returns the jpeg as bytes array
+        return mStream.toByteArray();
+    }
+
+    private void compress(byte[] data, int imageFormat, int width, int height, int[] crop, int quality) {
+        mStream.reset();
+        // The second parameter is the actual image format
+        YuvImage yuvImage = new YuvImage(data, imageFormat, width, height, null);
+        // crop defines the part of the preview image filling the bitmap
+        yuvImage.compressToJpeg(new Rect(crop[0], crop[1], crop[0] + crop[2], crop[1] + crop[3]), quality, mStream);
+    }
+
+    // Mutable bitmap kept while frames keep the same size.
+    private Bitmap getBitmap(int width, int height) {
+        if (mBitmap == null || mBitmap.isRecycled() || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        return mBitmap;
+    }
+
+    private static Bitmap.CompressFormat getCompressFormat(String format) {
+        if (JPEG.equals(format)) {
+            return Bitmap.CompressFormat.JPEG;
+        } else if (PNG.equals(format)) {
+            return Bitmap.CompressFormat.PNG;
+        } else if (WEBP.equals(format)) {
+            return Bitmap.CompressFormat.WEBP;
+        } else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Mutable bitmaps kept by size once the pipeline is done with them, so that
+// decoding (through BitmapFactory.Options.inBitmap) and scaling (drawn on a
+// canvas) land in bitmaps of a previous frame instead of allocating native
+// memory for every frame. Idle bitmaps are capped to a byte budget, the
+// least recently released size is recycled first.
+public class BitmapPool {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    private final long mMaxBytes;
+    // Access ordered, the eldest entry is the size released the longest time ago.
+    private final LinkedHashMap<String, ArrayDeque<Bitmap>> mBitmaps = new LinkedHashMap<String, ArrayDeque<Bitmap>>(16, 0.75f, true);
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // Set from precomputed values, guarded by mPaint.
+    private final Matrix mMatrix = new Matrix();
+
+    private long mResidentBytes = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvicted = 0;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    // Bytes held by idle bitmaps.
+    public synchronized long getResidentBytes() {
+        return mResidentBytes;
+    }
+
+    public synchronized int getResidentCount() {
+        int count = 0;
+        for (ArrayDeque<Bitmap> bitmaps : mBitmaps.values()) {
+            count += bitmaps.size();
+        }
+        return count;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictedCount() {
+        return mEvicted;
+    }
+
+    // An idle bitmap of that size, or a new one. Its content is undefined.
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        return bitmap;
+    }
+
+    // Gives a bitmap back to the pool, recycled when it can't be reused.
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || bitmap.getByteCount() > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (this) {
+            String key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> bitmaps = mBitmaps.get(key);
+            if (bitmaps == null) {
+                bitmaps = new ArrayDeque<Bitmap>();
+                mBitmaps.put(key, bitmaps);
+            }
+            bitmaps.push(bitmap);
+            mResidentBytes += bitmap.getByteCount();
+
+            trim();
+        }
+    }
+
+    public synchronized void clear() {
+        for (ArrayDeque<Bitmap> bitmaps : mBitmaps.values()) {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+        }
+        mBitmaps.clear();
+        mResidentBytes = 0;
+    }
+
+    public synchronized void resetCounts() {
+        mHits = 0;
+        mMisses = 0;
+        mEvicted = 0;
+    }
+
+    // Decodes an encoded image into an idle bitmap of the decoded size when
+    // there is one. options may carry inSampleSize, the decoded size is
+    // expected to be outWidth x outHeight from a previous bounds decode,
+    // divided by inSampleSize.
+    public Bitmap decode(byte[] data, BitmapFactory.Options options) {
+        return decode(data, data.length, options);
+    }
+
+    // Decodes the first length bytes of data.
+    public Bitmap decode(byte[] data, int length, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inBitmap = width > 0 && height > 0 ? take(width, height, Bitmap.Config.ARGB_8888) : null;
+        if (options.inBitmap == null) {
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+
+        Bitmap reused = options.inBitmap;
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder did not accept the pooled bitmap, decoding into a new one.
+            if (LOGGING) Log.w(TAG, "Could not decode into a pooled bitmap : " + e.getMessage());
+            options.inBitmap = null;
+            release(reused);
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+    }
+
+    // Draws src scaled to width x height, mirrored horizontally if requested
+    // then rotated clockwise by angle (multiple of 90), into a pooled bitmap.
+    // The result is height x width for 90 and 270. src is not released.
+    public Bitmap transform(Bitmap src, int width, int height, int angle, boolean mirror) {
+        angle = ((angle % 360) + 360) % 360;
+        boolean transposed = angle == 90 || angle == 270;
+
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) width / src.getWidth(), (float) height / src.getHeight());
+        if (mirror) {
+            matrix.postScale(-1.0f, 1.0f);
+            matrix.postTranslate(width, 0);
+        }
+        if (angle != 0) {
+            matrix.postRotate(angle);
+            if (angle == 90) {
+                matrix.postTranslate(height, 0);
+            } else if (angle == 180) {
+                matrix.postTranslate(width, height);
+            } else {
+                matrix.postTranslate(0, width);
+            }
+        }
+
+        Bitmap dst = obtain(transposed ? height : width, transposed ? width : height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(dst);
+        synchronized (mPaint) {
+            canvas.drawBitmap(src, matrix, mPaint);
+        }
+
+        return dst;
+    }
+
+    // Draws src through a precomputed matrix (Matrix.setValues() order, see
+    // FrameTransform) into a pooled width x height bitmap. src is not released.
+    public Bitmap transform(Bitmap src, float[] matrixValues, int width, int height) {
+        Bitmap dst = obtain(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(dst);
+        synchronized (mPaint) {
+            mMatrix.setValues(matrixValues);
+            canvas.drawBitmap(src, mMatrix, mPaint);
+        }
+
+        return dst;
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = mBitmaps.get(getKey(width, height, config));
+        Bitmap bitmap = bitmaps != null ? bitmaps.poll() : null;
+        if (bitmap != null) {
+            mResidentBytes -= bitmap.getByteCount();
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return bitmap;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, ArrayDeque<Bitmap>>> entries = mBitmaps.entrySet().iterator();
+        while (mResidentBytes > mMaxBytes && entries.hasNext()) {
+            ArrayDeque<Bitmap> bitmaps = entries.next().getValue();
+            while (mResidentBytes > mMaxBytes && !bitmaps.isEmpty()) {
+                Bitmap bitmap = bitmaps.pollLast();
+                mResidentBytes -= bitmap.getByteCount();
+                bitmap.recycle();
+                mEvicted++;
+            }
+            if (bitmaps.isEmpty()) {
+                entries.remove();
+            }
+        }
+    }
+
+    private static String getKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config.name();
+    }
+}
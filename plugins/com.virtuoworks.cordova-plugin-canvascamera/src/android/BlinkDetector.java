@@ -0,0 +1,188 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Event only frame processor : watches the mean luma of the frame crop (the
+// region of interest, framing the eyes) and completes a frame only when the
+// eyes close for long enough or reopen, every other frame is dropped.
+//
+// Closed eyes replace the dark iris and lashes with the brighter eyelid, so a
+// relative deviation of the mean luma from an open eyes baseline above the
+// threshold is read as closed. The baseline slowly follows lighting changes
+// while the eyes are open.
+public class BlinkDetector implements FrameProcessor {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    public static final String SHORT = "short";
+    public static final String LONG = "long";
+    public static final String OPEN = "open";
+
+    // Luma is sampled every SAMPLE_STEP pixels on both axes.
+    private static final int SAMPLE_STEP = 2;
+    private static final double BASELINE_WEIGHT = 0.05;
+
+    private final double mThreshold;
+    private final long mMinDuration;
+    private final long mLongDuration;
+
+    private double mBaseline = -1;
+    private boolean mClosed = false;
+    private boolean mLongSent = false;
+    private long mClosedAt = 0;
+    private double mPeakDeviation = 0;
+
+    public BlinkDetector(double threshold, long minDuration, long longDuration) {
+        mThreshold = threshold;
+        mMinDuration = minDuration;
+        mLongDuration = longDuration;
+    }
+
+    public double getThreshold() {
+        return mThreshold;
+    }
+
+    public long getMinDuration() {
+        return mMinDuration;
+    }
+
+    public long getLongDuration() {
+        return mLongDuration;
+    }
+
+    public synchronized void reset() {
+        mBaseline = -1;
+        mClosed = false;
+        mLongSent = false;
+        mClosedAt = 0;
+        mPeakDeviation = 0;
+    }
+
+    public synchronized int process(PreviewFrame frame, JSONObject output) {
+        if (frame.getFormat() != ImageFormat.NV21 && frame.getFormat() != ImageFormat.YV12) {
+            // No luma plane to look at.
+            return DROP;
+        }
+
+        double luma = getMeanLuma(frame);
+        long timestamp = frame.getTimestamp();
+
+        if (mBaseline < 0) {
+            mBaseline = Math.max(1, luma);
+            return DROP;
+        }
+
+        double deviation = Math.abs(luma - mBaseline) / mBaseline;
+
+        if (!mClosed) {
+            if (deviation > mThreshold) {
+                mClosed = true;
+                mLongSent = false;
+                mClosedAt = timestamp;
+                mPeakDeviation = deviation;
+            } else {
+                mBaseline += (luma - mBaseline) * BASELINE_WEIGHT;
+                mBaseline = Math.max(1, mBaseline);
+            }
+            return DROP;
+        }
+
+        mPeakDeviation = Math.max(mPeakDeviation, deviation);
+        long duration = timestamp - mClosedAt;
+
+        if (deviation > mThreshold) {
+            if (!mLongSent && duration >= mLongDuration) {
+                // Sent as soon as the eyes have been closed long enough, not on reopening.
+                mLongSent = true;
+                putEvent(output, LONG, mClosedAt, -1, duration);
+                return COMPLETE;
+            }
+            return DROP;
+        }
+
+        mClosed = false;
+        if (mLongSent) {
+            putEvent(output, OPEN, mClosedAt, timestamp, duration);
+            return COMPLETE;
+        } else if (duration >= mMinDuration) {
+            putEvent(output, duration >= mLongDuration ? LONG : SHORT, mClosedAt, timestamp, duration);
+            return COMPLETE;
+        }
+
+        // Too short to be a blink, most likely noise.
+        return DROP;
+    }
+
+    private void putEvent(JSONObject output, String type, long start, long end, long duration) {
+        JSONObject blink = new JSONObject();
+
+        try {
+            blink.put("type", type);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.blink.type into JSON result : " + e.getMessage());
+        }
+
+        try {
+            blink.put("start", start);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.blink.start into JSON result : " + e.getMessage());
+        }
+
+        if (end >= 0) {
+            try {
+                blink.put("end", end);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.blink.end into JSON result : " + e.getMessage());
+            }
+        }
+
+        try {
+            blink.put("duration", duration);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.blink.duration into JSON result : " + e.getMessage());
+        }
+
+        try {
+            // Reaches 1 when the peak deviation is twice the threshold.
+            blink.put("confidence", Math.min(1.0, mPeakDeviation / (2 * mThreshold)));
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.blink.confidence into JSON result : " + e.getMessage());
+        }
+
+        try {
+            output.put("blink", blink);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.blink into JSON result : " + e.getMessage());
+        }
+    }
+
+    private static double getMeanLuma(PreviewFrame frame) {
+        byte[] data = frame.getData();
+        int width = frame.getWidth();
+        int[] crop = frame.getCrop();
+
+        long sum = 0;
+        int count = 0;
+        int bottom = crop[1] + crop[3];
+        int right = crop[0] + crop[2];
+        for (int y = crop[1]; y < bottom; y += SAMPLE_STEP) {
+            int offset = y * width;
+            for (int x = crop[0]; x < right; x += SAMPLE_STEP) {
+                sum += data[offset + x] & 0xff;
+                count++;
+            }
+        }
+
+        return count > 0 ? (double) sum / count : 0;
+    }
+}
@@ -0,0 +1,161 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+// camera2 frame source : YUV_420_888 images from the camera device are packed
+// into NV21 buffers taken from the preview buffer pool, so the rest of the
+// pipeline sees the same frames as with android.hardware.Camera. The device
+// is a Camera2Session on Android.
+public class Camera2Backend implements FrameSource {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    public static final String FOCUS_MODE_CONTINUOUS_VIDEO = "continuous-video";
+    public static final String FOCUS_MODE_FIXED = "fixed";
+
+    private final Camera2Device mDevice;
+    private final PreviewBufferPool mBufferPool;
+    private final Listener mListener;
+
+    private boolean mOpened = false;
+    private int mSensorOrientation = 0;
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private int[] mFpsRange = null;
+    private String mFocusMode = null;
+    private boolean mFlash = false;
+    private int mMaxImages = 0;
+    // Chroma layout of the images, checked on the first image of a session.
+    private boolean mLayoutChecked = false;
+    private boolean mNv21Interleaved = false;
+
+    private final Camera2Device.Callback mCallback = new Camera2Device.Callback() {
+        @Override
+        public void onImage(Camera2Device.Planes image, long receivedAt) {
+            byte[] data = mBufferPool.obtain();
+            if (data == null) {
+                // Every buffer is still being rendered, counted as starved by the pool.
+                return;
+            }
+
+            int width = image.getWidth();
+            int height = image.getHeight();
+            if (!mLayoutChecked) {
+                mNv21Interleaved = Yuv420Kernels.isNv21Interleaved(image.getBuffer(1), image.getBuffer(2),
+                        image.getRowStride(1), image.getPixelStride(1), width, height);
+                mLayoutChecked = true;
+            }
+            Yuv420Kernels.packNv21(image.getBuffer(0), image.getRowStride(0),
+                    image.getBuffer(1), image.getBuffer(2), image.getRowStride(1), image.getPixelStride(1),
+                    mNv21Interleaved, width, height, data);
+
+            mListener.onFrame(data, width, height, ImageFormat.NV21, System.currentTimeMillis(), receivedAt);
+        }
+
+        @Override
+        public void onError(String message) {
+            if (LOGGING) Log.e(TAG, message);
+            mListener.onError(message);
+        }
+    };
+
+    public Camera2Backend(Camera2Device device, PreviewBufferPool bufferPool, Listener listener) {
+        mDevice = device;
+        mBufferPool = bufferPool;
+        mListener = listener;
+    }
+
+    // Picks the camera and its stream configuration, then opens it. Frames
+    // start flowing once the session is configured.
+    public synchronized boolean open(int cameraFacing, int captureWidth, int captureHeight, int fps, boolean flash, int maxImages) {
+        close();
+
+        try {
+            Camera2Device.Info camera = null;
+            for (Camera2Device.Info candidate : mDevice.getCameras()) {
+                if (candidate.getFacing() == cameraFacing) {
+                    camera = candidate;
+                    break;
+                }
+            }
+
+            if (camera == null) {
+                if (LOGGING) Log.w(TAG, "No camera facing " + cameraFacing + " available.");
+                return false;
+            }
+
+            mSensorOrientation = camera.getSensorOrientation();
+
+            // Same rules as the android.hardware.Camera preview size and fps range.
+            int[][] sizes = camera.getSizes();
+            int index = FrameGeometry.getOptimalSizeIndex(sizes, captureWidth, captureHeight);
+            if (index < 0) {
+                if (LOGGING) Log.w(TAG, "No YUV_420_888 output size available.");
+                return false;
+            }
+            mWidth = sizes[index][0];
+            mHeight = sizes[index][1];
+
+            mFpsRange = FrameGeometry.getOptimalFpsRange(camera.getFpsRanges(), fps);
+            mFocusMode = camera.hasContinuousVideoFocus() ? FOCUS_MODE_CONTINUOUS_VIDEO : FOCUS_MODE_FIXED;
+            mFlash = flash && camera.hasFlash();
+            // acquireLatestImage needs one image more than the ones it skips.
+            mMaxImages = Math.max(2, maxImages);
+            mLayoutChecked = false;
+
+            // one NV21 frame, 12 bits per pixel
+            mBufferPool.attach(mWidth * mHeight * 3 / 2);
+
+            if (LOGGING) Log.i(TAG, "Trying to open camera : " + camera.getId());
+            mDevice.open(camera.getId(), mWidth, mHeight, mMaxImages, new int[]{mFpsRange[0] / 1000, mFpsRange[1] / 1000},
+                    FOCUS_MODE_CONTINUOUS_VIDEO.equals(mFocusMode), mFlash, mCallback);
+            mOpened = true;
+
+            return true;
+        } catch (Exception e) {
+            if (LOGGING) Log.e(TAG, "Unable to open camera : " + e.getMessage());
+        }
+
+        close();
+        return false;
+    }
+
+    public synchronized void close() {
+        mDevice.close();
+        mOpened = false;
+    }
+
+    public synchronized boolean isOpened() {
+        return mOpened;
+    }
+
+    public synchronized int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
+    public synchronized int getWidth() {
+        return mWidth;
+    }
+
+    public synchronized int getHeight() {
+        return mHeight;
+    }
+
+    // Same unit as Camera.Parameters, frames per second * 1000.
+    public synchronized int[] getFpsRange() {
+        return mFpsRange;
+    }
+
+    public synchronized String getFocusMode() {
+        return mFocusMode;
+    }
+
+    public synchronized boolean isFlashOn() {
+        return mFlash;
+    }
+
+    public synchronized int getMaxImages() {
+        return mMaxImages;
+    }
+}
@@ -0,0 +1,92 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.nio.ByteBuffer;
+
+// The camera2 calls the camera2 backend stands on : CameraManager, the
+// ImageReader and the capture session, see Camera2Session. Kept free of
+// framework types, so that the backend can be driven by a fake device.
+public interface Camera2Device {
+
+    // Characteristics of one camera.
+    class Info {
+        private final String mId;
+        private final int mFacing;
+        private final int mSensorOrientation;
+        private final int[][] mSizes;
+        private final int[][] mFpsRanges;
+        private final boolean mContinuousVideoFocus;
+        private final boolean mFlash;
+
+        // facing as android.hardware.Camera.CameraInfo, sizes the YUV_420_888
+        // output sizes, fpsRanges the target fps ranges in frames per second.
+        public Info(String id, int facing, int sensorOrientation, int[][] sizes, int[][] fpsRanges, boolean continuousVideoFocus, boolean flash) {
+            mId = id;
+            mFacing = facing;
+            mSensorOrientation = sensorOrientation;
+            mSizes = sizes;
+            mFpsRanges = fpsRanges;
+            mContinuousVideoFocus = continuousVideoFocus;
+            mFlash = flash;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public int getFacing() {
+            return mFacing;
+        }
+
+        public int getSensorOrientation() {
+            return mSensorOrientation;
+        }
+
+        public int[][] getSizes() {
+            return mSizes;
+        }
+
+        public int[][] getFpsRanges() {
+            return mFpsRanges;
+        }
+
+        public boolean hasContinuousVideoFocus() {
+            return mContinuousVideoFocus;
+        }
+
+        public boolean hasFlash() {
+            return mFlash;
+        }
+    }
+
+    // The planes of a YUV_420_888 image, 0 (Y), 1 (U) and 2 (V). Only valid
+    // during the onImage call they are handed to.
+    interface Planes {
+        int getWidth();
+
+        int getHeight();
+
+        ByteBuffer getBuffer(int plane);
+
+        int getRowStride(int plane);
+
+        int getPixelStride(int plane);
+    }
+
+    interface Callback {
+        // Called on the device thread with the latest image.
+        void onImage(Planes image, long receivedAt);
+
+        // Called on the device thread when the camera or its session failed,
+        // the device is closed by then.
+        void onError(String message);
+    }
+
+    Info[] getCameras() throws Exception;
+
+    // Opens a camera and starts a repeating request into a reader of
+    // maxImages images. fpsRange is in frames per second. Images start
+    // flowing once the session is configured.
+    void open(String id, int width, int height, int maxImages, int[] fpsRange, boolean continuousVideoFocus, boolean flash, Callback callback) throws Exception;
+
+    void close();
+}
@@ -0,0 +1,343 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Camera2Device on the framework : CameraManager, an ImageReader of
+// YUV_420_888 images and a capture session, all driven from a dedicated
+// thread.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Session implements Camera2Device {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    private final CameraManager mCameraManager;
+
+    private HandlerThread mThread = null;
+    private Handler mHandler = null;
+    private CameraDevice mCameraDevice = null;
+    private CameraCaptureSession mCaptureSession = null;
+    private ImageReader mImageReader = null;
+    private Callback mCallback = null;
+
+    private String mCameraId = null;
+    private int[] mFpsRange = null;
+    private boolean mContinuousVideoFocus = false;
+    private boolean mFlash = false;
+
+    // The image handed to the callback, reused from one image to the next.
+    private final ImagePlanes mPlanes = new ImagePlanes();
+
+    private final ImageReader.OnImageAvailableListener mImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            long receivedAt = System.nanoTime();
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                // Reader closed or every image still acquired.
+                if (LOGGING) Log.w(TAG, "Could not acquire camera image : " + e.getMessage());
+                return;
+            }
+
+            if (image == null) {
+                return;
+            }
+
+            try {
+                Callback callback = mCallback;
+                if (callback != null) {
+                    mPlanes.set(image);
+                    callback.onImage(mPlanes, receivedAt);
+                }
+            } finally {
+                mPlanes.set(null);
+                image.close();
+            }
+        }
+    };
+
+    private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice camera) {
+            String failure = null;
+            synchronized (Camera2Session.this) {
+                if (mImageReader == null) {
+                    // Closed while opening.
+                    camera.close();
+                    return;
+                }
+
+                mCameraDevice = camera;
+                if (LOGGING) Log.i(TAG, "Camera [" + mCameraId + "] opened.");
+
+                try {
+                    mCameraDevice.createCaptureSession(Arrays.asList(mImageReader.getSurface()), mSessionCallback, mHandler);
+                } catch (CameraAccessException e) {
+                    failure = "Could not create capture session : " + e.getMessage();
+                }
+            }
+            if (failure != null) {
+                fail(failure);
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            camera.close();
+            fail("Camera [" + mCameraId + "] was disconnected.");
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            camera.close();
+            fail("Camera [" + mCameraId + "] error callback : (error code - " + error + ")");
+        }
+    };
+
+    private final CameraCaptureSession.StateCallback mSessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(CameraCaptureSession session) {
+            String failure = null;
+            synchronized (Camera2Session.this) {
+                if (mCameraDevice == null) {
+                    session.close();
+                    return;
+                }
+
+                mCaptureSession = session;
+
+                try {
+                    // The record template favours a steady frame rate over image quality.
+                    CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                    builder.addTarget(mImageReader.getSurface());
+                    builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, new Range<Integer>(mFpsRange[0], mFpsRange[1]));
+                    if (mContinuousVideoFocus) {
+                        builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                    }
+                    builder.set(CaptureRequest.FLASH_MODE, mFlash ? CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+
+                    mCaptureSession.setRepeatingRequest(builder.build(), null, mHandler);
+                    if (LOGGING) Log.i(TAG, "Camera [" + mCameraId + "] started.");
+                } catch (CameraAccessException e) {
+                    failure = "Could not start repeating request : " + e.getMessage();
+                } catch (IllegalStateException e) {
+                    failure = "Could not start repeating request : " + e.getMessage();
+                }
+            }
+            if (failure != null) {
+                fail(failure);
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession session) {
+            fail("Could not configure capture session.");
+        }
+    };
+
+    public Camera2Session(Context context) {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    @Override
+    public Info[] getCameras() throws CameraAccessException {
+        String[] cameraIds = mCameraManager.getCameraIdList();
+        Info[] cameras = new Info[cameraIds.length];
+        for (int i = 0; i < cameraIds.length; i++) {
+            CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(cameraIds[i]);
+
+            Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            // External cameras face neither way.
+            int facing = -1;
+            if (lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_FRONT) {
+                facing = Camera.CameraInfo.CAMERA_FACING_FRONT;
+            } else if (lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_BACK) {
+                facing = Camera.CameraInfo.CAMERA_FACING_BACK;
+            }
+
+            Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Boolean flashAvailable = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+
+            cameras[i] = new Info(cameraIds[i], facing,
+                    sensorOrientation != null ? sensorOrientation : 0,
+                    getSizes(map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null),
+                    getFpsRanges(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES)),
+                    hasContinuousVideoFocus(characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES)),
+                    flashAvailable != null && flashAvailable);
+        }
+        return cameras;
+    }
+
+    @Override
+    public synchronized void open(String id, int width, int height, int maxImages, int[] fpsRange, boolean continuousVideoFocus, boolean flash, Callback callback) throws CameraAccessException {
+        close();
+
+        mCameraId = id;
+        mFpsRange = fpsRange;
+        mContinuousVideoFocus = continuousVideoFocus;
+        mFlash = flash;
+        mCallback = callback;
+
+        try {
+            // Images are packed on this thread, ahead of rendering.
+            mThread = new HandlerThread("Camera2Thread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper());
+
+            mImageReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, maxImages);
+            mImageReader.setOnImageAvailableListener(mImageAvailableListener, mHandler);
+
+            if (LOGGING) Log.i(TAG, "Trying to open camera : " + mCameraId);
+            mCameraManager.openCamera(mCameraId, mStateCallback, mHandler);
+        } catch (CameraAccessException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        mCallback = null;
+
+        if (mCaptureSession != null) {
+            try {
+                mCaptureSession.stopRepeating();
+            } catch (CameraAccessException e) {
+                if (LOGGING) Log.w(TAG, "Could not stop repeating request : " + e.getMessage());
+            } catch (IllegalStateException e) {
+                if (LOGGING) Log.w(TAG, "Could not stop repeating request : " + e.getMessage());
+            }
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+            if (LOGGING) Log.i(TAG, "Camera [" + mCameraId + "] stopped.");
+        }
+
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
+            mHandler = null;
+        }
+    }
+
+    private void fail(String message) {
+        if (LOGGING) Log.e(TAG, message);
+        Callback callback;
+        synchronized (this) {
+            callback = mCallback;
+            mCaptureSession = null;
+            mCameraDevice = null;
+        }
+        if (callback != null) {
+            callback.onError(message);
+        }
+    }
+
+    private static int[][] getSizes(Size[] sizes) {
+        if (sizes == null) return null;
+
+        int[][] widthHeights = new int[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            widthHeights[i] = new int[]{sizes[i].getWidth(), sizes[i].getHeight()};
+        }
+        return widthHeights;
+    }
+
+    private static int[][] getFpsRanges(Range<Integer>[] ranges) {
+        if (ranges == null) return null;
+
+        int[][] lowerUppers = new int[ranges.length][];
+        for (int i = 0; i < ranges.length; i++) {
+            lowerUppers[i] = new int[]{ranges[i].getLower(), ranges[i].getUpper()};
+        }
+        return lowerUppers;
+    }
+
+    private static boolean hasContinuousVideoFocus(int[] afModes) {
+        if (afModes != null) {
+            for (int afMode : afModes) {
+                if (afMode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // The planes of the current image.
+    private static final class ImagePlanes implements Planes {
+        private Image mImage = null;
+        private Image.Plane[] mPlanes = null;
+
+        void set(Image image) {
+            mImage = image;
+            mPlanes = image != null ? image.getPlanes() : null;
+        }
+
+        @Override
+        public int getWidth() {
+            return mImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mImage.getHeight();
+        }
+
+        @Override
+        public ByteBuffer getBuffer(int plane) {
+            return mPlanes[plane].getBuffer();
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mPlanes[plane].getRowStride();
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return mPlanes[plane].getPixelStride();
+        }
+    }
+}
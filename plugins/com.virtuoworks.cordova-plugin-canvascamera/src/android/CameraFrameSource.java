@@ -0,0 +1,70 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.hardware.Camera;
+
+// android.hardware.Camera frame source : preview frames are delivered into
+// the buffers the pool handed to the camera. The camera itself (parameters,
+// preview start and stop, release) stays owned by CanvasCamera.
+public class CameraFrameSource implements FrameSource {
+    private final Camera mCamera;
+    private final PreviewBufferPool mBufferPool;
+    private final Listener mListener;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final int[] mFpsRange;
+
+    private boolean mOpened = false;
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            long receivedAt = System.nanoTime();
+
+            if (data == null) {
+                return;
+            }
+
+            mBufferPool.acquire(data);
+            mListener.onFrame(data, mWidth, mHeight, mFormat, System.currentTimeMillis(), receivedAt);
+        }
+    };
+
+    public CameraFrameSource(Camera camera, PreviewBufferPool bufferPool, Listener listener, int width, int height, int format, int[] fpsRange) {
+        mCamera = camera;
+        mBufferPool = bufferPool;
+        mListener = listener;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mFpsRange = fpsRange;
+    }
+
+    public synchronized void open() {
+        mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+        mOpened = true;
+    }
+
+    public synchronized void close() {
+        if (mOpened) {
+            mCamera.setPreviewCallback(null);
+            mOpened = false;
+        }
+    }
+
+    public synchronized boolean isOpened() {
+        return mOpened;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int[] getFpsRange() {
+        return mFpsRange;
+    }
+}
@@ -8,13 +8,14 @@ import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.graphics.YuvImage;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Base64;
 import android.util.Log;
 import android.view.Surface;
@@ -33,14 +34,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface {
     private static final String TAG = "CanvasCamera";
@@ -56,11 +58,69 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     protected final String K_HAS_THUMBNAIL_KEY = "hasThumbnail";
     protected final String K_THUMBNAIL_RATIO_KEY = "thumbnailRatio";
     protected final String K_LENS_ORIENTATION_KEY = "cameraFacing";
+    protected final String K_BUFFER_POOL_SIZE_KEY = "bufferPoolSize";
+    protected final String K_FRAME_QUEUE_SIZE_KEY = "frameQueueSize";
+    protected final String K_PIXEL_FORMAT_KEY = "pixelFormat";
+    protected final String K_BINARY_KEY = "binary";
+    protected final String K_ROI_KEY = "roi";
+    protected final String K_PROCESSORS_KEY = "processors";
+    protected final String K_BLINK_KEY = "blink";
+    protected final String K_THRESHOLD_KEY = "threshold";
+    protected final String K_MIN_DURATION_KEY = "minDuration";
+    protected final String K_LONG_DURATION_KEY = "longDuration";
+    protected final String K_ENCODER_KEY = "encoder";
+    protected final String K_NAME_KEY = "name";
+    protected final String K_FORMAT_KEY = "format";
+    protected final String K_QUALITY_KEY = "quality";
+    protected final String K_SUBSAMPLING_KEY = "subsampling";
+    protected final String K_CAMERA_API_KEY = "cameraApi";
+    protected final String K_MAX_IMAGES_KEY = "maxImages";
+    protected final String K_FILE_SLOTS_KEY = "fileSlots";
+    protected final String K_OUTPUTS_KEY = "outputs";
+    protected final String K_RATIO_KEY = "ratio";
+    protected final String K_TIMINGS_KEY = "timings";
+    protected final String K_RESET_KEY = "reset";
+    protected final String K_REPLAY_KEY = "replay";
+    protected final String K_FILE_KEY = "file";
+    protected final String K_TIMESTAMPS_KEY = "timestamps";
+    protected final String K_LOOP_KEY = "loop";
+    protected final String K_QOS_KEY = "qos";
+    protected final String K_TARGET_KEY = "target";
+    protected final String K_MIN_QUALITY_KEY = "minQuality";
+    protected final String K_MIN_FPS_KEY = "minFps";
+    protected final String K_MIN_SCALE_KEY = "minScale";
+    protected final String K_CHANGE_DETECTION_KEY = "changeDetection";
+    protected final String K_MAX_INTERVAL_KEY = "maxInterval";
+    protected final String K_STEP_KEY = "step";
+    protected final String K_WORKER_PRIORITY_KEY = "workerPriority";
+    protected final String K_PIPELINE_KEY = "pipeline";
+    protected final String K_SLOTS_KEY = "slots";
+    protected final String K_PARALLEL_THRESHOLD_KEY = "parallelThreshold";
+
+    protected static final String CAMERA_API_CAMERA = "camera";
+    protected static final String CAMERA_API_CAMERA2 = "camera2";
+    protected static final String CAMERA_API_AUTO = "auto";
+    protected static final String CAMERA_API_REPLAY = "replay";
+    protected final String K_X_KEY = "x";
+    protected final String K_Y_KEY = "y";
 
     private static final int SEC_START_CAPTURE = 0;
     private static final int SEC_STOP_CAPTURE = 1;
     private static final int SEC_FLASH_MODE = 2;
     private static final int SEC_CAMERA_POSITION = 3;
+    private static final int SEC_REGION_OF_INTEREST = 4;
+    private static final int SEC_GET_STATS = 5;
+
+    // Idle bitmaps kept for reuse, about two 1080p ARGB frames.
+    private static final long BITMAP_POOL_BYTES = 16 * 1024 * 1024;
+    // Time given to the frame being rendered when the plugin is destroyed.
+    private static final long EXECUTOR_SHUTDOWN_TIMEOUT = 500;
+    // Restarts of a failing frame source before giving up, the first one
+    // after SOURCE_RESTART_DELAY milliseconds, each next one twice as late.
+    private static final int MAX_SOURCE_RESTARTS = 5;
+    private static final long SOURCE_RESTART_DELAY = 250;
+    // Idle preview frames kept, more than the preview buffers and render slots in flight.
+    private static final int MAX_PREVIEW_FRAMES = 16;
 
     private final static String[] FILENAMES = {"fullsize", "thumbnail"};
     private final static String[] PERMISSIONS = {Manifest.permission.CAMERA, Manifest.permission.READ_EXTERNAL_STORAGE, Manifest.permission.WRITE_EXTERNAL_STORAGE};
@@ -77,13 +137,53 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     protected int mCaptureWidth;
     protected boolean mHasThumbnail;
     protected double mThumbnailRatio;
+    protected int mBufferPoolSize;
+    protected int mFrameQueueSize;
+    protected int mWorkerPriority;
+    protected String mPixelFormat;
+    protected boolean mBinary;
+    protected volatile double[] mRegionOfInterest;
+    protected BlinkDetector mBlinkDetector;
+    // Replaced by the deliver stage when QoS changes the quality.
+    protected volatile FrameEncoder mFrameEncoder;
+    protected String mCameraApi;
+    protected int mMaxImages;
+    protected int mFileSlots;
+    protected List<FrameOutput> mOutputs = new ArrayList<FrameOutput>();
+    protected boolean mTimings;
+    protected File mReplayFile;
+    protected File mReplayTimestampsFile;
+    protected int mReplayWidth;
+    protected int mReplayHeight;
+    protected double mReplayFps;
+    protected boolean mReplayLoop;
+    protected QosController mQosController;
+    // Capture fps and size of the QoS operating point, published by the
+    // deliver stage, the options until QoS changes them.
+    private volatile QosController.OperatingPoint mCapturePoint = null;
+    // Slots of the file rings and of the mapped ring, set when the capture
+    // starts, guarded by mFilesLock.
+    private int mRingSlots;
+    protected ChangeDetector mChangeDetector;
+    protected int mPipelineSlots;
+    protected int mParallelThreshold;
+    // Frames handed to the mailbox, recycled when their render slot is cleared.
+    private final PreviewFramePool mFramePool = new PreviewFramePool(MAX_PREVIEW_FRAMES);
+    // Buffers of the frame being rendered when the stages run one after the other.
+    private final RenderSlot mRenderSlot = new RenderSlot(mFramePool);
+    // Convert, encode and deliver stages on their own threads, null unless enabled.
+    private volatile FramePipeline<RenderSlot> mFramePipeline = null;
+    // Frame geometry, immutable, replaced when the camera, the orientation or the options change.
+    private volatile FrameTransform mFrameTransform = null;
+    // Pixels of the bitmap path, only used by the convert stage.
+    private int[] mPixelBuffer;
+    protected final FrameStats mFrameStats = new FrameStats();
 
     private JSONArray mArgs;
     private CallbackContext mCurrentCallbackContext;
     private CallbackContext mStartCaptureCallbackContext;
 
     private File mDir;
-    private int mFileId = 0;
     private int mDisplayOrientation = 0;
 
     private Camera mCamera;
@@ -93,11 +193,31 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     private int[] mPreviewFpsRange;
     private String mPreviewFocusMode;
     private Camera.Size mPreviewSize;
-    private boolean mPreviewing = false;
+    private volatile boolean mPreviewing = false;
+    private PreviewBufferPool mBufferPool = null;
+    // Decoded and scaled bitmaps of the bitmap path, reused across frames.
+    private final BitmapPool mBitmapPool = new BitmapPool(BITMAP_POOL_BYTES);
+    // Renders frames, owned by the plugin instead of sharing the Cordova thread pool.
+    private final FrameExecutor mWorkerExecutor = new FrameExecutor("CanvasCameraWorker", Process.THREAD_PRIORITY_DISPLAY);
+    private FrameMailbox<PreviewFrame> mFrameMailbox = null;
+    private long mFrameSequence = 0;
+    private final List<FrameProcessor> mFrameProcessors = new CopyOnWriteArrayList<FrameProcessor>();
+    private final List<FrameProcessor> mOptionFrameProcessors = new CopyOnWriteArrayList<FrameProcessor>();
 
     private Activity mActivity = null;
     private TextureView mTextureView = null;
     private CameraHandlerThread mThread = null;
+    private Camera2Backend mCamera2 = null;
+    private FrameSource mFrameSource = null;
+    // Restarts since the frame source last delivered a frame.
+    private volatile int mSourceRestarts = 0;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private long mQosSuperseded = 0;
+    // Guards the file rings and the mapped ring, used by the deliver stage
+    // while stopCapture() waits for it with the plugin lock held.
+    private final Object mFilesLock = new Object();
+    private final Map<String, FrameFileRing> mFileRings = new HashMap<String, FrameFileRing>();
+    private FrameMappedRing mMappedRing = null;
 
     @Override
     public String getFilenameSuffix() {
@@ -110,164 +230,91 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
 
     public void addPluginResultDataOutput(byte[] imageRawJpegData, JSONObject pluginResultDataOutput) {}
 
-    private final Camera.PreviewCallback mCameraPreviewCallback = new Camera.PreviewCallback() {
+    private final FrameMailbox.Listener<PreviewFrame> mFrameMailboxListener = new FrameMailbox.Listener<PreviewFrame>() {
         @Override
-        public void onPreviewFrame(final byte[] data, Camera camera) {
-            Runnable renderFrame = new Runnable() {
+        public void onFrame(PreviewFrame frame) {
+            // The frame may be recycled by the deliver stage before renderFrame returns.
+            byte[] data = frame.getData();
+            try {
+                renderFrame(frame);
+            } finally {
+                releasePreviewBuffer(data);
+            }
+        }
+
+        @Override
+        public void onDiscard(PreviewFrame frame) {
+            mFrameStats.countDropped();
+            releasePreviewBuffer(frame.getData());
+            mFramePool.recycle(frame);
+        }
+    };
+
+    private final FrameSource.Listener mFrameSourceListener = new FrameSource.Listener() {
+        @Override
+        public void onFrame(byte[] data, int width, int height, int format, long timestamp, long receivedAt) {
+            if (mSourceRestarts != 0) {
+                mSourceRestarts = 0;
+            }
+            if (mFrameMailbox != null) {
+                // Latest frame wins over frames still waiting to be rendered.
+                mFrameMailbox.offer(getQueuedFrame(mFramePool.obtain(data, width, height, format, timestamp, ++mFrameSequence), receivedAt));
+            } else {
+                releasePreviewBuffer(data);
+            }
+        }
+
+        @Override
+        public void onError(final String message) {
+            if (LOGGING) Log.e(TAG, "Frame source error : " + message);
+            mMainHandler.post(new Runnable() {
                 public void run() {
-                    if (mPreviewing && data.length > 0) {
-                        // Get display orientation.
-                        int displayOrientation = getDisplayOrientation();
-                        // Getting output file paths.
-                        Map<String, File> files = getImageFilesPaths();
-
-                        // JSON output for images.
-                        JSONObject images = new JSONObject();
-
-                        // Creating fullsize image.
-                        byte[] fullsizeData = dataToJpeg(data, mPreviewSize.width, mPreviewSize.height);
-
-                        fullsizeData = getResizedAndRotatedImage(fullsizeData, mCanvasWidth, mCanvasHeight, displayOrientation);
-
-                        // JSON output for fullsize image
-                        JSONObject fullsize = new JSONObject();
-
-                        if (mUse != null) {
-                            if ("data".equals(mUse)) {
-                                String fullsizeDataToB64 = "data:image/jpeg;base64," + Base64.encodeToString(fullsizeData, Base64.DEFAULT);
-                                try {
-                                    fullsize.put("data", fullsizeDataToB64);
-                                } catch (JSONException e) {
-                                    if (LOGGING)
-                                        Log.e(TAG, "Cannot put data.output.images.fullsize.data  into JSON result : " + e.getMessage());
-                                }
-                            }
-                            if ("file".equals(mUse) && saveImage(fullsizeData, files.get("fullsize"))) {
-                                try {
-                                    fullsize.put("file", files.get("fullsize").getPath());
-                                } catch (JSONException e) {
-                                    if (LOGGING)
-                                        Log.e(TAG, "Cannot put data.output.images.fullsize.path into JSON result : " + e.getMessage());
-                                }
-                            }
-
-                            addPluginResultDataOutput(fullsizeData, fullsize);
-                        }
+                    restartFrameSource(message);
+                }
+            });
+        }
+    };
 
-                        if (fullsize.length() > 0) {
-                            try {
-                                images.put("fullsize", fullsize);
-
-                                try {
-                                    fullsize.put("rotation", displayOrientation);
-                                } catch (JSONException e) {
-                                    if (LOGGING)
-                                        Log.e(TAG, "Cannot put data.output.images.fullsize.rotation into JSON result : " + e.getMessage());
-                                }
-
-                                try {
-                                    fullsize.put("orientation", getCurrentOrientationToString());
-                                } catch (JSONException e) {
-                                    if (LOGGING)
-                                        Log.e(TAG, "Cannot put data.output.images.fullsize.orientation into JSON result : " + e.getMessage());
-                                }
-
-                                try {
-                                    fullsize.put("timestamp", (new java.util.Date()).getTime());
-                                } catch (JSONException e) {
-                                    if (LOGGING)
-                                        Log.e(TAG, "Cannot put data.output.images.fullsize.timestamp into JSON result : " + e.getMessage());
-                                }
-
-                            } catch (JSONException e) {
-                                if (LOGGING)
-                                    Log.e(TAG, "Cannot put data.output.images.fullsize into JSON result : " + e.getMessage());
-                            }
-
-                            if (mHasThumbnail) {
-                                // Creating thumbnail image
-                                byte[] thumbnailData = getResizedImage(fullsizeData, mThumbnailRatio);
-
-                                // JSON output for thumbnail image
-                                JSONObject thumbnail = new JSONObject();
-
-                                if (mUse != null) {
-                                    if ("data".equals(mUse)) {
-                                        String thumbnailDataToB64 = "data:image/jpeg;base64," + Base64.encodeToString(thumbnailData, Base64.DEFAULT);
-                                        try {
-                                            thumbnail.put("data", thumbnailDataToB64);
-                                        } catch (JSONException e) {
-                                            if (LOGGING)
-                                                Log.e(TAG, "Cannot put data.output.images.thumbnail.data into JSON result : " + e.getMessage());
-                                        }
-                                    }
-                                    if ("file".equals(mUse) && saveImage(thumbnailData, files.get("thumbnail"))) {
-                                        try {
-                                            thumbnail.put("file", files.get("thumbnail").getPath());
-                                        } catch (JSONException e) {
-                                            if (LOGGING)
-                                                Log.e(TAG, "Cannot put data.output.images.thumbnail.path into JSON result : " + e.getMessage());
-                                        }
-                                    }
-                                }
-
-                                if (thumbnail.length() > 0) {
-                                    try {
-                                        images.put("thumbnail", thumbnail);
-
-                                        try {
-                                            thumbnail.put("rotation", displayOrientation);
-                                        } catch (JSONException e) {
-                                            if (LOGGING)
-                                                Log.e(TAG, "Cannot put data.output.images.thumbnail.rotation into JSON result : " + e.getMessage());
-                                        }
-
-                                        try {
-                                            thumbnail.put("orientation", getCurrentOrientationToString());
-                                        } catch (JSONException e) {
-                                            if (LOGGING)
-                                                Log.e(TAG, "Cannot put data.output.images.thumbnail.orientation into JSON result : " + e.getMessage());
-                                        }
-
-                                        try {
-                                            thumbnail.put("timestamp", (new java.util.Date()).getTime());
-                                        } catch (JSONException e) {
-                                            if (LOGGING)
-                                                Log.e(TAG, "Cannot put data.output.images.thumbnail.timestamp into JSON result : " + e.getMessage());
-                                        }
-                                    } catch (JSONException e) {
-                                        if (LOGGING)
-                                            Log.e(TAG, "Cannot put data.output.images.thumbnail into JSON result : " + e.getMessage());
-                                    }
-                                }
-                            }
-
-                            // JSON output
-                            JSONObject output = new JSONObject();
-
-                            try {
-                                output.put("images", images);
-                            } catch (JSONException e) {
-                                if (LOGGING)
-                                    Log.e(TAG, "Cannot put data.output.images into JSON result : " + e.getMessage());
-                            }
-
-                            if (mPreviewing) {
-                                PluginResult result = new PluginResult(PluginResult.Status.OK, getPluginResultMessage("OK", output));
-                                result.setKeepCallback(true);
-                                mStartCaptureCallbackContext.sendPluginResult(result);
-                            }
-                        }
+    // Preview fps range and size are only negotiated when the camera starts.
+    private final Runnable mRestartForOperatingPoint = new Runnable() {
+        public void run() {
+            synchronized (CanvasCamera.this) {
+                if (mPreviewing) {
+                    if (startCamera()) {
+                        if (LOGGING) Log.i(TAG, "Camera restarted for the new operating point.");
+                    } else {
+                        if (LOGGING) Log.w(TAG, "Could not restart camera.");
                     }
                 }
-            };
+            }
+        }
+    };
 
-            cordova.getThreadPool().submit(renderFrame);
+    private final Runnable mRestartFrameSource = new Runnable() {
+        public void run() {
+            synchronized (CanvasCamera.this) {
+                if (mPreviewing) {
+                    if (startCamera()) {
+                        if (LOGGING) Log.i(TAG, "Camera successfully restarted.");
+                    } else {
+                        if (LOGGING) Log.w(TAG, "Could not restart camera.");
+                        sendFrameSourceError("Could not restart camera.");
+                    }
+                }
+            }
         }
     };
 
     private final TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
         public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+            if (isCamera2()) {
+                // camera2 renders into an ImageReader, the surface only drives the lifecycle.
+                mTextureView.setVisibility(View.INVISIBLE);
+                mTextureView.setAlpha(0);
+                startCamera2();
+                return;
+            }
+
             mCamera = getCameraInstance();
 
             if (mCamera != null) {
@@ -281,9 +328,8 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
                     mCamera.setPreviewTexture(surface);
                     mCamera.setDisplayOrientation(mDisplayOrientation);
                     mCamera.setErrorCallback(mCameraErrorCallback);
-                    mCamera.setPreviewCallback(mCameraPreviewCallback);
-
-                    mFileId = 0;
+                    setPreviewBuffers();
+                    setCameraFrameSource();
 
                     mCamera.startPreview();
                     mPreviewing = true;
@@ -334,24 +380,330 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
                     break;
             }
 
-            try {
-                if (startCamera()) {
-                    if (LOGGING) Log.i(TAG, "Camera successfully restarted.");
+            mFrameSourceListener.onError("Camera error callback : (error code - " + error + ")");
+        }
+    };
+
+    // Restarts the frame source after an error, unless it failed
+    // MAX_SOURCE_RESTARTS times in a row without delivering a frame, in which
+    // case the capture stops and the error goes to the capture callback.
+    // Runs on the main thread.
+    private synchronized void restartFrameSource(String message) {
+        if (!mPreviewing) return;
+
+        int restarts = mSourceRestarts;
+        if (restarts >= MAX_SOURCE_RESTARTS) {
+            if (LOGGING) Log.w(TAG, "Frame source failed " + restarts + " times, giving up.");
+            sendFrameSourceError(message);
+            return;
+        }
+
+        mSourceRestarts = restarts + 1;
+        mMainHandler.removeCallbacks(mRestartFrameSource);
+        mMainHandler.postDelayed(mRestartFrameSource, SOURCE_RESTART_DELAY << restarts);
+    }
+
+    private synchronized void sendFrameSourceError(String message) {
+        stopCamera();
+        mPreviewing = false;
+        if (mStartCaptureCallbackContext != null) {
+            PluginResult result = new PluginResult(PluginResult.Status.ERROR, getPluginResultMessage("Frame source failed : " + message));
+            result.setKeepCallback(true);
+            mStartCaptureCallbackContext.sendPluginResult(result);
+        }
+    }
+
+    private PreviewFrame getQueuedFrame(PreviewFrame frame, long receivedAt) {
+        mFrameStats.countReceived();
+        frame.setReceivedAt(receivedAt);
+        frame.setQueuedAt(frame.mark(FrameStats.DELIVERY, receivedAt));
+        return frame;
+    }
+
+    private void renderFrame(PreviewFrame frame) {
+        FramePipeline<RenderSlot> pipeline = mFramePipeline;
+        RenderSlot slot = pipeline != null ? pipeline.obtain() : mRenderSlot;
+        if (slot == null) {
+            // The pipeline is stopping.
+            mFrameStats.countDropped();
+            mFramePool.recycle(frame);
+            return;
+        }
+        // Owned by the slot from here, recycled when the slot is cleared.
+        slot.mFrame = frame;
+
+        long start = System.nanoTime();
+        boolean converted = false;
+        try {
+            converted = convertFrame(frame, slot);
+        } finally {
+            if (pipeline != null) {
+                pipeline.addBusyTime(FramePipeline.CONVERT, System.nanoTime() - start);
+                if (converted) {
+                    // Encoded and delivered on the stage threads, the preview buffer is no longer needed.
+                    if (!pipeline.publish(slot)) {
+                        // Stopped in the meantime.
+                        slot.clear();
+                        mFrameStats.countDropped();
+                    }
                 } else {
-                    if (LOGGING) Log.w(TAG, "Could not restart camera.");
+                    slot.clear();
+                    pipeline.recycle(slot);
                 }
-            } catch (Exception e) {
+            }
+        }
+
+        if (pipeline == null) {
+            try {
+                if (converted) {
+                    encodeImages(slot);
+                    deliverFrame(slot);
+                }
+            } finally {
+                slot.clear();
+            }
+        }
+    }
+
+    // First stage : frame processors, then scaling, mirroring and rotating
+    // the preview bytes into the slot. Returns false when the frame stops
+    // here, the preview buffer is not read by the next stages.
+    private boolean convertFrame(PreviewFrame frame, RenderSlot slot) {
+        long time = frame.mark(FrameStats.QUEUE, frame.getQueuedAt());
+
+        byte[] data = frame.getData();
+        if (!mPreviewing || data == null || data.length == 0) {
+            mFrameStats.countDropped();
+            return false;
+        }
+
+        // Geometry planned when the camera, the orientation or the options changed.
+        FrameTransform transform = getFrameTransform(frame);
+        int displayOrientation = transform.getRotation();
+
+        frame.setRotation(displayOrientation);
+        frame.setMirrored(transform.isMirrored());
+        frame.setOrientation(transform.getOrientation());
+        frame.setCrop(transform.getCrop());
+
+        // JSON output
+        JSONObject output = new JSONObject();
+
+        // Running frame processors on the preview frame.
+        int processing = processFrame(frame, output);
+        time = frame.mark(FrameStats.PROCESS, time);
+        if (processing == FrameProcessor.DROP) {
+            mFrameStats.countDropped();
+            return false;
+        } else if (processing == FrameProcessor.COMPLETE) {
+            // Processor output only, sent by the deliver stage so that results stay in frame order.
+            slot.mOutput = output;
+            slot.mComplete = true;
+            slot.mTime = time;
+            return true;
+        }
+
+        // Skipping frames that barely differ from the last one sent, frames
+        // carrying processor output always go through.
+        ChangeDetector changeDetector = mChangeDetector;
+        if (changeDetector != null && output.length() == 0 && !changeDetector.isChanged(frame)) {
+            mFrameStats.countSkipped();
+            return false;
+        }
+        time = frame.mark(FrameStats.PROCESS, time);
+
+        slot.mOutput = output;
+        slot.mDisplayOrientation = displayOrientation;
+        slot.mTransform = transform;
+
+        if ("raw".equals(mUse)) {
+            // Raw pixels, no encoding at all.
+            slot.mFullsizeData = getRawImage(frame, slot, transform, slot.mFullsizeSize);
+            time = System.nanoTime();
+        } else if (frame.getFormat() == ImageFormat.NV21) {
+            // Scaling, mirroring and rotating preview bytes, encoded once by the next stage.
+            byte[] transformed = getFullsizeFrame(data, transform, slot.mFullsizeSize, slot.mTransformBuffer);
+            if (transformed == data) {
+                // Untransformed preview bytes, copied out of the preview buffer.
+                transformed = Yuv420Kernels.obtain(slot.mTransformBuffer, frame.getWidth(), frame.getHeight());
+                System.arraycopy(data, 0, transformed, 0, Math.min(data.length, transformed.length));
+            }
+            slot.mTransformBuffer = transformed;
+            slot.mTransformed = transformed;
+            time = frame.mark(FrameStats.TRANSFORM, time);
+        } else {
+            dataToJpeg(data, frame.getWidth(), frame.getHeight(), transform.getCrop(), slot.mJpeg);
+            time = frame.mark(FrameStats.CONVERT, time);
+        }
+
+        slot.mTime = time;
+        return true;
+    }
+
+    // Second stage : encoding the fullsize image, the thumbnail and the
+    // additional outputs.
+    private void encodeImages(RenderSlot slot) {
+        if (slot.mComplete) {
+            // No image to encode.
+            return;
+        }
+
+        PreviewFrame frame = slot.mFrame;
+        long time = frame.mark(FrameStats.QUEUE, slot.mTime);
+
+        try {
+            if ("raw".equals(mUse)) {
+                // Nothing to encode.
+            } else if (slot.mTransformed != null) {
+                slot.mFullsizeData = encodeFrame(slot.mTransformed, slot.mFullsizeSize[0], slot.mFullsizeSize[1], slot.mEncodeCrop);
+                frame.mark(FrameStats.ENCODE, time);
+            } else {
+                // Decoded, scaled, rotated and encoded again, the size is known from the plan.
+                slot.mFullsizeData = getTransformedImage(slot.mJpeg.getBuffer(), slot.mJpeg.size(), slot.mTransform, mFrameEncoder, slot.mFullsizeSize);
+                frame.mark(FrameStats.TRANSFORM, time);
+            }
+
+            if (!mBinary) {
+                // Scaling the thumbnail and the additional outputs down in a single pass.
+                scaleImages(slot, slot.mFullsizeData, slot.mFullsizeSize);
+            }
+        } catch (RuntimeException e) {
+            if (LOGGING) Log.e(TAG, "Could not encode frame : " + e.getMessage());
+            slot.mFailed = true;
+        }
+
+        slot.mTime = System.nanoTime();
+    }
+
+    // Last stage : writing, mapping or Base64 encoding the images and sending the result.
+    private void deliverFrame(RenderSlot slot) {
+        PreviewFrame frame = slot.mFrame;
+        long time = frame.mark(FrameStats.QUEUE, slot.mTime);
+
+        if (slot.mComplete) {
+            if (mPreviewing) {
+                putFrameTimings(frame, slot.mOutput);
+                PluginResult result = new PluginResult(PluginResult.Status.OK, getPluginResultMessage("OK", slot.mOutput));
+                result.setKeepCallback(true);
+                mStartCaptureCallbackContext.sendPluginResult(result);
+                commitFrame(frame, time);
+            } else {
+                mFrameStats.countDropped();
+            }
+            return;
+        }
+
+        if (slot.mFailed || slot.mFullsizeData == null) {
+            mFrameStats.countDropped();
+            return;
+        }
+
+        JSONObject output = slot.mOutput;
+        int displayOrientation = slot.mDisplayOrientation;
+        byte[] fullsizeData = slot.mFullsizeData;
+        int[] fullsizeSize = slot.mFullsizeSize;
+
+        // Getting output file paths.
+        Map<String, FrameFileRing.Slot> files = getImageFilesPaths(slot.mFiles);
+
+        if (mBinary) {
+            // One ArrayBuffer carrying a fixed header and the image bytes.
+            sendFrameEnvelope(frame, fullsizeData, fullsizeSize, displayOrientation, files.get("fullsize"), output);
+            return;
+        }
+
+        ScaledImages scaledImages = slot.mScaledImages;
+        long timestamp = System.currentTimeMillis();
+
+        // JSON output for images.
+        JSONObject images = new JSONObject();
+
+        // JSON output for fullsize image
+        JSONObject fullsize = getImage("fullsize", mFrameEncoder, fullsizeData, files.get("fullsize"), frame.getTimestamp());
+        if (mUse != null) {
+            if ("raw".equals(mUse) && fullsizeData.length > 0) {
+                try {
+                    fullsize.put("raw", getRawImageDescription(fullsizeSize[0], fullsizeSize[1], fullsizeData.length));
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.output.images.fullsize.raw into JSON result : " + e.getMessage());
+                }
+            } else {
+                addPluginResultDataOutput(fullsizeData, fullsize);
+            }
+        }
+
+        if (FrameResult.putImage(images, "fullsize", fullsize, null, displayOrientation, frame.getOrientation(), timestamp)) {
+            if (mHasThumbnail && !"raw".equals(mUse)) {
+                // Thumbnail image
+                JSONObject thumbnail = getImage("thumbnail", mFrameEncoder, scaledImages.getImage("thumbnail"), files.get("thumbnail"), frame.getTimestamp());
+                FrameResult.putImage(images, "thumbnail", thumbnail, null, displayOrientation, frame.getOrientation(), timestamp);
+            }
+
+            for (FrameOutput frameOutput : mOutputs) {
+                String name = frameOutput.getName();
+                byte[] imageData = scaledImages.getImage(name);
+                if (imageData != null) {
+                    JSONObject image = getImage(name, frameOutput.getEncoder(), imageData, files.get(name), frame.getTimestamp());
+                    FrameResult.putImage(images, name, image, scaledImages.getImageSize(name), displayOrientation, frame.getOrientation(), timestamp);
+                }
+            }
+
+            try {
+                output.put("images", images);
+            } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Something happened while stopping camera : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.output.images into JSON result : " + e.getMessage());
+            }
+
+            if (mPreviewing) {
+                time = frame.mark(FrameStats.OUTPUT, time);
+                putFrameTimings(frame, output);
+
+                PluginResult result;
+                if ("raw".equals(mUse)) {
+                    // The JSON message and the pixels travel as two arguments of the same callback.
+                    List<PluginResult> multipart = new ArrayList<PluginResult>();
+                    multipart.add(new PluginResult(PluginResult.Status.OK, getPluginResultMessage("OK", output)));
+                    multipart.add(new PluginResult(PluginResult.Status.OK, fullsizeData));
+                    result = new PluginResult(PluginResult.Status.OK, multipart);
+                } else {
+                    result = new PluginResult(PluginResult.Status.OK, getPluginResultMessage("OK", output));
+                }
+                result.setKeepCallback(true);
+                mStartCaptureCallbackContext.sendPluginResult(result);
+                commitFrame(frame, time);
+            } else {
+                mFrameStats.countDropped();
             }
+        } else {
+            mFrameStats.countDropped();
         }
-    };
+    }
+
+    // Records the time spent sending the result and the whole frame latency.
+    private void commitFrame(PreviewFrame frame, long sendStart) {
+        frame.mark(FrameStats.SEND, sendStart);
+        frame.mark(FrameStats.TOTAL, frame.getReceivedAt());
+        mFrameStats.commit(frame);
+        updateQos(frame);
+    }
+
+    private void putFrameTimings(PreviewFrame frame, JSONObject output) {
+        if (!mTimings) {
+            return;
+        }
+
+        // Stages up to the result being sent.
+        FrameResult.putTimings(frame.getTimings(), output);
+    }
 
     @Override
     public void initialize(CordovaInterface cordova, CordovaWebView webView) {
         mActivity = cordova.getActivity();
         mDir = mActivity.getExternalCacheDir();
         super.initialize(cordova, webView);
+        mFrameMailbox = new FrameMailbox<PreviewFrame>(mWorkerExecutor, mFrameMailboxListener);
         deleteCachedImageFiles();
     }
 
@@ -364,7 +716,7 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     @Override
     public void onStop() {
         super.onStop();
-        if (mCamera != null) {
+        if (isCameraOpened()) {
             stopCamera();
         }
         if (mTextureView != null) {
@@ -376,8 +728,20 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     @Override
     public void onDestroy() {
         super.onDestroy();
-        cordova.getThreadPool().shutdownNow();
+        if (isCameraOpened()) {
+            stopCamera();
+        }
+        // Only our own threads, the Cordova thread pool is shared with other plugins.
+        stopPipeline();
+        mWorkerExecutor.close(EXECUTOR_SHUTDOWN_TIMEOUT);
+        RowBands.shutdown();
+        if (mThread != null) {
+            mThread.quit();
+            mThread = null;
+        }
+        closeImageFiles();
         deleteCachedImageFiles();
+        mBitmapPool.clear();
     }
 
     @Override
@@ -446,6 +810,18 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
                     }
                 });
                 return true;
+            } else if ("setRegionOfInterest".equals(action)) {
+                if (LOGGING) Log.i(TAG, "Starting async setRegionOfInterest thread...");
+                mActivity.runOnUiThread(new Runnable() {
+                    public void run() {
+                        regionOfInterest(mArgs, mCurrentCallbackContext);
+                    }
+                });
+                return true;
+            } else if ("getStats".equals(action)) {
+                // Only reads counters, answered right away.
+                getStats(mArgs, mCurrentCallbackContext);
+                return true;
             }
         } else {
             if ("startCapture".equals(action)) {
@@ -464,6 +840,14 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
                 deferPluginResultCallback(mCurrentCallbackContext);
                 PermissionHelper.requestPermission(this, SEC_CAMERA_POSITION, Manifest.permission.CAMERA);
                 return true;
+            } else if ("setRegionOfInterest".equals(action)) {
+                deferPluginResultCallback(mCurrentCallbackContext);
+                PermissionHelper.requestPermission(this, SEC_REGION_OF_INTEREST, Manifest.permission.CAMERA);
+                return true;
+            } else if ("getStats".equals(action)) {
+                deferPluginResultCallback(mCurrentCallbackContext);
+                PermissionHelper.requestPermission(this, SEC_GET_STATS, Manifest.permission.CAMERA);
+                return true;
             }
         }
 
@@ -520,6 +904,17 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
                     }
                 });
                 break;
+            case SEC_REGION_OF_INTEREST:
+                if (LOGGING) Log.i(TAG, "Starting async setRegionOfInterest thread...");
+                mActivity.runOnUiThread(new Runnable() {
+                    public void run() {
+                        regionOfInterest(mArgs, mCurrentCallbackContext);
+                    }
+                });
+                break;
+            case SEC_GET_STATS:
+                getStats(mArgs, mCurrentCallbackContext);
+                break;
             default:
                 return;
         }
@@ -527,6 +922,8 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
 
     private synchronized void startCapture(CallbackContext callbackContext) {
         mStartCaptureCallbackContext = callbackContext;
+        mMainHandler.removeCallbacks(mRestartFrameSource);
+        mSourceRestarts = 0;
 
         if (startCamera()) {
             deferPluginResultCallback(mStartCaptureCallbackContext);
@@ -552,13 +949,30 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
             return;
         }
 
+        mWorkerExecutor.setPriority(mWorkerPriority);
+        RowBands.configure(mParallelThreshold, RowBands.getParallelism());
+        startPipeline();
+        updateFrameTransform();
+
+        mFrameStats.reset();
+        mQosSuperseded = mFrameMailbox != null ? mFrameMailbox.getSupersededCount() : 0;
+        mCapturePoint = null;
+        synchronized (mFilesLock) {
+            // Keeps about one second of frames by default, like the former rolling deletion.
+            mRingSlots = mFileSlots > 0 ? mFileSlots : mFps;
+        }
+
         startCapture(mStartCaptureCallbackContext);
     }
 
     private synchronized void stopCapture(CallbackContext stopCaptureCallbackContext) {
         try {
+            mMainHandler.removeCallbacks(mRestartFrameSource);
             stopCamera();
             removePreviewSurface();
+            stopPipeline();
+            closeImageFiles();
+            mBitmapPool.clear();
             if (LOGGING) Log.i(TAG, "Capture stopped.");
             stopCaptureCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, getPluginResultMessage("Capture stopped.")));
         } catch (Exception e) {
@@ -568,7 +982,7 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     }
 
     private synchronized void flashMode(JSONArray args, CallbackContext flashModeCallbackContext) {
-        if (mCamera != null) {
+        if (isCameraOpened()) {
             boolean isFlashModeOn;
 
             try {
@@ -601,7 +1015,7 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     }
 
     private synchronized void cameraPosition(JSONArray args, CallbackContext cameraPositionCallbackContext) {
-        if (mCamera != null) {
+        if (isCameraOpened()) {
             String cameraPosition;
 
             try {
@@ -613,6 +1027,7 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
             }
 
             mCameraFacing = getCameraFacing(cameraPosition);
+            resetDetectors();
 
             if (startCamera()) {
                 if (mStartCaptureCallbackContext != null) {
@@ -633,90 +1048,367 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
         }
     }
 
-    public void setDefaults() {
-        mFps = 30;
-        mWidth = 352;
-        mHeight = 288;
-        mCanvasWidth = 352;
-        mCanvasHeight = 288;
-        mCaptureWidth = 352;
-        mCaptureHeight = 288;
-        mHasThumbnail = false;
-        mThumbnailRatio = 1 / 6;
-        mCameraFacing = Camera.CameraInfo.CAMERA_FACING_BACK;
-        setDefaultOptions();
+    private synchronized void regionOfInterest(JSONArray args, CallbackContext regionOfInterestCallbackContext) {
+        try {
+            // null or no argument resets the region to the full frame.
+            mRegionOfInterest = getRegionOfInterest(args.optJSONObject(0));
+            updateFrameTransform();
+            resetDetectors();
+        } catch (Exception e) {
+            if (LOGGING) Log.e(TAG, "Failed to set region of interest : " + e.getMessage());
+            regionOfInterestCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION, getPluginResultMessage(e.getMessage())));
+            return;
+        }
+
+        if (LOGGING) Log.i(TAG, "Region of interest applied !");
+        regionOfInterestCallbackContext.success(getPluginResultMessage("OK"));
     }
 
-    private boolean initPreviewSurface() {
-        if (mActivity != null) {
-            mTextureView = new TextureView(mActivity);
-            mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
-            WindowManager mW = (WindowManager) mActivity.getSystemService(Context.WINDOW_SERVICE);
-            int screenWidth = mW.getDefaultDisplay().getWidth();
-            int screenHeight = mW.getDefaultDisplay().getHeight();
-            mActivity.addContentView(mTextureView, new ViewGroup.LayoutParams(screenWidth, screenHeight));
-            if (LOGGING) Log.i(TAG, "Camera preview surface initialized.");
-            return true;
-        } else {
-            if (LOGGING) Log.w(TAG, "Could not initialize preview surface.");
-            return false;
+    private void getStats(JSONArray args, CallbackContext statsCallbackContext) {
+        JSONObject output = new JSONObject();
+
+        JSONObject stats = mFrameStats.toJSON();
+
+        try {
+            stats.put("bitmaps", getBitmapPoolDescription());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.bitmaps into JSON result : " + e.getMessage());
         }
-    }
 
-    private void removePreviewSurface() {
-        if (mTextureView != null) {
+        FramePipeline<RenderSlot> pipeline = mFramePipeline;
+        if (pipeline != null) {
             try {
-                ViewGroup parentViewGroup = (ViewGroup) mTextureView.getParent();
-                if (parentViewGroup != null) {
-                    parentViewGroup.removeView(mTextureView);
-                }
-                if (LOGGING) Log.i(TAG, "Camera preview surface removed.");
-            } catch (Exception e) {
-                if (LOGGING) Log.w(TAG, "Could not remove view : " + e.getMessage());
+                stats.put("pipeline", getPipelineDescription(pipeline));
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline into JSON result : " + e.getMessage());
             }
         }
-    }
 
-    private boolean startCamera() {
-        stopCamera();
-        removePreviewSurface();
-        if (checkCameraHardware(mActivity)) {
-            mPreviewing = true;
-            if (LOGGING) Log.i(TAG, "Initializing preview surface...");
-            return initPreviewSurface();
-        } else {
-            mPreviewing = false;
-            if (LOGGING) Log.w(TAG, "No camera detected !");
-            return false;
+        try {
+            output.put("stats", stats);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats into JSON result : " + e.getMessage());
         }
-    }
 
-    private void stopCamera() {
-        if (mCamera != null) {
-            try {
-                mCamera.stopPreview();
-                mCamera.setPreviewCallback(null);
-                mCamera.release();
-                mCamera = null;
-                if (LOGGING) Log.i(TAG, "Camera [" + mCameraId + "] stopped.");
-                mCameraId = 0;
-            } catch (Exception e) {
-                if (LOGGING)
-                    Log.e(TAG, "Could not stop camera [" + mCameraId + "] : " + e.getMessage());
+        JSONObject options = args.optJSONObject(0);
+        if (options != null && options.optBoolean(K_RESET_KEY, false)) {
+            mFrameStats.reset();
+            mBitmapPool.resetCounts();
+            if (pipeline != null) {
+                pipeline.resetStats();
             }
         }
-        mPreviewing = false;
-    }
 
-    private int getCameraRotation() {
-        int degrees = getDisplayRotation();
+        statsCallbackContext.success(getPluginResultMessage("OK", output));
+    }
 
-        Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(mCameraId, info);
-        int cameraRotationOffset = info.orientation;
+    private JSONObject getBitmapPoolDescription() {
+        JSONObject bitmaps = new JSONObject();
 
-        int cameraRotation;
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+        try {
+            bitmaps.put("hits", mBitmapPool.getHitCount());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.bitmaps.hits into JSON result : " + e.getMessage());
+        }
+
+        try {
+            bitmaps.put("misses", mBitmapPool.getMissCount());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.bitmaps.misses into JSON result : " + e.getMessage());
+        }
+
+        try {
+            bitmaps.put("evicted", mBitmapPool.getEvictedCount());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.bitmaps.evicted into JSON result : " + e.getMessage());
+        }
+
+        try {
+            bitmaps.put("resident", mBitmapPool.getResidentCount());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.bitmaps.resident into JSON result : " + e.getMessage());
+        }
+
+        try {
+            bitmaps.put("residentBytes", mBitmapPool.getResidentBytes());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.bitmaps.residentBytes into JSON result : " + e.getMessage());
+        }
+
+        return bitmaps;
+    }
+
+    private JSONObject getPipelineDescription(FramePipeline<RenderSlot> pipeline) {
+        JSONObject description = new JSONObject();
+
+        try {
+            description.put("slots", pipeline.getSlotCount());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.pipeline.slots into JSON result : " + e.getMessage());
+        }
+
+        long duration = pipeline.getDuration();
+        JSONObject stages = new JSONObject();
+        for (int i = 0; i < FramePipeline.STAGES.length; i++) {
+            JSONObject stage = new JSONObject();
+            long busy = pipeline.getBusyTime(i);
+
+            try {
+                stage.put("count", pipeline.getCount(i));
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline.stages." + FramePipeline.STAGES[i] + ".count into JSON result : " + e.getMessage());
+            }
+
+            try {
+                stage.put("busy", FrameStats.toMillis(busy));
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline.stages." + FramePipeline.STAGES[i] + ".busy into JSON result : " + e.getMessage());
+            }
+
+            try {
+                // Share of the wall clock time the stage was working, the busiest stage bounds the frame rate.
+                stage.put("utilization", duration > 0 ? (double) busy / duration : 0);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline.stages." + FramePipeline.STAGES[i] + ".utilization into JSON result : " + e.getMessage());
+            }
+
+            try {
+                stages.put(FramePipeline.STAGES[i], stage);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline.stages." + FramePipeline.STAGES[i] + " into JSON result : " + e.getMessage());
+            }
+        }
+
+        try {
+            description.put("stages", stages);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.pipeline.stages into JSON result : " + e.getMessage());
+        }
+
+        JSONObject rings = new JSONObject();
+        for (int i = 0; i < FramePipeline.RINGS.length; i++) {
+            JSONObject ring = new JSONObject();
+
+            try {
+                ring.put("size", pipeline.getRing(i).size());
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline.rings." + FramePipeline.RINGS[i] + ".size into JSON result : " + e.getMessage());
+            }
+
+            try {
+                ring.put("occupancy", pipeline.getMeanOccupancy(i));
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline.rings." + FramePipeline.RINGS[i] + ".occupancy into JSON result : " + e.getMessage());
+            }
+
+            try {
+                rings.put(FramePipeline.RINGS[i], ring);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.stats.pipeline.rings." + FramePipeline.RINGS[i] + " into JSON result : " + e.getMessage());
+            }
+        }
+
+        try {
+            description.put("rings", rings);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.stats.pipeline.rings into JSON result : " + e.getMessage());
+        }
+
+        return description;
+    }
+
+    // Starts the convert, encode and deliver stages on their own threads when
+    // enabled, replacing the previous ones.
+    private void startPipeline() {
+        stopPipeline();
+        if (mPipelineSlots <= 0) {
+            return;
+        }
+
+        List<RenderSlot> slots = new ArrayList<RenderSlot>();
+        for (int i = 0; i < mPipelineSlots; i++) {
+            slots.add(new RenderSlot(mFramePool));
+        }
+
+        FramePipeline<RenderSlot> pipeline = new FramePipeline<RenderSlot>(slots, new FramePipeline.Stage<RenderSlot>() {
+            @Override
+            public void process(RenderSlot slot) {
+                encodeImages(slot);
+            }
+        }, new FramePipeline.Stage<RenderSlot>() {
+            @Override
+            public void process(RenderSlot slot) {
+                try {
+                    deliverFrame(slot);
+                } catch (RuntimeException e) {
+                    if (LOGGING) Log.e(TAG, "Could not deliver frame : " + e.getMessage());
+                    mFrameStats.countDropped();
+                } finally {
+                    slot.clear();
+                }
+            }
+        }, mWorkerPriority);
+        pipeline.start();
+        mFramePipeline = pipeline;
+    }
+
+    private void stopPipeline() {
+        FramePipeline<RenderSlot> pipeline = mFramePipeline;
+        if (pipeline != null) {
+            mFramePipeline = null;
+            // Frames converted but not delivered.
+            int abandoned = pipeline.stop();
+            for (int i = 0; i < abandoned; i++) {
+                mFrameStats.countDropped();
+            }
+        }
+    }
+
+    public void setDefaults() {
+        mFps = 30;
+        mWidth = 352;
+        mHeight = 288;
+        mCanvasWidth = 352;
+        mCanvasHeight = 288;
+        mCaptureWidth = 352;
+        mCaptureHeight = 288;
+        mHasThumbnail = false;
+        mThumbnailRatio = 1 / 6;
+        mBufferPoolSize = 3;
+        mFrameQueueSize = 1;
+        mWorkerPriority = Process.THREAD_PRIORITY_DISPLAY;
+        mPipelineSlots = 0;
+        mParallelThreshold = RowBands.DEFAULT_THRESHOLD;
+        mPixelFormat = Nv21Converter.RGBA8888;
+        mBinary = false;
+        mRegionOfInterest = null;
+        mOptionFrameProcessors.clear();
+        mBlinkDetector = null;
+        mFrameEncoder = new BitmapFrameEncoder(FrameEncoder.JPEG, 100);
+        mCameraApi = CAMERA_API_CAMERA;
+        mMaxImages = 3;
+        mFileSlots = 0;
+        mOutputs = new ArrayList<FrameOutput>();
+        mTimings = false;
+        mReplayFile = null;
+        mReplayTimestampsFile = null;
+        mReplayWidth = 0;
+        mReplayHeight = 0;
+        mReplayFps = 0;
+        mReplayLoop = false;
+        mQosController = null;
+        mChangeDetector = null;
+        mCameraFacing = Camera.CameraInfo.CAMERA_FACING_BACK;
+        setDefaultOptions();
+    }
+
+    private boolean initPreviewSurface() {
+        if (mActivity != null) {
+            mTextureView = new TextureView(mActivity);
+            mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
+            WindowManager mW = (WindowManager) mActivity.getSystemService(Context.WINDOW_SERVICE);
+            int screenWidth = mW.getDefaultDisplay().getWidth();
+            int screenHeight = mW.getDefaultDisplay().getHeight();
+            mActivity.addContentView(mTextureView, new ViewGroup.LayoutParams(screenWidth, screenHeight));
+            if (LOGGING) Log.i(TAG, "Camera preview surface initialized.");
+            return true;
+        } else {
+            if (LOGGING) Log.w(TAG, "Could not initialize preview surface.");
+            return false;
+        }
+    }
+
+    private void removePreviewSurface() {
+        if (mTextureView != null) {
+            try {
+                ViewGroup parentViewGroup = (ViewGroup) mTextureView.getParent();
+                if (parentViewGroup != null) {
+                    parentViewGroup.removeView(mTextureView);
+                }
+                if (LOGGING) Log.i(TAG, "Camera preview surface removed.");
+            } catch (Exception e) {
+                if (LOGGING) Log.w(TAG, "Could not remove view : " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean startCamera() {
+        stopCamera();
+        removePreviewSurface();
+        if (mReplayFile != null) {
+            // Recorded frames instead of the camera, no preview surface needed.
+            return startReplay();
+        } else if (checkCameraHardware(mActivity)) {
+            mPreviewing = true;
+            if (LOGGING) Log.i(TAG, "Initializing preview surface...");
+            return initPreviewSurface();
+        } else {
+            mPreviewing = false;
+            if (LOGGING) Log.w(TAG, "No camera detected !");
+            return false;
+        }
+    }
+
+    private void stopCamera() {
+        if (mFrameSource != null) {
+            mFrameSource.close();
+            mFrameSource = null;
+            mCamera2 = null;
+            if (mBufferPool != null) {
+                mBufferPool.detach();
+            }
+            if (mFrameMailbox != null) {
+                mFrameMailbox.clear();
+            }
+        }
+        if (mCamera != null) {
+            try {
+                mCamera.stopPreview();
+                if (mBufferPool != null) {
+                    mBufferPool.detach();
+                }
+                if (mFrameMailbox != null) {
+                    mFrameMailbox.clear();
+                }
+                mCamera.release();
+                mCamera = null;
+                if (LOGGING) Log.i(TAG, "Camera [" + mCameraId + "] stopped.");
+                mCameraId = 0;
+            } catch (Exception e) {
+                if (LOGGING)
+                    Log.e(TAG, "Could not stop camera [" + mCameraId + "] : " + e.getMessage());
+            }
+        }
+        mPreviewing = false;
+    }
+
+    private int getCameraRotation() {
+        int degrees = getDisplayRotation();
+
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        Camera.getCameraInfo(mCameraId, info);
+        int cameraRotationOffset = info.orientation;
+
+        int cameraRotation;
+        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
             cameraRotation = (360 + cameraRotationOffset + degrees) % 360;
         } else {
             cameraRotation = (360 + cameraRotationOffset - degrees) % 360;
@@ -726,14 +1418,28 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     }
 
     private int getDisplayOrientation() {
+        if (mFrameSource instanceof Nv21FileSource) {
+            // Recorded frames are delivered as they were recorded.
+            return 0;
+        }
+
         int degrees = getDisplayRotation();
 
-        Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(mCameraId, info);
-        int cameraRotationOffset = info.orientation;
+        int cameraRotationOffset;
+        int cameraFacing;
+        Camera2Backend camera2 = mCamera2;
+        if (camera2 != null) {
+            cameraRotationOffset = camera2.getSensorOrientation();
+            cameraFacing = mCameraFacing;
+        } else {
+            Camera.CameraInfo info = new Camera.CameraInfo();
+            Camera.getCameraInfo(mCameraId, info);
+            cameraRotationOffset = info.orientation;
+            cameraFacing = info.facing;
+        }
 
         int displayOrientation;
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+        if (cameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
             displayOrientation = (cameraRotationOffset + degrees) % 360;
             displayOrientation = (360 - displayOrientation) % 360;  // compensate the mirror
         } else {  // back-facing
@@ -807,6 +1513,114 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
             mCamera.setParameters(parameters);
             // gets preview pixel format
             mPreviewFormat = parameters.getPreviewFormat();
+            if (mPreviewSize != null) {
+                updateFrameTransform(mPreviewSize.width, mPreviewSize.height);
+            }
+        }
+    }
+
+    private boolean isCamera2() {
+        if (CAMERA_API_CAMERA2.equals(mCameraApi) || CAMERA_API_AUTO.equals(mCameraApi)) {
+            return Camera2Session.isSupported();
+        }
+        return false;
+    }
+
+    private boolean isCameraOpened() {
+        return mCamera != null || mFrameSource != null;
+    }
+
+    private void setCameraFrameSource() {
+        if (mCamera != null) {
+            Camera.Size previewSize = mPreviewSize != null ? mPreviewSize : mCamera.getParameters().getPreviewSize();
+            CameraFrameSource source = new CameraFrameSource(mCamera, mBufferPool, mFrameSourceListener, previewSize.width, previewSize.height, mPreviewFormat, mPreviewFpsRange);
+            source.open();
+            mFrameSource = source;
+        }
+    }
+
+    private boolean startReplay() {
+        if (mBufferPool == null || mBufferPool.getSize() != mBufferPoolSize) {
+            if (mBufferPool != null) {
+                mBufferPool.detach();
+            }
+            mBufferPool = new PreviewBufferPool(mBufferPoolSize);
+        }
+        if (mFrameMailbox != null) {
+            mFrameMailbox.setCapacity(mFrameQueueSize);
+        }
+
+        Nv21FileSource source = new Nv21FileSource(mReplayFile, mReplayTimestampsFile, mReplayWidth, mReplayHeight, mReplayFps, mReplayLoop, mBufferPool, mFrameSourceListener);
+        if (source.open()) {
+            mFrameSource = source;
+            mPreviewFormat = ImageFormat.NV21;
+            mPreviewFpsRange = source.getFpsRange();
+            mPreviewFocusMode = null;
+            mDisplayOrientation = 0;
+            updateFrameTransform(source.getWidth(), source.getHeight());
+
+            mPreviewing = true;
+            if (LOGGING) Log.i(TAG, "Frame replay started.");
+        } else {
+            mPreviewing = false;
+            if (LOGGING) Log.w(TAG, "Could not start frame replay.");
+        }
+
+        return mPreviewing;
+    }
+
+    private void startCamera2() {
+        if (mBufferPool == null || mBufferPool.getSize() != mBufferPoolSize) {
+            if (mBufferPool != null) {
+                mBufferPool.detach();
+            }
+            mBufferPool = new PreviewBufferPool(mBufferPoolSize);
+        }
+        if (mFrameMailbox != null) {
+            mFrameMailbox.setCapacity(mFrameQueueSize);
+        }
+
+        mCamera2 = new Camera2Backend(new Camera2Session(mActivity), mBufferPool, mFrameSourceListener);
+        if (mCamera2.open(mCameraFacing, getCaptureWidth(), getCaptureHeight(), getCaptureFps(), getFlashModeAsBoolean(mFlashMode), mMaxImages)) {
+            mFrameSource = mCamera2;
+            mPreviewFormat = ImageFormat.NV21;
+            mPreviewFpsRange = mCamera2.getFpsRange();
+            mPreviewFocusMode = mCamera2.getFocusMode();
+            mFlashMode = getFlashMode(mCamera2.isFlashOn());
+            mDisplayOrientation = getDisplayOrientation();
+            updateFrameTransform(mCamera2.getWidth(), mCamera2.getHeight());
+
+            mPreviewing = true;
+            if (LOGGING) Log.i(TAG, "Camera2 backend started.");
+        } else {
+            mCamera2 = null;
+            mPreviewing = false;
+            if (LOGGING) Log.w(TAG, "Could not start camera2 backend.");
+        }
+    }
+
+    private void setPreviewBuffers() {
+        if (mCamera != null && mPreviewSize != null) {
+            if (mBufferPool == null || mBufferPool.getSize() != mBufferPoolSize) {
+                if (mBufferPool != null) {
+                    mBufferPool.detach();
+                }
+                mBufferPool = new PreviewBufferPool(mBufferPoolSize);
+            }
+            // one preview frame, 12 bits per pixel for NV21
+            int bufferSize = mPreviewSize.width * mPreviewSize.height * ImageFormat.getBitsPerPixel(mPreviewFormat) / 8;
+            mBufferPool.attach(mCamera, bufferSize);
+            if (LOGGING)
+                Log.i(TAG, "Preview buffer pool is set to " + mBufferPool.getSize() + " buffers of " + bufferSize + " bytes.");
+        }
+        if (mFrameMailbox != null) {
+            mFrameMailbox.setCapacity(mFrameQueueSize);
+        }
+    }
+
+    private void releasePreviewBuffer(byte[] data) {
+        if (mBufferPool != null) {
+            mBufferPool.release(data);
         }
     }
 
@@ -814,10 +1628,11 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
         List<int[]> supportedRanges = params.getSupportedPreviewFpsRange();
 
         int[] optimalFpsRange = new int[]{30, 30};
+        int fps = getCaptureFps();
 
         for (int[] range : supportedRanges) {
             optimalFpsRange = range;
-            if (range[1] <= (mFps * 1000)) {
+            if (range[1] <= (fps * 1000)) {
                 break;
             }
         }
@@ -860,36 +1675,30 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
 
     private Camera.Size getOptimalPreviewSize(Camera.Parameters parameters) {
         List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio = (double) mCaptureWidth / mCaptureHeight;
         if (sizes == null) return null;
 
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
+        int[][] widthHeights = new int[sizes.size()][];
+        for (int i = 0; i < widthHeights.length; i++) {
+            widthHeights[i] = new int[]{sizes.get(i).width, sizes.get(i).height};
+        }
 
-        int targetHeight = mCaptureHeight;
+        int index = FrameGeometry.getOptimalSizeIndex(widthHeights, getCaptureWidth(), getCaptureHeight());
+        return index >= 0 ? sizes.get(index) : null;
+    }
 
-        // Try to find an size match aspect ratio and size
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
-        }
+    private int getCaptureFps() {
+        QosController.OperatingPoint point = mCapturePoint;
+        return point != null ? point.getFps() : mFps;
+    }
 
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
-        }
-        return optimalSize;
+    private int getCaptureWidth() {
+        QosController.OperatingPoint point = mCapturePoint;
+        return point != null ? point.getWidth() : mCaptureWidth;
+    }
+
+    private int getCaptureHeight() {
+        QosController.OperatingPoint point = mCapturePoint;
+        return point != null ? point.getHeight() : mCaptureHeight;
     }
 
     private boolean checkCameraHardware(Context context) {
@@ -934,44 +1743,149 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
         return camera;
     }
 
-    private synchronized Map<String, File> getImageFilesPaths() {
-        Map<String, File> files = new HashMap<String, File>();
+    private Map<String, FrameFileRing.Slot> getImageFilesPaths(Map<String, FrameFileRing.Slot> files) {
+        synchronized (mFilesLock) {
+            return getImageFilesPathsLocked(files);
+        }
+    }
 
-        if (mDir != null) {
-            mFileId++;
+    private Map<String, FrameFileRing.Slot> getImageFilesPathsLocked(Map<String, FrameFileRing.Slot> files) {
+        // Reused from one frame to the next, only read while the frame renders.
+        files.clear();
 
-            for (String fileName : FILENAMES) {
-                if (mFileId > mFps) {
-                    File prevFile = new File(mDir, String.valueOf(fileName.charAt(0)) + (mFileId - mFps) + "-" + getFilenameSuffix() + ".jpg");
-                    if (prevFile.exists()) {
-                        if (prevFile.delete()) {
-                            if (LOGGING)
-                                Log.v(TAG, "Previously cached file " + prevFile.getName() + " deleted !");
-                        } else {
-                            if (LOGGING)
-                                Log.w(TAG, "Could not delete previous cached file " + prevFile.getName() + ".");
-                        }
-                    }
-                }
+        if (mDir != null && "file".equals(mUse)) {
+            int slots = mRingSlots;
 
-                File curFile = new File(mDir, String.valueOf(fileName.charAt(0)) + mFileId + "-" + getFilenameSuffix() + ".jpg");
-                if (curFile.exists()) {
-                    if (curFile.delete()) {
-                        if (LOGGING)
-                            Log.v(TAG, "Current cached file " + curFile.getName() + " deleted !");
-                    } else {
-                        if (LOGGING)
-                            Log.w(TAG, "Could not delete current cached file " + curFile.getName() + ".");
+            for (int i = 0; i < FILENAMES.length + mOutputs.size(); i++) {
+                String fileName;
+                String extension;
+                if (i < FILENAMES.length) {
+                    fileName = FILENAMES[i];
+                    extension = mFrameEncoder.getExtension();
+                } else {
+                    fileName = mOutputs.get(i - FILENAMES.length).getName();
+                    extension = mOutputs.get(i - FILENAMES.length).getEncoder().getExtension();
+                }
+                FrameFileRing ring = mFileRings.get(fileName);
+                if (ring == null || ring.getSize() != slots || !ring.getExtension().equals(extension)) {
+                    if (ring != null) {
+                        ring.close();
                     }
+                    // Outputs use their whole name as prefix, fullsize and thumbnail keep their initial.
+                    String prefix = i < FILENAMES.length ? String.valueOf(fileName.charAt(0)) : fileName + "-";
+                    ring = new FrameFileRing(mDir, prefix, getFilenameSuffix(), extension, slots);
+                    mFileRings.put(fileName, ring);
+                    if (LOGGING)
+                        Log.i(TAG, "Frame file ring " + fileName + " is set to " + slots + " slots.");
                 }
 
-                files.put(fileName, curFile);
+                files.put(fileName, ring.next());
             }
         }
 
         return files;
     }
 
+    private void closeImageFiles() {
+        synchronized (mFilesLock) {
+            for (FrameFileRing ring : mFileRings.values()) {
+                ring.close();
+            }
+            mFileRings.clear();
+
+            if (mMappedRing != null) {
+                mMappedRing.close();
+                mMappedRing = null;
+            }
+        }
+    }
+
+    private FrameMappedRing getMappedRing() {
+        synchronized (mFilesLock) {
+            return getMappedRingLocked();
+        }
+    }
+
+    private FrameMappedRing getMappedRingLocked() {
+        if (mDir != null) {
+            // Fullsize images, thumbnails and outputs share the ring.
+            int slots = mRingSlots * ((mHasThumbnail ? FILENAMES.length : 1) + mOutputs.size());
+            if (mMappedRing == null || mMappedRing.getSlotCount() != slots) {
+                if (mMappedRing != null) {
+                    mMappedRing.close();
+                    mMappedRing = null;
+                }
+                try {
+                    // Grows on the first frame that does not fit.
+                    mMappedRing = new FrameMappedRing(new File(mDir, "frames-" + getFilenameSuffix() + ".ring"), slots, mCanvasWidth * mCanvasHeight * 3 / 2);
+                } catch (IOException e) {
+                    if (LOGGING) Log.e(TAG, "Could not map frame ring : " + e.getMessage());
+                }
+            }
+        }
+
+        return mMappedRing;
+    }
+
+    // mimeType is the one of the encoder that produced bytes.
+    private JSONObject getMappedImage(byte[] bytes, long timestamp, String mimeType) {
+        FrameMappedRing ring = getMappedRing();
+        if (ring == null) {
+            return null;
+        }
+
+        FrameMappedRing.Slot slot = ring.write(bytes, timestamp);
+        if (slot == null) {
+            return null;
+        }
+
+        JSONObject mapped = new JSONObject();
+
+        try {
+            mapped.put("file", ring.getFile().getPath());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.mapped.file into JSON result : " + e.getMessage());
+        }
+
+        try {
+            mapped.put("offset", slot.getOffset());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.mapped.offset into JSON result : " + e.getMessage());
+        }
+
+        try {
+            mapped.put("length", slot.getLength());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.mapped.length into JSON result : " + e.getMessage());
+        }
+
+        try {
+            mapped.put("slot", slot.getIndex());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.mapped.slot into JSON result : " + e.getMessage());
+        }
+
+        try {
+            mapped.put("sequence", slot.getSequence());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.mapped.sequence into JSON result : " + e.getMessage());
+        }
+
+        try {
+            mapped.put("type", mimeType);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.mapped.type into JSON result : " + e.getMessage());
+        }
+
+        return mapped;
+    }
+
     private void deleteCachedImageFiles() {
         if (mActivity != null && mDir != null) {
             if (LOGGING) Log.v(TAG, "Deleting cached files...");
@@ -979,7 +1893,8 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
             for (File aFilesList : filesList) {
                 if (aFilesList.isFile()) {
                     String fileName = aFilesList.getName();
-                    int found = fileName.lastIndexOf("-" + getFilenameSuffix() + ".jpg");
+                    // Any extension, the encoder format may have changed since.
+                    int found = fileName.lastIndexOf("-" + getFilenameSuffix() + ".");
                     if (found > 0) {
                         if (aFilesList.delete()) {
                             if (LOGGING) Log.v(TAG, "Cached file " + fileName + " deleted !");
@@ -993,81 +1908,440 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
         }
     }
 
-    private boolean saveImage(byte[] bytes, File file) {
-        if (file != null && bytes.length > 0) {
-            FileOutputStream output = null;
-            try {
-                output = new FileOutputStream(file);
-                output.write(bytes);
-            } catch (FileNotFoundException e) {
-                if (LOGGING) Log.e(TAG, "Could not find output file : " + e.getMessage());
-                return false;
-            } catch (IOException e) {
-                e.printStackTrace();
-                if (LOGGING) Log.e(TAG, "Could not write output file : " + e.getMessage());
-                return false;
-            } finally {
-                if (null != output) {
-                    try {
-                        output.close();
-                    } catch (IOException e) {
-                        if (LOGGING)
-                            Log.e(TAG, "Could not close file output stream : " + e.getMessage());
-                        return false;
-                    }
-                }
+    private boolean saveImage(byte[] bytes, FrameFileRing.Slot slot) {
+        if (slot != null && bytes.length > 0) {
+            if (slot.write(bytes)) {
                 return true;
+            } else {
+                if (LOGGING) Log.e(TAG, "Could not write output file " + slot.getFile().getName() + ".");
+                return false;
             }
         } else {
             return false;
         }
     }
 
-    private byte[] dataToJpeg(byte[] byteArray, int width, int height) {
+    // crop is filled with the whole frame.
+    private byte[] encodeFrame(byte[] byteArray, int width, int height, int[] crop) {
+        crop[0] = 0;
+        crop[1] = 0;
+        crop[2] = width;
+        crop[3] = height;
+        return mFrameEncoder.encode(byteArray, ImageFormat.NV21, width, height, crop);
+    }
+
+    // The jpeg is only decoded again, it stays in a stream reused from one
+    // frame to the next and is read through getBuffer() and size().
+    private FrameByteStream dataToJpeg(byte[] byteArray, int width, int height, int[] crop, FrameByteStream out) {
+        out.reset();
         if (byteArray.length > 0) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
             // The second parameter is the actual image format
             YuvImage yuvImage = new YuvImage(byteArray, mPreviewFormat, width, height, null);
-            // width and height define the size of the bitmap filled with the preview image
-            yuvImage.compressToJpeg(new Rect(0, 0, width, height), 100, out);
-            // returns the jpeg as bytes array
-            return out.toByteArray();
+            // crop defines the part of the preview image filling the bitmap
+            yuvImage.compressToJpeg(new Rect(crop[0], crop[1], crop[0] + crop[2], crop[1] + crop[3]), 100, out);
+        }
+        return out;
+    }
+
+    private byte[] getFullsizeFrame(byte[] byteArray, FrameTransform transform, int[] outputSize, byte[] dst) {
+        if (byteArray.length > 0 && transform.isScaled()) {
+            return getTransformedFrame(byteArray, transform, outputSize, dst);
         } else {
+            outputSize[0] = transform.getSourceWidth();
+            outputSize[1] = transform.getSourceHeight();
+
             return byteArray;
         }
     }
 
-    private byte[] getResizedImage(byte[] byteArray, double ratio) {
-        if (byteArray.length > 0) {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length);
+    private byte[] getTransformedFrame(byte[] byteArray, FrameTransform transform, int[] outputSize, byte[] dst) {
+        // Crop, scale, mirror and rotate NV21 preview bytes through the planned lookup tables, into dst when it fits.
+        byte[] transformed = transform.transform(byteArray, dst);
 
-            int targetWidth = (int) (bitmap.getWidth() * ratio);
-            int targetHeight = (int) (bitmap.getHeight() * ratio);
+        outputSize[0] = transform.getOutputWidth();
+        outputSize[1] = transform.getOutputHeight();
 
-            bitmap.recycle();
+        return transformed;
+    }
 
-            if (targetWidth > 0 && targetHeight > 0) {
-                return getResizedAndRotatedImage(byteArray, targetWidth, targetHeight, 0);
+    // Geometry of every frame until the camera, the display orientation or
+    // the options change, rebuilt here only for a frame of another size.
+    private FrameTransform getFrameTransform(PreviewFrame frame) {
+        FrameTransform transform = mFrameTransform;
+        if (transform == null || !transform.isSourceSize(frame.getWidth(), frame.getHeight())) {
+            transform = updateFrameTransform(frame.getWidth(), frame.getHeight());
+        }
+        return transform;
+    }
+
+    private FrameTransform updateFrameTransform(int width, int height) {
+        FrameTransform transform = new FrameTransform(width, height, mCanvasWidth, mCanvasHeight, mDisplayOrientation, mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT, getCurrentOrientationToString(), mRegionOfInterest,
+                mHasThumbnail ? mThumbnailRatio : 0, mOutputs);
+        mFrameTransform = transform;
+        return transform;
+    }
+
+    // Rebuilds the current plan after an option change, the source size stays the same.
+    private void updateFrameTransform() {
+        FrameTransform transform = mFrameTransform;
+        if (transform != null) {
+            updateFrameTransform(transform.getSourceWidth(), transform.getSourceHeight());
+        }
+    }
+
+
+    private int processFrame(PreviewFrame frame, JSONObject output) {
+        // Processors added by subclasses run before the ones given in options.
+        int processing = processFrame(mFrameProcessors, frame, output);
+        if (processing == FrameProcessor.CONTINUE) {
+            processing = processFrame(mOptionFrameProcessors, frame, output);
+        }
+        return processing;
+    }
+
+    private int processFrame(List<FrameProcessor> processors, PreviewFrame frame, JSONObject output) {
+        for (FrameProcessor processor : processors) {
+            int processing;
+            try {
+                processing = processor.process(frame, output);
+            } catch (RuntimeException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Frame processor " + processor.getClass().getName() + " failed : " + e.getMessage());
+                continue;
+            }
+            if (processing != FrameProcessor.CONTINUE) {
+                return processing;
+            }
+        }
+        return FrameProcessor.CONTINUE;
+    }
+
+    public void addFrameProcessor(FrameProcessor processor) {
+        if (processor != null) {
+            mFrameProcessors.add(processor);
+        }
+    }
+
+    public void removeFrameProcessor(FrameProcessor processor) {
+        mFrameProcessors.remove(processor);
+    }
+
+    private void sendFrameEnvelope(PreviewFrame frame, byte[] imageData, int[] imageSize, int displayOrientation, FrameFileRing.Slot slot, JSONObject output) {
+        long time = System.nanoTime();
+
+        if (imageData.length == 0) {
+            mFrameStats.countDropped();
+            return;
+        }
+
+        byte[] payload = imageData;
+        int format = FrameEnvelope.getImageFormat(mFrameEncoder.getFormat());
+        int stride = 0;
+
+        if ("raw".equals(mUse)) {
+            format = FrameEnvelope.getPixelFormat(mPixelFormat);
+            stride = imageSize[0] * Nv21Converter.getBytesPerPixel(mPixelFormat);
+        } else if ("file".equals(mUse)) {
+            if (!saveImage(imageData, slot)) {
+                mFrameStats.countDropped();
+                return;
+            }
+            payload = slot.getFile().getPath().getBytes(Charset.forName("UTF-8"));
+            format = FrameEnvelope.FORMAT_FILE;
+        }
+
+        int flags = 0;
+        if (frame.isMirrored()) {
+            flags |= FrameEnvelope.FLAG_MIRRORED;
+        }
+
+        if (mPreviewing) {
+            byte[] envelope = FrameEnvelope.encode(frame.getSequence(), frame.getTimestamp(), System.currentTimeMillis(), displayOrientation,
+                    FrameEnvelope.getOrientation(frame.getOrientation()), flags, imageSize[0], imageSize[1], stride, format, payload);
+            time = frame.mark(FrameStats.OUTPUT, time);
+            putFrameTimings(frame, output);
+
+            PluginResult result;
+            if (output.length() > 0) {
+                // Fields added by frame processors follow the envelope as a second argument.
+                List<PluginResult> multipart = new ArrayList<PluginResult>();
+                multipart.add(new PluginResult(PluginResult.Status.OK, envelope));
+                multipart.add(new PluginResult(PluginResult.Status.OK, output));
+                result = new PluginResult(PluginResult.Status.OK, multipart);
             } else {
-                return byteArray;
+                result = new PluginResult(PluginResult.Status.OK, envelope);
             }
+            result.setKeepCallback(true);
+            mStartCaptureCallbackContext.sendPluginResult(result);
+            commitFrame(frame, time);
         } else {
-            return byteArray;
+            mFrameStats.countDropped();
         }
     }
 
-    private byte[] getResizedAndRotatedImage(byte[] byteArray, int targetWidth, int targetHeight, int angle) {
+    private byte[] getRawImage(PreviewFrame frame, RenderSlot slot, FrameTransform transform, int[] outputSize) {
+        byte[] byteArray = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        long time = System.nanoTime();
+
         if (byteArray.length > 0) {
+            if (mPreviewFormat == ImageFormat.NV21) {
+                byte[] transformed = getTransformedFrame(byteArray, transform, outputSize, slot.mTransformBuffer);
+                slot.mTransformBuffer = transformed;
+                time = frame.mark(FrameStats.TRANSFORM, time);
+
+                // Raw pixels are copied out before the slot is reused, the buffer is kept.
+                slot.mRawBuffer = Nv21Converter.convert(transformed, outputSize[0], outputSize[1], mPixelFormat, slot.mRawBuffer);
+                frame.mark(FrameStats.CONVERT, time);
+
+                return slot.mRawBuffer;
+            } else {
+                // Other preview formats go through the bitmap path, without encoding again.
+                FrameByteStream jpeg = dataToJpeg(byteArray, width, height, transform.getCrop(), slot.mJpeg);
+                Bitmap bitmap = getTransformedBitmap(jpeg.getBuffer(), jpeg.size(), transform);
+                time = frame.mark(FrameStats.TRANSFORM, time);
+                if (bitmap == null) {
+                    outputSize[0] = 0;
+                    outputSize[1] = 0;
+                    return new byte[0];
+                }
+
+                outputSize[0] = bitmap.getWidth();
+                outputSize[1] = bitmap.getHeight();
+
+                int pixelCount = outputSize[0] * outputSize[1];
+                if (mPixelBuffer == null || mPixelBuffer.length != pixelCount) {
+                    mPixelBuffer = new int[pixelCount];
+                }
+                bitmap.getPixels(mPixelBuffer, 0, outputSize[0], 0, 0, outputSize[0], outputSize[1]);
+                mBitmapPool.release(bitmap);
+
+                slot.mRawBuffer = Nv21Converter.convert(mPixelBuffer, outputSize[0], outputSize[1], mPixelFormat, slot.mRawBuffer);
+                frame.mark(FrameStats.CONVERT, time);
+
+                return slot.mRawBuffer;
+            }
+        } else {
+            return byteArray;
+        }
+    }
+
+    private JSONObject getRawImageDescription(int width, int height, int byteLength) {
+        JSONObject raw = new JSONObject();
+
+        try {
+            raw.put("width", width);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.fullsize.raw.width into JSON result : " + e.getMessage());
+        }
+
+        try {
+            raw.put("height", height);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.fullsize.raw.height into JSON result : " + e.getMessage());
+        }
+
+        try {
+            raw.put("format", mPixelFormat);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.fullsize.raw.format into JSON result : " + e.getMessage());
+        }
+
+        try {
+            raw.put("stride", width * Nv21Converter.getBytesPerPixel(mPixelFormat));
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.fullsize.raw.stride into JSON result : " + e.getMessage());
+        }
+
+        try {
+            raw.put("byteLength", byteLength);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images.fullsize.raw.byteLength into JSON result : " + e.getMessage());
+        }
+
+        return raw;
+    }
+
+    // Fills the scaled images of the slot, collections and buffers are reused from frame to frame.
+    private void scaleImages(RenderSlot slot, byte[] fullsizeData, int[] fullsizeSize) {
+        PreviewFrame frame = slot.mFrame;
+        byte[] transformed = slot.mTransformed;
+        ScaledImages scaledImages = slot.mScaledImages;
+        scaledImages.clear();
+
+        if ("raw".equals(mUse) || fullsizeData.length == 0) {
+            return;
+        }
+
+        if (transformed != null) {
+            // Sizes and lookup tables of the levels are planned with the transform.
+            FrameTransform transform = slot.mTransform;
+            Nv21Transformer.Cascade cascade = transform.getCascade();
+            scaledImages.reset(cascade.getCount());
+            if (transform.isThumbnailScaled()) {
+                scaledImages.add("thumbnail", mFrameEncoder);
+            } else if (mHasThumbnail) {
+                scaledImages.put("thumbnail", fullsizeData, fullsizeSize);
+            }
+            for (int i = 0; i < mOutputs.size(); i++) {
+                scaledImages.add(mOutputs.get(i).getName(), mOutputs.get(i).getEncoder());
+            }
+
+            // Every level is sampled from the smallest larger one, the frame is decoded once.
+            long time = System.nanoTime();
+            scaledImages.scale(transformed, cascade);
+            frame.mark(FrameStats.ENCODE, time);
+        } else {
+            int thumbnailWidth = (int) (fullsizeSize[0] * mThumbnailRatio);
+            int thumbnailHeight = (int) (fullsizeSize[1] * mThumbnailRatio);
+            boolean scaledThumbnail = mHasThumbnail && thumbnailWidth > 0 && thumbnailHeight > 0;
+
+            scaledImages.reset((scaledThumbnail ? 1 : 0) + mOutputs.size());
+            if (scaledThumbnail) {
+                scaledImages.add("thumbnail", thumbnailWidth, thumbnailHeight, mFrameEncoder);
+            } else if (mHasThumbnail) {
+                scaledImages.put("thumbnail", fullsizeData, fullsizeSize);
+            }
+
+            int[] size = slot.mOutputSize;
+            for (int i = 0; i < mOutputs.size(); i++) {
+                FrameOutput frameOutput = mOutputs.get(i);
+                frameOutput.getSize(fullsizeSize[0], fullsizeSize[1], size);
+                scaledImages.add(frameOutput.getName(), size[0], size[1], frameOutput.getEncoder());
+            }
+
+            long time = System.nanoTime();
+            for (int i = 0; i < scaledImages.getCount(); i++) {
+                int[] scaledSize = scaledImages.getSize(i);
+                scaledImages.put(i, getResizedAndRotatedImage(fullsizeData, scaledSize[0], scaledSize[1], 0, scaledImages.getEncoder(i)));
+            }
+            frame.mark(FrameStats.TRANSFORM, time);
+        }
+    }
+
+    // Writes, maps or Base64 encodes an image as mUse says, timestamp is the
+    // capture time. Empty when the image went nowhere.
+    private JSONObject getImage(String name, FrameEncoder encoder, byte[] imageData, FrameFileRing.Slot file, long timestamp) {
+        if (mUse == null || imageData == null) {
+            return new JSONObject();
+        }
+
+        String dataUrl = null;
+        if ("data".equals(mUse)) {
+            dataUrl = FrameResult.getDataUrl(encoder.getMimeType(), Base64.encodeToString(imageData, Base64.DEFAULT));
+        }
+        JSONObject mapped = null;
+        if ("mapped".equals(mUse)) {
+            mapped = getMappedImage(imageData, timestamp, encoder.getMimeType());
+        }
+        if (!"file".equals(mUse) || !saveImage(imageData, file)) {
+            file = null;
+        }
+
+        return FrameResult.getImage(name, dataUrl, file, mapped);
+    }
+
+    private byte[] getResizedAndRotatedImage(byte[] byteArray, int targetWidth, int targetHeight, int angle, FrameEncoder encoder) {
+        return getResizedAndRotatedImage(byteArray, byteArray.length, targetWidth, targetHeight, angle, encoder);
+    }
+
+    // Encodes the first length bytes of byteArray scaled, mirrored and rotated.
+    private byte[] getResizedAndRotatedImage(byte[] byteArray, int length, int targetWidth, int targetHeight, int angle, FrameEncoder encoder) {
+        if (length > 0 && targetWidth > 0 && targetHeight > 0) {
+            Bitmap bitmap = getResizedAndRotatedBitmap(byteArray, length, targetWidth, targetHeight, angle);
+            if (bitmap == null) {
+                return new byte[0];
+            }
+
+            byte[] encoded = encoder.encode(bitmap);
+
+            // Back to the pool for the next frame
+            mBitmapPool.release(bitmap);
+
+            return encoded;
+        } else {
+            return length == byteArray.length ? byteArray : Arrays.copyOf(byteArray, length);
+        }
+    }
+
+    // Encodes the first length bytes of a jpeg of the frame crop, scaled,
+    // mirrored and rotated as planned, outputSize is set from the plan.
+    private byte[] getTransformedImage(byte[] byteArray, int length, FrameTransform transform, FrameEncoder encoder, int[] outputSize) {
+        if (length > 0 && transform.isScaled()) {
+            Bitmap bitmap = getTransformedBitmap(byteArray, length, transform);
+            if (bitmap == null) {
+                return new byte[0];
+            }
+
+            byte[] encoded = encoder.encode(bitmap);
+            outputSize[0] = bitmap.getWidth();
+            outputSize[1] = bitmap.getHeight();
+
+            // Back to the pool for the next frame
+            mBitmapPool.release(bitmap);
+
+            return encoded;
+        } else {
+            if (length > 0) {
+                outputSize[0] = transform.getCrop()[2];
+                outputSize[1] = transform.getCrop()[3];
+            }
+            return length == byteArray.length ? byteArray : Arrays.copyOf(byteArray, length);
+        }
+    }
+
+    // Decodes a jpeg of the frame crop into a pooled bitmap, scaled, mirrored
+    // and rotated when a target size is given, without reading its bounds :
+    // sample size and matrix come from the plan. The caller releases it.
+    private Bitmap getTransformedBitmap(byte[] byteArray, int length, FrameTransform transform) {
+        if (length <= 0 || !transform.isScaled()) {
+            return getResizedAndRotatedBitmap(byteArray, length, 0, 0, 0);
+        }
+
+        BitmapFactory.Options bOptions = new BitmapFactory.Options();
+        bOptions.outWidth = transform.getCrop()[2];
+        bOptions.outHeight = transform.getCrop()[3];
+        bOptions.inSampleSize = transform.getSampleSize();
+        // Decode unscaled unrotated bitmap, into a pooled one
+        Bitmap decoded = mBitmapPool.decode(byteArray, length, bOptions);
+        if (decoded == null) {
+            if (LOGGING) Log.e(TAG, "Could not decode image.");
+            return null;
+        }
+
+        Bitmap bitmap;
+        if (decoded.getWidth() == transform.getDecodedWidth() && decoded.getHeight() == transform.getDecodedHeight()) {
+            // Scale, mirror and rotate in a single draw, into a pooled bitmap
+            bitmap = mBitmapPool.transform(decoded, transform.getMatrixValues(), transform.getBitmapWidth(), transform.getBitmapHeight());
+        } else {
+            // The decoder rounded the sampled size differently.
+            bitmap = mBitmapPool.transform(decoded, transform.getWidth(), transform.getHeight(), transform.getRotation(), transform.isMirrored());
+        }
+        mBitmapPool.release(decoded);
+
+        return bitmap;
+    }
+
+    // Decodes an image into a pooled bitmap, scaled, mirrored and rotated
+    // when a target size is given. The caller releases it to the pool.
+    private Bitmap getResizedAndRotatedBitmap(byte[] byteArray, int length, int targetWidth, int targetHeight, int angle) {
+        if (length > 0) {
             // Sets bitmap factory options
             BitmapFactory.Options bOptions = new BitmapFactory.Options();
             // Set inJustDecodeBounds=true to check dimensions
             bOptions.inJustDecodeBounds = true;
             // Decode unscaled unrotated bitmap boundaries only
-            BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, bOptions);
+            BitmapFactory.decodeByteArray(byteArray, 0, length, bOptions);
 
             if (targetWidth > 0 && targetHeight > 0) {
                 // Calculate aspect ratio
-                int[] widthHeight = calculateAspectRatio(bOptions.outWidth , bOptions.outHeight, targetWidth, targetHeight);
+                int[] widthHeight = FrameGeometry.calculateAspectRatio(bOptions.outWidth , bOptions.outHeight, targetWidth, targetHeight);
 
                 int width = widthHeight[0];
                 int height = widthHeight[1];
@@ -1083,84 +2357,27 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
                         bOptions.inSampleSize *= 2;
                     }
                 }
-                // Set inJustDecodeBounds=false to get all pixels
-                bOptions.inJustDecodeBounds = false;
-                // Decode unscaled unrotated bitmap
-                Bitmap bitmap = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length, bOptions);
-                // Create scaled bitmap
-                bitmap = Bitmap.createScaledBitmap(bitmap, width, height, true);
-
-                if (angle != 0 || mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                    final Matrix matrix = new Matrix();
-
-                    // Mirroring ?
-                    if (mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                        matrix.preScale(-1.0f, 1.0f);
-                    }
-                    // Rotation ?
-                    if (angle != 0) {
-                        // Rotation
-                        matrix.postRotate(angle);
-                    }
-
-                    // Create rotated bitmap
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, false);
+                // Decode unscaled unrotated bitmap, into a pooled one
+                Bitmap decoded = mBitmapPool.decode(byteArray, length, bOptions);
+                if (decoded == null) {
+                    if (LOGGING) Log.e(TAG, "Could not decode image.");
+                    return null;
                 }
+                // Scale, mirror and rotate in a single draw, into a pooled bitmap
+                Bitmap bitmap = mBitmapPool.transform(decoded, width, height, angle, mCameraFacing == Camera.CameraInfo.CAMERA_FACING_FRONT);
+                mBitmapPool.release(decoded);
 
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, byteArrayOutputStream);
-
-                // Recycling bitmap
-                bitmap.recycle();
-
-                return byteArrayOutputStream.toByteArray();
+                return bitmap;
             } else {
-                return byteArray;
+                Bitmap decoded = mBitmapPool.decode(byteArray, length, bOptions);
+                if (decoded == null) {
+                    if (LOGGING) Log.e(TAG, "Could not decode image.");
+                }
+                return decoded;
             }
         } else {
-            return byteArray;
-        }
-    }
-
-    private int[] calculateAspectRatio(int origWidth, int origHeight, int targetWidth, int targetHeight) {
-        int newWidth = targetWidth;
-        int newHeight = targetHeight;
-
-        // If no new width or height were specified return the original bitmap
-        if (newWidth <= 0 && newHeight <= 0) {
-            newWidth = origWidth;
-            newHeight = origHeight;
-        }
-        // Only the width was specified
-        else if (newWidth > 0 && newHeight <= 0) {
-            newHeight = (int) (newWidth / (double) origWidth * origHeight);
-        }
-        // only the height was specified
-        else if (newWidth <= 0 && newHeight > 0) {
-            newWidth = (int) (newHeight / (double) origHeight * origWidth);
-        }
-        // If the user specified both a positive width and height
-        // (potentially different aspect ratio) then the width or height is
-        // scaled so that the image fits while maintaining aspect ratio.
-        // Alternatively, the specified width and height could have been
-        // kept and Bitmap.SCALE_TO_FIT specified when scaling, but this
-        // would result in whitespace in the new image.
-        else {
-            double newRatio = newWidth / (double) newHeight;
-            double origRatio = origWidth / (double) origHeight;
-
-            if (origRatio > newRatio) {
-                newHeight = (newWidth * origHeight) / origWidth;
-            } else if (origRatio < newRatio) {
-                newWidth = (newHeight * origWidth) / origHeight;
-            }
+            return null;
         }
-
-        int[] widthHeight = new int[2];
-        widthHeight[0] = newWidth;
-        widthHeight[1] = newHeight;
-
-        return widthHeight;
     }
 
     private void parseOptions(JSONObject options) throws Exception {
@@ -1208,6 +2425,126 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
             mThumbnailRatio = options.getDouble(K_THUMBNAIL_RATIO_KEY);
         }
 
+        // cameraApi
+        if (options.has(K_CAMERA_API_KEY)) {
+            String cameraApi = options.getString(K_CAMERA_API_KEY);
+            if (!CAMERA_API_CAMERA.equals(cameraApi) && !CAMERA_API_CAMERA2.equals(cameraApi) && !CAMERA_API_AUTO.equals(cameraApi)) {
+                throw new Exception("Unsupported camera API : " + cameraApi);
+            }
+            mCameraApi = cameraApi;
+        }
+
+        // fileSlots
+        if (options.has(K_FILE_SLOTS_KEY)) {
+            mFileSlots = options.getInt(K_FILE_SLOTS_KEY);
+        }
+
+        // maxImages
+        if (options.has(K_MAX_IMAGES_KEY)) {
+            mMaxImages = options.getInt(K_MAX_IMAGES_KEY);
+        }
+
+        // bufferPoolSize
+        if (options.has(K_BUFFER_POOL_SIZE_KEY)) {
+            mBufferPoolSize = options.getInt(K_BUFFER_POOL_SIZE_KEY);
+        }
+
+        // pixelFormat
+        if (options.has(K_PIXEL_FORMAT_KEY)) {
+            String pixelFormat = options.getString(K_PIXEL_FORMAT_KEY);
+            if (!Nv21Converter.isSupportedFormat(pixelFormat)) {
+                throw new Exception("Unsupported pixel format : " + pixelFormat);
+            }
+            mPixelFormat = pixelFormat;
+        }
+
+        // processors
+        if (options.has(K_PROCESSORS_KEY)) {
+            JSONArray processors = options.getJSONArray(K_PROCESSORS_KEY);
+            for (int i = 0; i < processors.length(); i++) {
+                mOptionFrameProcessors.add(getFrameProcessorInstance(processors.getString(i)));
+            }
+        }
+
+        // encoder
+        if (options.has(K_ENCODER_KEY)) {
+            mFrameEncoder = getFrameEncoder(options.getJSONObject(K_ENCODER_KEY));
+        }
+
+        // outputs
+        if (options.has(K_OUTPUTS_KEY)) {
+            JSONArray outputs = options.getJSONArray(K_OUTPUTS_KEY);
+            for (int i = 0; i < outputs.length(); i++) {
+                mOutputs.add(getFrameOutput(outputs.getJSONObject(i)));
+            }
+        }
+
+        // replay
+        if (options.has(K_REPLAY_KEY)) {
+            JSONObject replay = options.getJSONObject(K_REPLAY_KEY);
+            mReplayFile = getReplayFile(replay.getString(K_FILE_KEY));
+            mReplayTimestampsFile = replay.has(K_TIMESTAMPS_KEY) ? getReplayFile(replay.getString(K_TIMESTAMPS_KEY)) : null;
+            mReplayWidth = replay.getInt(K_WIDTH_KEY);
+            mReplayHeight = replay.getInt(K_HEIGHT_KEY);
+            mReplayFps = replay.optDouble(K_FPS_KEY, 0);
+            mReplayLoop = replay.optBoolean(K_LOOP_KEY, false);
+        }
+
+        // timings
+        if (options.has(K_TIMINGS_KEY)) {
+            mTimings = options.getBoolean(K_TIMINGS_KEY);
+        }
+
+        // changeDetection
+        if (options.has(K_CHANGE_DETECTION_KEY)) {
+            mChangeDetector = getChangeDetector(options.get(K_CHANGE_DETECTION_KEY));
+        }
+
+        // blink
+        if (options.has(K_BLINK_KEY)) {
+            mBlinkDetector = getBlinkDetector(options.get(K_BLINK_KEY));
+            if (mBlinkDetector != null) {
+                // Runs last, frames reaching it never produce images.
+                mOptionFrameProcessors.add(mBlinkDetector);
+            }
+        }
+
+        // roi
+        if (options.has(K_ROI_KEY)) {
+            mRegionOfInterest = getRegionOfInterest(options.optJSONObject(K_ROI_KEY));
+        }
+
+        // binary
+        if (options.has(K_BINARY_KEY)) {
+            mBinary = options.getBoolean(K_BINARY_KEY);
+        }
+
+        // frameQueueSize
+        if (options.has(K_FRAME_QUEUE_SIZE_KEY)) {
+            mFrameQueueSize = options.getInt(K_FRAME_QUEUE_SIZE_KEY);
+        }
+
+        // workerPriority
+        if (options.has(K_WORKER_PRIORITY_KEY)) {
+            mWorkerPriority = options.getInt(K_WORKER_PRIORITY_KEY);
+            if (mWorkerPriority < Process.THREAD_PRIORITY_URGENT_AUDIO || mWorkerPriority > Process.THREAD_PRIORITY_LOWEST) {
+                throw new Exception("Invalid worker priority : " + mWorkerPriority);
+            }
+        }
+
+        // pipeline
+        if (options.has(K_PIPELINE_KEY)) {
+            mPipelineSlots = getPipelineSlots(options.get(K_PIPELINE_KEY));
+        }
+
+        // parallelThreshold
+        if (options.has(K_PARALLEL_THRESHOLD_KEY)) {
+            mParallelThreshold = options.getInt(K_PARALLEL_THRESHOLD_KEY);
+            if (mParallelThreshold < 0) {
+                throw new Exception("Invalid parallel threshold : " + mParallelThreshold);
+            }
+        }
+
         // canvas
         if (options.has(K_CANVAS_KEY)) {
             JSONObject canvas = options.getJSONObject(K_CANVAS_KEY);
@@ -1232,8 +2569,211 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
             }
         }
 
-        // parsing additional options
-        parseAdditionalOptions(options);
+        if (mBinary && "mapped".equals(mUse)) {
+            throw new Exception("The binary option can't be used with mapped frames.");
+        }
+
+        // An envelope only carries the fullsize image.
+        if (mBinary && (mHasThumbnail || !mOutputs.isEmpty())) {
+            throw new Exception("The binary option can't be used with thumbnails or additional outputs.");
+        }
+
+        // qos, once fps, capture size and encoder are known.
+        if (options.has(K_QOS_KEY)) {
+            mQosController = getQosController(options.get(K_QOS_KEY));
+        }
+
+        // parsing additional options
+        parseAdditionalOptions(options);
+    }
+
+    private FrameProcessor getFrameProcessorInstance(String className) throws Exception {
+        Object processor = Class.forName(className).newInstance();
+        if (!(processor instanceof FrameProcessor)) {
+            throw new Exception(className + " is not a frame processor.");
+        }
+        return (FrameProcessor) processor;
+    }
+
+    private FrameEncoder getFrameEncoder(JSONObject encoder) throws Exception {
+        String name = encoder.optString(K_NAME_KEY, FrameEncoders.ANDROID);
+        String format = encoder.optString(K_FORMAT_KEY, FrameEncoder.JPEG).toLowerCase();
+        int quality = encoder.optInt(K_QUALITY_KEY, 100);
+        String subsampling = encoder.has(K_SUBSAMPLING_KEY) ? encoder.getString(K_SUBSAMPLING_KEY) : null;
+
+        return FrameEncoders.create(name, format, quality, subsampling);
+    }
+
+    private QosController getQosController(Object qos) throws Exception {
+        JSONObject settings;
+        if (qos instanceof JSONObject) {
+            settings = (JSONObject) qos;
+        } else if (Boolean.TRUE.equals(qos)) {
+            settings = new JSONObject();
+        } else {
+            return null;
+        }
+
+        // One frame interval by default, the pipeline then keeps up with the camera.
+        double target = settings.optDouble(K_TARGET_KEY, 1000.0 / Math.max(1, mFps));
+        int minQuality = settings.optInt(K_MIN_QUALITY_KEY, 40);
+        int minFps = settings.optInt(K_MIN_FPS_KEY, Math.min(mFps, 10));
+        double minScale = settings.optDouble(K_MIN_SCALE_KEY, 0.5);
+        if (target <= 0 || minQuality < 0 || minQuality > 100 || minFps < 1 || minScale <= 0 || minScale > 1) {
+            throw new Exception("Invalid qos settings.");
+        }
+
+        return new QosController(target, mFrameEncoder.getQuality(), mFps, mCaptureWidth, mCaptureHeight, minQuality, minFps, minScale);
+    }
+
+    private void updateQos(PreviewFrame frame) {
+        QosController qos = mQosController;
+        if (qos == null) {
+            return;
+        }
+
+        // Frames superseded in the queue since the previous frame mean the pipeline is behind.
+        long superseded = mFrameMailbox != null ? mFrameMailbox.getSupersededCount() : 0;
+        boolean congested = superseded > mQosSuperseded;
+        mQosSuperseded = superseded;
+
+        if (qos.onFrame(FrameStats.toMillis(frame.getTimings()[FrameStats.TOTAL]), congested)) {
+            applyOperatingPoint(qos.getOperatingPoint());
+        }
+    }
+
+    private void applyOperatingPoint(QosController.OperatingPoint point) {
+        if (LOGGING)
+            Log.i(TAG, "QoS level " + point.getLevel() + " : quality " + point.getQuality() + ", " + point.getFps() + " fps, " + point.getWidth() + "x" + point.getHeight() + ".");
+
+        FrameEncoder encoder = mFrameEncoder;
+        if (point.getQuality() != encoder.getQuality()) {
+            try {
+                mFrameEncoder = FrameEncoders.create(encoder.getName(), encoder.getFormat(), point.getQuality(), encoder.getSubsampling());
+            } catch (Exception e) {
+                if (LOGGING) Log.e(TAG, "Could not change encoding quality : " + e.getMessage());
+            }
+        }
+
+        if (mReplayFile == null && (point.getFps() != getCaptureFps() || point.getWidth() != getCaptureWidth() || point.getHeight() != getCaptureHeight())) {
+            // The options stay as set, the camera restarts with the operating point.
+            mCapturePoint = point;
+            mMainHandler.post(mRestartForOperatingPoint);
+        }
+    }
+
+    private File getReplayFile(String path) {
+        // Accepts cordova-plugin-file native URLs as well as plain paths.
+        if (path.startsWith("file://")) {
+            path = path.substring("file://".length());
+        }
+        return new File(path);
+    }
+
+    private FrameOutput getFrameOutput(JSONObject output) throws Exception {
+        String name = output.getString(K_NAME_KEY);
+        if (name.length() == 0 || Arrays.asList(FILENAMES).contains(name)) {
+            throw new Exception("Invalid output name : " + name + ".");
+        }
+        for (FrameOutput frameOutput : mOutputs) {
+            if (frameOutput.getName().equals(name)) {
+                throw new Exception("Duplicate output name : " + name + ".");
+            }
+        }
+
+        // Encoded like the fullsize image unless told otherwise.
+        String format = output.optString(K_FORMAT_KEY, mFrameEncoder.getFormat()).toLowerCase();
+        int quality = output.optInt(K_QUALITY_KEY, mFrameEncoder.getQuality());
+        FrameEncoder encoder = FrameEncoders.create(mFrameEncoder.getName(), format, quality, mFrameEncoder.getSubsampling());
+
+        return new FrameOutput(name, output.optInt(K_WIDTH_KEY, 0), output.optInt(K_HEIGHT_KEY, 0), output.optDouble(K_RATIO_KEY, 0), encoder);
+    }
+
+    private BlinkDetector getBlinkDetector(Object blink) throws Exception {
+        JSONObject settings;
+        if (blink instanceof JSONObject) {
+            settings = (JSONObject) blink;
+        } else if (Boolean.TRUE.equals(blink)) {
+            settings = new JSONObject();
+        } else {
+            return null;
+        }
+
+        double threshold = settings.optDouble(K_THRESHOLD_KEY, 0.08);
+        long minDuration = settings.optLong(K_MIN_DURATION_KEY, 60);
+        long longDuration = settings.optLong(K_LONG_DURATION_KEY, 500);
+        if (threshold <= 0 || minDuration < 0 || longDuration < minDuration) {
+            throw new Exception("Invalid blink settings.");
+        }
+
+        return new BlinkDetector(threshold, minDuration, longDuration);
+    }
+
+    private void resetDetectors() {
+        // Luma baselines and references do not carry over to another region or camera.
+        BlinkDetector blinkDetector = mBlinkDetector;
+        if (blinkDetector != null) {
+            blinkDetector.reset();
+        }
+        ChangeDetector changeDetector = mChangeDetector;
+        if (changeDetector != null) {
+            changeDetector.reset();
+        }
+    }
+
+    private ChangeDetector getChangeDetector(Object changeDetection) throws Exception {
+        JSONObject settings;
+        if (changeDetection instanceof JSONObject) {
+            settings = (JSONObject) changeDetection;
+        } else if (Boolean.TRUE.equals(changeDetection)) {
+            settings = new JSONObject();
+        } else {
+            return null;
+        }
+
+        double threshold = settings.optDouble(K_THRESHOLD_KEY, 0.02);
+        long maxInterval = settings.optLong(K_MAX_INTERVAL_KEY, 1000);
+        int step = settings.optInt(K_STEP_KEY, 8);
+        if (threshold < 0 || threshold > 1 || maxInterval < 0 || step < 1) {
+            throw new Exception("Invalid change detection settings.");
+        }
+
+        return new ChangeDetector(threshold, maxInterval, step);
+    }
+
+    private int getPipelineSlots(Object pipeline) throws Exception {
+        JSONObject settings;
+        if (pipeline instanceof JSONObject) {
+            settings = (JSONObject) pipeline;
+        } else if (Boolean.TRUE.equals(pipeline)) {
+            settings = new JSONObject();
+        } else {
+            return 0;
+        }
+
+        int slots = settings.optInt(K_SLOTS_KEY, 3);
+        if (slots < 1) {
+            throw new Exception("Invalid pipeline slot count : " + slots);
+        }
+
+        return slots;
+    }
+
+    private double[] getRegionOfInterest(JSONObject roi) throws Exception {
+        if (roi == null) {
+            return null;
+        }
+
+        double x = roi.optDouble(K_X_KEY, 0);
+        double y = roi.optDouble(K_Y_KEY, 0);
+        double width = roi.optDouble(K_WIDTH_KEY, 1 - x);
+        double height = roi.optDouble(K_HEIGHT_KEY, 1 - y);
+
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > 1 || y + height > 1) {
+            throw new Exception("Invalid region of interest, x, y, width and height must be normalized.");
+        }
+
+        return new double[]{x, y, width, height};
     }
 
     private JSONObject getPluginResultMessage(String message) {
@@ -1259,213 +2799,520 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
     }
 
     private JSONObject getPluginResultMessage(String message, JSONObject output) {
+        QosController qos = mQosController;
+        return FrameResult.getMessage(message, getResultOptions(), getResultPreview(), qos != null ? getQosDescription(qos) : null, output);
+    }
 
-        JSONObject pluginResultMessage = new JSONObject();
+    // data.options of the result messages.
+    private JSONObject getResultOptions() {
+        JSONObject options = new JSONObject();
 
         try {
-            pluginResultMessage.put("message", message);
+            options.put("width", mWidth);
         } catch (JSONException e) {
-            if (LOGGING) Log.e(TAG, "Cannot put data.message into JSON result : " + e.getMessage());
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.width into JSON result : " + e.getMessage());
         }
 
-        JSONObject options = new JSONObject();
+        try {
+            options.put("height", mHeight);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.height into JSON result : " + e.getMessage());
+        }
 
         try {
-            pluginResultMessage.put("options", options);
+            options.put("fps", mFps);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.fps into JSON result : " + e.getMessage());
+        }
 
-            try {
-                options.put("width", mWidth);
-            } catch (JSONException e) {
-                if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.width into JSON result : " + e.getMessage());
-            }
+        try {
+            options.put("flashMode", getFlashModeAsBoolean(mFlashMode));
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.flashMode into JSON result : " + e.getMessage());
+        }
 
-            try {
-                options.put("height", mHeight);
-            } catch (JSONException e) {
-                if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.height into JSON result : " + e.getMessage());
-            }
+        try {
+            options.put("cameraFacing", getCameraFacingToString(mCameraFacing));
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.cameraFacing into JSON result : " + e.getMessage());
+        }
 
-            try {
-                options.put("fps", mFps);
-            } catch (JSONException e) {
-                if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.fps into JSON result : " + e.getMessage());
+        try {
+            options.put("hasThumbnail", mHasThumbnail);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.hasThumbnail into JSON result : " + e.getMessage());
+        }
+
+        try {
+            options.put("thumbnailRatio", mThumbnailRatio);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.thumbnailRatio into JSON result : " + e.getMessage());
+        }
+
+        try {
+            options.put("pixelFormat", mPixelFormat);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.pixelFormat into JSON result : " + e.getMessage());
+        }
+
+        try {
+            options.put("binary", mBinary);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.binary into JSON result : " + e.getMessage());
+        }
+
+        try {
+            options.put("cameraApi", mCameraApi);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.cameraApi into JSON result : " + e.getMessage());
+        }
+
+        JSONArray processors = new JSONArray();
+        for (FrameProcessor processor : mOptionFrameProcessors) {
+            if (processor != mBlinkDetector) {
+                processors.put(processor.getClass().getName());
             }
+        }
+
+        try {
+            options.put("processors", processors);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.processors into JSON result : " + e.getMessage());
+        }
+
+        try {
+            options.put("timings", mTimings);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.timings into JSON result : " + e.getMessage());
+        }
+
+        JSONArray outputs = new JSONArray();
+        for (FrameOutput frameOutput : mOutputs) {
+            outputs.put(frameOutput.getName());
+        }
+
+        try {
+            options.put("outputs", outputs);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.outputs into JSON result : " + e.getMessage());
+        }
+
+        JSONObject encoder = new JSONObject();
+
+        try {
+            options.put("encoder", encoder);
 
             try {
-                options.put("flashMode", getFlashModeAsBoolean(mFlashMode));
+                encoder.put("name", mFrameEncoder.getName());
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.flashMode into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.options.encoder.name into JSON result : " + e.getMessage());
             }
 
             try {
-                options.put("cameraFacing", getCameraFacingToString(mCameraFacing));
+                encoder.put("format", mFrameEncoder.getFormat());
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.cameraFacing into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.options.encoder.format into JSON result : " + e.getMessage());
             }
 
             try {
-                options.put("hasThumbnail", mHasThumbnail);
+                encoder.put("quality", mFrameEncoder.getQuality());
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.hasThumbnail into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.options.encoder.quality into JSON result : " + e.getMessage());
             }
 
             try {
-                options.put("thumbnailRatio", mThumbnailRatio);
+                encoder.put("subsampling", mFrameEncoder.getSubsampling());
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.thumbnailRatio into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.options.encoder.subsampling into JSON result : " + e.getMessage());
             }
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.encoder into JSON result : " + e.getMessage());
+        }
 
-            JSONObject canvas = new JSONObject();
+        BlinkDetector blinkDetector = mBlinkDetector;
+        if (blinkDetector != null) {
+            JSONObject blink = new JSONObject();
 
             try {
-                options.put("canvas", canvas);
+                options.put("blink", blink);
 
                 try {
-                    canvas.put("width", mCanvasWidth);
+                    blink.put("threshold", blinkDetector.getThreshold());
                 } catch (JSONException e) {
                     if (LOGGING)
-                        Log.e(TAG, "Cannot put data.options.canvas.width into JSON result : " + e.getMessage());
+                        Log.e(TAG, "Cannot put data.options.blink.threshold into JSON result : " + e.getMessage());
                 }
 
                 try {
-                    canvas.put("height", mCanvasHeight);
+                    blink.put("minDuration", blinkDetector.getMinDuration());
                 } catch (JSONException e) {
                     if (LOGGING)
-                        Log.e(TAG, "Cannot put data.options.canvas.height into JSON result : " + e.getMessage());
+                        Log.e(TAG, "Cannot put data.options.blink.minDuration into JSON result : " + e.getMessage());
                 }
 
+                try {
+                    blink.put("longDuration", blinkDetector.getLongDuration());
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.options.blink.longDuration into JSON result : " + e.getMessage());
+                }
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.canvas into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.options.blink into JSON result : " + e.getMessage());
             }
+        }
 
-            JSONObject capture = new JSONObject();
+        double[] regionOfInterest = mRegionOfInterest;
+        if (regionOfInterest != null) {
+            JSONObject roi = new JSONObject();
 
             try {
-                options.put("capture", capture);
+                options.put("roi", roi);
+
+                try {
+                    roi.put("x", regionOfInterest[0]);
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.options.roi.x into JSON result : " + e.getMessage());
+                }
+
+                try {
+                    roi.put("y", regionOfInterest[1]);
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.options.roi.y into JSON result : " + e.getMessage());
+                }
 
                 try {
-                    capture.put("width", mCaptureWidth);
+                    roi.put("width", regionOfInterest[2]);
                 } catch (JSONException e) {
                     if (LOGGING)
-                        Log.e(TAG, "Cannot put data.options.capture.width into JSON result : " + e.getMessage());
+                        Log.e(TAG, "Cannot put data.options.roi.width into JSON result : " + e.getMessage());
                 }
 
                 try {
-                    capture.put("height", mCaptureHeight);
+                    roi.put("height", regionOfInterest[3]);
                 } catch (JSONException e) {
                     if (LOGGING)
-                        Log.e(TAG, "Cannot put data.options.capture.width into JSON result : " + e.getMessage());
+                        Log.e(TAG, "Cannot put data.options.roi.height into JSON result : " + e.getMessage());
                 }
 
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.options.capture into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.options.roi into JSON result : " + e.getMessage());
+            }
+        }
+
+        JSONObject canvas = new JSONObject();
+
+        try {
+            options.put("canvas", canvas);
+
+            try {
+                canvas.put("width", mCanvasWidth);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.options.canvas.width into JSON result : " + e.getMessage());
+            }
+
+            try {
+                canvas.put("height", mCanvasHeight);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.options.canvas.height into JSON result : " + e.getMessage());
             }
 
         } catch (JSONException e) {
-            if (LOGGING) Log.e(TAG, "Cannot put data.options into JSON result : " + e.getMessage());
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.canvas into JSON result : " + e.getMessage());
         }
 
-        JSONObject preview = new JSONObject();
+        JSONObject capture = new JSONObject();
 
         try {
-            pluginResultMessage.put("preview", preview);
+            options.put("capture", capture);
+
+            try {
+                capture.put("width", mCaptureWidth);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.options.capture.width into JSON result : " + e.getMessage());
+            }
 
             try {
-                preview.put("started", mPreviewing);
+                capture.put("height", mCaptureHeight);
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.preview.started into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.options.capture.width into JSON result : " + e.getMessage());
             }
+
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.options.capture into JSON result : " + e.getMessage());
+        }
+
+        return options;
+    }
+
+    // data.preview of the result messages.
+    private JSONObject getResultPreview() {
+        JSONObject preview = new JSONObject();
+
+        try {
+            preview.put("started", mPreviewing);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.preview.started into JSON result : " + e.getMessage());
+        }
+        try {
+            preview.put("format", getPreviewFormatToString(mPreviewFormat));
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.preview.format into JSON result : " + e.getMessage());
+        }
+        try {
+            preview.put("focusMode", mPreviewFocusMode);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.preview.focusMode into JSON result : " + e.getMessage());
+        }
+        Camera2Backend camera2 = mCamera2;
+        FrameSource frameSource = mFrameSource;
+        if (frameSource != null) {
             try {
-                preview.put("format", getPreviewFormatToString(mPreviewFormat));
+                preview.put("width", frameSource.getWidth());
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.preview.format into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.preview.width into JSON result : " + e.getMessage());
             }
+
             try {
-                preview.put("focusMode", mPreviewFocusMode);
+                preview.put("height", frameSource.getHeight());
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.preview.focusMode into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.preview.height into JSON result : " + e.getMessage());
             }
-            if (mPreviewSize != null) {
+
+            if (camera2 != null) {
                 try {
-                    preview.put("width", mPreviewSize.width);
+                    preview.put("maxImages", camera2.getMaxImages());
                 } catch (JSONException e) {
                     if (LOGGING)
-                        Log.e(TAG, "Cannot put data.preview.width into JSON result : " + e.getMessage());
+                        Log.e(TAG, "Cannot put data.preview.maxImages into JSON result : " + e.getMessage());
                 }
+            }
+        } else if (mPreviewSize != null) {
+            try {
+                preview.put("width", mPreviewSize.width);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.preview.width into JSON result : " + e.getMessage());
+            }
+
+            try {
+                preview.put("height", mPreviewSize.height);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.preview.height into JSON result : " + e.getMessage());
+            }
+        }
+
+        try {
+            preview.put("cameraApi", frameSource instanceof Nv21FileSource ? CAMERA_API_REPLAY : (camera2 != null ? CAMERA_API_CAMERA2 : CAMERA_API_CAMERA));
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.preview.cameraApi into JSON result : " + e.getMessage());
+        }
+
+        if (mBufferPool != null) {
+            JSONObject buffers = new JSONObject();
+
+            try {
+                preview.put("buffers", buffers);
 
                 try {
-                    preview.put("height", mPreviewSize.height);
+                    buffers.put("size", mBufferPool.getSize());
                 } catch (JSONException e) {
                     if (LOGGING)
-                        Log.e(TAG, "Cannot put data.preview.height into JSON result : " + e.getMessage());
+                        Log.e(TAG, "Cannot put data.preview.buffers.size into JSON result : " + e.getMessage());
                 }
-            }
 
-            JSONObject camera = new JSONObject();
+                try {
+                    buffers.put("inFlight", mBufferPool.getInFlightCount());
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.preview.buffers.inFlight into JSON result : " + e.getMessage());
+                }
 
-            try {
-                preview.put("camera", camera);
+                try {
+                    buffers.put("reused", mBufferPool.getReusedCount());
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.preview.buffers.reused into JSON result : " + e.getMessage());
+                }
 
                 try {
-                    camera.put("id", mCameraId);
+                    buffers.put("starved", mBufferPool.getStarvedCount());
                 } catch (JSONException e) {
                     if (LOGGING)
-                        Log.e(TAG, "Cannot put data.preview.camera.id into JSON result : " + e.getMessage());
+                        Log.e(TAG, "Cannot put data.preview.buffers.starved into JSON result : " + e.getMessage());
                 }
 
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.preview.camera into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.preview.buffers into JSON result : " + e.getMessage());
             }
+        }
 
-            JSONObject fps = new JSONObject();
+        if (mFrameMailbox != null) {
+            JSONObject frames = new JSONObject();
 
             try {
-                preview.put("fps", fps);
+                preview.put("frames", frames);
 
-                if (mPreviewFpsRange != null) {
-                    try {
-                        fps.put("min", mPreviewFpsRange[0] / 1000);
-                    } catch (JSONException e) {
-                        if (LOGGING)
-                            Log.e(TAG, "Cannot put data.preview.fps.min into JSON result : " + e.getMessage());
-                    }
-                    try {
-                        fps.put("max", mPreviewFpsRange[1] / 1000);
-                    } catch (JSONException e) {
-                        if (LOGGING)
-                            Log.e(TAG, "Cannot put data.preview.fps.max into JSON result : " + e.getMessage());
-                    }
+                try {
+                    frames.put("processed", mFrameMailbox.getProcessedCount());
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.preview.frames.processed into JSON result : " + e.getMessage());
+                }
+
+                try {
+                    frames.put("superseded", mFrameMailbox.getSupersededCount());
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.preview.frames.superseded into JSON result : " + e.getMessage());
+                }
+
+                try {
+                    frames.put("dropped", mFrameMailbox.getDroppedCount());
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.preview.frames.dropped into JSON result : " + e.getMessage());
                 }
 
             } catch (JSONException e) {
                 if (LOGGING)
-                    Log.e(TAG, "Cannot put data.preview.fps into JSON result : " + e.getMessage());
+                    Log.e(TAG, "Cannot put data.preview.frames into JSON result : " + e.getMessage());
+            }
+        }
+
+        JSONObject camera = new JSONObject();
+
+        try {
+            preview.put("camera", camera);
+
+            try {
+                camera.put("id", mCameraId);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.preview.camera.id into JSON result : " + e.getMessage());
+            }
+
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.preview.camera into JSON result : " + e.getMessage());
+        }
+
+        JSONObject fps = new JSONObject();
+
+        try {
+            preview.put("fps", fps);
+
+            if (mPreviewFpsRange != null) {
+                try {
+                    fps.put("min", mPreviewFpsRange[0] / 1000);
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.preview.fps.min into JSON result : " + e.getMessage());
+                }
+                try {
+                    fps.put("max", mPreviewFpsRange[1] / 1000);
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.preview.fps.max into JSON result : " + e.getMessage());
+                }
             }
 
         } catch (JSONException e) {
-            if (LOGGING) Log.e(TAG, "Cannot put data.preview into JSON result : " + e.getMessage());
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.preview.fps into JSON result : " + e.getMessage());
+        }
+
+        return preview;
+    }
+
+    private JSONObject getQosDescription(QosController qos) {
+        JSONObject description = new JSONObject();
+        QosController.OperatingPoint point = qos.getOperatingPoint();
+
+        try {
+            description.put("level", point.getLevel());
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.level into JSON result : " + e.getMessage());
+        }
+
+        try {
+            description.put("levels", qos.getLevelCount());
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.levels into JSON result : " + e.getMessage());
+        }
+
+        try {
+            description.put("quality", point.getQuality());
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.quality into JSON result : " + e.getMessage());
+        }
+
+        try {
+            description.put("fps", point.getFps());
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.fps into JSON result : " + e.getMessage());
+        }
+
+        try {
+            description.put("width", point.getWidth());
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.width into JSON result : " + e.getMessage());
+        }
+
+        try {
+            description.put("height", point.getHeight());
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.height into JSON result : " + e.getMessage());
+        }
+
+        try {
+            description.put("target", qos.getTarget());
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.target into JSON result : " + e.getMessage());
         }
 
         try {
-            pluginResultMessage.put("output", output);
+            description.put("latency", qos.getLatency());
         } catch (JSONException e) {
-            if (LOGGING) Log.e(TAG, "Cannot put data.output into JSON result : " + e.getMessage());
+            if (LOGGING) Log.e(TAG, "Cannot put data.qos.latency into JSON result : " + e.getMessage());
         }
 
-        return pluginResultMessage;
+        return description;
     }
 
     private int getCameraFacing(String option) {
@@ -1560,12 +3407,66 @@ public class CanvasCamera extends CordovaPlugin implements CanvasCameraInterface
         }
     }
 
+    // One frame going through the convert, encode and deliver stages, with
+    // the buffers it is rendered into. Slots are preallocated and owned by
+    // one stage at a time, buffers are kept when the slot is cleared.
+    private static class RenderSlot {
+        private final PreviewFramePool mFramePool;
+        private PreviewFrame mFrame = null;
+        private JSONObject mOutput = null;
+        private int mDisplayOrientation = 0;
+        private FrameTransform mTransform = null;
+        // Time the previous stage ended, for the queue mark of the next one.
+        private long mTime = 0;
+        private boolean mFailed = false;
+        // Completed by a frame processor, only the output is delivered.
+        private boolean mComplete = false;
+
+        // Transformed preview bytes, or null on the bitmap path.
+        private byte[] mTransformed = null;
+        private byte[] mTransformBuffer = null;
+        // Raw pixels, copied into the envelope or the mapped ring before the slot is reused.
+        private byte[] mRawBuffer = null;
+        // Intermediate jpeg of preview formats going through bitmaps.
+        private final FrameByteStream mJpeg = new FrameByteStream();
+
+        private byte[] mFullsizeData = null;
+        private final int[] mFullsizeSize = new int[2];
+        private final int[] mEncodeCrop = new int[4];
+        // Thumbnail and additional outputs, refilled for every frame.
+        private final ScaledImages mScaledImages = new ScaledImages();
+        private final int[] mOutputSize = new int[2];
+        // Output file slots of the frame.
+        private final Map<String, FrameFileRing.Slot> mFiles = new HashMap<String, FrameFileRing.Slot>();
+
+        private RenderSlot(PreviewFramePool framePool) {
+            mFramePool = framePool;
+        }
+
+        private void clear() {
+            mFramePool.recycle(mFrame);
+            mFrame = null;
+            mOutput = null;
+            mTransform = null;
+            mTime = 0;
+            mFailed = false;
+            mComplete = false;
+            mTransformed = null;
+            mFullsizeData = null;
+            mFullsizeSize[0] = 0;
+            mFullsizeSize[1] = 0;
+            mScaledImages.clear();
+            mFiles.clear();
+        }
+    }
+
     private static class CameraHandlerThread extends HandlerThread {
         private Camera mCamera = null;
         private Handler mHandler = null;
 
         CameraHandlerThread() {
-            super("CameraHandlerThread");
+            // Preview callbacks are delivered on this thread.
+            super("CameraHandlerThread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
             start();
             mHandler = new Handler(getLooper());
         }
@@ -0,0 +1,120 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.ImageFormat;
+
+// Change gate run before any scaling or encoding : the luma of the frame crop
+// is sampled on a coarse grid and compared to the samples of the last emitted
+// frame (mean absolute difference, 0 to 1). Frames under the threshold are
+// skipped, unless nothing was emitted for maxInterval milliseconds, so that
+// consumers still get a heartbeat while the scene stays still.
+public class ChangeDetector {
+
+    private final double mThreshold;
+    private final long mMaxInterval;
+    private final int mStep;
+
+    private byte[] mSamples = new byte[0];
+    private byte[] mLastSamples = new byte[0];
+    private int mLastCount = -1;
+    private long mLastEmitted = 0;
+    private double mDifference = 1;
+
+    private long mEmitted = 0;
+    private long mSkipped = 0;
+
+    public ChangeDetector(double threshold, long maxInterval, int step) {
+        mThreshold = threshold;
+        mMaxInterval = maxInterval;
+        mStep = Math.max(1, step);
+    }
+
+    public double getThreshold() {
+        return mThreshold;
+    }
+
+    public long getMaxInterval() {
+        return mMaxInterval;
+    }
+
+    public int getStep() {
+        return mStep;
+    }
+
+    public synchronized long getEmittedCount() {
+        return mEmitted;
+    }
+
+    public synchronized long getSkippedCount() {
+        return mSkipped;
+    }
+
+    // Difference measured on the last frame, 1 when it could not be compared.
+    public synchronized double getDifference() {
+        return mDifference;
+    }
+
+    // Forgets the last emitted frame, the next frame is always emitted.
+    public synchronized void reset() {
+        mLastCount = -1;
+        mDifference = 1;
+    }
+
+    public synchronized boolean isChanged(PreviewFrame frame) {
+        if (frame.getFormat() != ImageFormat.NV21 && frame.getFormat() != ImageFormat.YV12) {
+            // No luma plane to compare.
+            mEmitted++;
+            return true;
+        }
+
+        int count = sample(frame);
+
+        mDifference = 1;
+        if (count == mLastCount && count > 0) {
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += Math.abs((mSamples[i] & 0xff) - (mLastSamples[i] & 0xff));
+            }
+            mDifference = sum / (count * 255.0);
+        }
+
+        long timestamp = frame.getTimestamp();
+        if (mDifference < mThreshold && timestamp - mLastEmitted < mMaxInterval) {
+            mSkipped++;
+            return false;
+        }
+
+        // The emitted frame becomes the reference, buffers are swapped, not copied.
+        byte[] samples = mLastSamples;
+        mLastSamples = mSamples;
+        mSamples = samples;
+        mLastCount = count;
+        mLastEmitted = timestamp;
+        mEmitted++;
+        return true;
+    }
+
+    private int sample(PreviewFrame frame) {
+        byte[] data = frame.getData();
+        int width = frame.getWidth();
+        int[] crop = frame.getCrop();
+
+        int columns = (crop[2] + mStep - 1) / mStep;
+        int rows = (crop[3] + mStep - 1) / mStep;
+        int count = columns * rows;
+        if (mSamples.length < count) {
+            mSamples = new byte[count];
+        }
+
+        int i = 0;
+        int bottom = crop[1] + crop[3];
+        int right = crop[0] + crop[2];
+        for (int y = crop[1]; y < bottom; y += mStep) {
+            int offset = y * width;
+            for (int x = crop[0]; x < right; x += mStep) {
+                mSamples[i++] = data[offset + x];
+            }
+        }
+
+        return count;
+    }
+}
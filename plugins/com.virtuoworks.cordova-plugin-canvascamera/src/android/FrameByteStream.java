@@ -0,0 +1,26 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.io.ByteArrayOutputStream;
+
+// Growable output stream kept from one frame to the next : reset() keeps the
+// backing array, which is handed out as is with getBuffer() and size() for
+// consumers reading an (array, length) pair, instead of a toByteArray() copy.
+public class FrameByteStream extends ByteArrayOutputStream {
+
+    public FrameByteStream() {
+        super();
+    }
+
+    public FrameByteStream(int size) {
+        super(size);
+    }
+
+    // Backing array, valid up to size() and until the next write or reset.
+    public synchronized byte[] getBuffer() {
+        return buf;
+    }
+
+    public synchronized int getCapacity() {
+        return buf.length;
+    }
+}
@@ -0,0 +1,36 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.Bitmap;
+
+public interface FrameEncoder {
+    public static final String JPEG = "jpeg";
+    public static final String PNG = "png";
+    public static final String WEBP = "webp";
+
+    // The only chroma subsampling the framework encoders produce, 4:2:2 and
+    // 4:4:4 are for the java encoder.
+    public static final String SUBSAMPLING_420 = "420";
+    public static final String SUBSAMPLING_422 = "422";
+    public static final String SUBSAMPLING_444 = "444";
+
+    // Name the encoder factory is registered under, see FrameEncoders.
+    public String getName();
+
+    public String getFormat();
+
+    public int getQuality();
+
+    public String getSubsampling();
+
+    public String getMimeType();
+
+    public String getExtension();
+
+    // Encodes the crop (left, top, width, height) of a preview frame in the
+    // given ImageFormat, returns an empty array when the frame can't be encoded.
+    public byte[] encode(byte[] data, int imageFormat, int width, int height, int[] crop);
+
+    // Encodes a bitmap, the bitmap is not recycled.
+    public byte[] encode(Bitmap bitmap);
+
+}
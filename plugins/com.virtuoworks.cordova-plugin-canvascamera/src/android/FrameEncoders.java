@@ -0,0 +1,56 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registry of frame encoder factories. The framework encoder is always
+// available as "android" and the plain Java JPEG encoder as "java", other
+// implementations register themselves under their own name and are selected
+// with the encoder.name option.
+public class FrameEncoders {
+    public static final String ANDROID = "android";
+    public static final String JAVA = "java";
+
+    public interface Factory {
+        // Throws when the format, quality or subsampling is not supported.
+        FrameEncoder create(String format, int quality, String subsampling) throws Exception;
+    }
+
+    private static final Map<String, Factory> sFactories = new ConcurrentHashMap<String, Factory>();
+
+    static {
+        register(ANDROID, new Factory() {
+            @Override
+            public FrameEncoder create(String format, int quality, String subsampling) throws Exception {
+                return new BitmapFrameEncoder(format, quality, subsampling);
+            }
+        });
+        register(JAVA, new Factory() {
+            @Override
+            public FrameEncoder create(String format, int quality, String subsampling) throws Exception {
+                return new JavaJpegEncoder(format, quality, subsampling);
+            }
+        });
+    }
+
+    private FrameEncoders() {}
+
+    public static void register(String name, Factory factory) {
+        sFactories.put(name, factory);
+    }
+
+    public static boolean isRegistered(String name) {
+        return sFactories.containsKey(name);
+    }
+
+    public static FrameEncoder create(String name, String format, int quality, String subsampling) throws Exception {
+        Factory factory = sFactories.get(name);
+        if (factory == null) {
+            throw new Exception("Unknown frame encoder : " + name);
+        }
+        if (quality < 0 || quality > 100) {
+            throw new Exception("Invalid encoder quality : " + quality);
+        }
+        return factory.create(format, quality, subsampling);
+    }
+}
@@ -0,0 +1,99 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Little endian frame envelope, decoded by CanvasCamera.prototype.decodeFrame.
+//
+//  offset  size  field
+//       0     4  magic, "CCFE"
+//       4     1  version
+//       5     1  header length, payload starts right after the header
+//       6     1  format, see FORMAT_* constants
+//       7     1  orientation, see ORIENTATION_* constants
+//       8     4  sequence number
+//      12     2  rotation in degrees
+//      14     2  flags, see FLAG_* constants
+//      16     8  capture timestamp, milliseconds since epoch (float64)
+//      24     8  send timestamp, milliseconds since epoch (float64)
+//      32     4  width in pixels
+//      36     4  height in pixels
+//      40     4  stride in bytes (raw formats only)
+//      44     4  payload length in bytes
+public class FrameEnvelope {
+    public static final int MAGIC = 0x45464343;
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 48;
+
+    public static final int FORMAT_JPEG = 1;
+    public static final int FORMAT_GRAY8 = 2;
+    public static final int FORMAT_RGB888 = 3;
+    public static final int FORMAT_RGBA8888 = 4;
+    public static final int FORMAT_FILE = 5;
+    public static final int FORMAT_PNG = 6;
+    public static final int FORMAT_WEBP = 7;
+
+    public static final int ORIENTATION_UNKNOWN = 0;
+    public static final int ORIENTATION_PORTRAIT = 1;
+    public static final int ORIENTATION_LANDSCAPE = 2;
+
+    public static final int FLAG_MIRRORED = 1;
+
+    private FrameEnvelope() {}
+
+    public static int getPixelFormat(String pixelFormat) {
+        if (Nv21Converter.GRAY8.equals(pixelFormat)) {
+            return FORMAT_GRAY8;
+        } else if (Nv21Converter.RGB888.equals(pixelFormat)) {
+            return FORMAT_RGB888;
+        } else {
+            return FORMAT_RGBA8888;
+        }
+    }
+
+    public static int getImageFormat(String format) {
+        if (FrameEncoder.PNG.equals(format)) {
+            return FORMAT_PNG;
+        } else if (FrameEncoder.WEBP.equals(format)) {
+            return FORMAT_WEBP;
+        } else {
+            return FORMAT_JPEG;
+        }
+    }
+
+    public static int getOrientation(String orientation) {
+        if ("portrait".equals(orientation)) {
+            return ORIENTATION_PORTRAIT;
+        } else if ("landscape".equals(orientation)) {
+            return ORIENTATION_LANDSCAPE;
+        } else {
+            return ORIENTATION_UNKNOWN;
+        }
+    }
+
+    public static byte[] encode(long sequence, long captureTimestamp, long sendTimestamp, int rotation, int orientation, int flags,
+                                int width, int height, int stride, int format, byte[] payload) {
+        byte[] envelope = new byte[HEADER_LENGTH + payload.length];
+        ByteBuffer buffer = ByteBuffer.wrap(envelope).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) HEADER_LENGTH);
+        buffer.put((byte) format);
+        buffer.put((byte) orientation);
+        buffer.putInt((int) sequence);
+        buffer.putShort((short) rotation);
+        buffer.putShort((short) flags);
+        buffer.putDouble((double) captureTimestamp);
+        buffer.putDouble((double) sendTimestamp);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(stride);
+        buffer.putInt(payload.length);
+
+        buffer.position(HEADER_LENGTH);
+        buffer.put(payload);
+
+        return envelope;
+    }
+}
@@ -0,0 +1,96 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Worker thread owned by the plugin, so that frame rendering does not wait
+// in the Cordova thread pool queue behind other plugins (file I/O...), and so
+// that shutting it down does not affect them. A single thread renders frames
+// one at a time, in the order they were queued, the pipeline adds its own
+// stage threads. The thread is named and runs at an Android thread priority
+// (nice value, -20 to 19) that can be changed while running, it times out
+// when idle.
+public class FrameExecutor extends ThreadPoolExecutor {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static class WorkerThread extends Thread {
+        // Android priority applied to the thread, read and written by the thread itself.
+        private int mPriority = Process.THREAD_PRIORITY_DEFAULT;
+
+        WorkerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    private final String mName;
+    private volatile int mPriority;
+
+    public FrameExecutor(final String name, int priority) {
+        super(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mName = name;
+        mPriority = priority;
+        allowCoreThreadTimeOut(true);
+        setThreadFactory(new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                return new WorkerThread(runnable, name + "-" + (++mCount));
+            }
+        });
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public void setPriority(int priority) {
+        // Picked up by the thread before its next task.
+        mPriority = priority;
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        super.beforeExecute(thread, runnable);
+        if (thread instanceof WorkerThread) {
+            WorkerThread worker = (WorkerThread) thread;
+            int priority = mPriority;
+            if (worker.mPriority != priority) {
+                try {
+                    Process.setThreadPriority(priority);
+                    worker.mPriority = priority;
+                } catch (Exception e) {
+                    if (LOGGING) Log.w(TAG, "Could not set " + thread.getName() + " priority : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Lets queued and running tasks complete for up to timeout milliseconds,
+    // then interrupts them. Returns true when every thread has ended.
+    public boolean close(long timeout) {
+        shutdown();
+        try {
+            if (awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shutdownNow();
+        if (LOGGING) Log.w(TAG, mName + " threads did not end within " + timeout + "ms.");
+        return isTerminated();
+    }
+}
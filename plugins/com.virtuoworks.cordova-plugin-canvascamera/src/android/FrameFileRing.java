@@ -0,0 +1,167 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Fixed ring of frame files, opened once and overwritten in place with
+// positional writes, so no file is created or deleted while capturing.
+// A slot is rewritten every getSize() frames, its generation tells readers
+// which frame it currently holds.
+public class FrameFileRing {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    // One per file, handed out again with the next generation when the ring
+    // wraps around, by which time the frame it held is gone anyway.
+    public static class Slot {
+        private final FrameFileRing mRing;
+        private final int mIndex;
+        private final File mFile;
+        private volatile long mGeneration;
+
+        Slot(FrameFileRing ring, int index, File file) {
+            mRing = ring;
+            mIndex = index;
+            mFile = file;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        // Incremented for every frame written to the ring.
+        public long getGeneration() {
+            return mGeneration;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public boolean write(byte[] bytes) {
+            return mRing.write(this, bytes);
+        }
+    }
+
+    private final File mDir;
+    private final String mPrefix;
+    private final String mSuffix;
+    private final String mExtension;
+    private final File[] mFiles;
+    private final Slot[] mSlots;
+    private final FileChannel[] mChannels;
+    private final long[] mLengths;
+
+    private long mGeneration = 0;
+    private boolean mClosed = false;
+
+    public FrameFileRing(File dir, String prefix, String suffix, String extension, int size) {
+        mDir = dir;
+        mPrefix = prefix;
+        mSuffix = suffix;
+        mExtension = extension;
+        mFiles = new File[Math.max(1, size)];
+        mChannels = new FileChannel[mFiles.length];
+        mLengths = new long[mFiles.length];
+        mSlots = new Slot[mFiles.length];
+
+        for (int i = 0; i < mFiles.length; i++) {
+            mFiles[i] = new File(mDir, mPrefix + i + "-" + mSuffix + "." + mExtension);
+            mSlots[i] = new Slot(this, i, mFiles[i]);
+        }
+    }
+
+    public int getSize() {
+        return mFiles.length;
+    }
+
+    public String getExtension() {
+        return mExtension;
+    }
+
+    public synchronized Slot next() {
+        long generation = mGeneration++;
+        int index = (int) (generation % mFiles.length);
+        Slot slot = mSlots[index];
+        slot.mGeneration = generation;
+        return slot;
+    }
+
+    // Overwrites the slot file, only shrinking it when the new frame is
+    // shorter than the previous one.
+    public boolean write(Slot slot, byte[] bytes) {
+        if (slot == null || bytes.length == 0) {
+            return false;
+        }
+
+        int index = slot.getIndex();
+
+        // One writer per slot, frames written concurrently land in different slots.
+        synchronized (mFiles[index]) {
+            try {
+                FileChannel channel = getChannel(index);
+                if (channel == null) {
+                    return false;
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                long position = 0;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+
+                if (mLengths[index] > bytes.length) {
+                    channel.truncate(bytes.length);
+                }
+                mLengths[index] = bytes.length;
+
+                return true;
+            } catch (IOException e) {
+                if (LOGGING) Log.e(TAG, "Could not write frame file slot " + index + " : " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    // Closes every slot file, files stay on disk.
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+
+        for (int i = 0; i < mFiles.length; i++) {
+            synchronized (mFiles[i]) {
+                if (mChannels[i] != null) {
+                    try {
+                        mChannels[i].close();
+                    } catch (IOException e) {
+                        if (LOGGING)
+                            Log.e(TAG, "Could not close frame file slot " + i + " : " + e.getMessage());
+                    }
+                    mChannels[i] = null;
+                }
+            }
+        }
+    }
+
+    private FileChannel getChannel(int index) throws IOException {
+        synchronized (this) {
+            if (mClosed) {
+                return null;
+            }
+        }
+
+        if (mChannels[index] == null) {
+            RandomAccessFile file = new RandomAccessFile(mFiles[index], "rw");
+            mChannels[index] = file.getChannel();
+            mLengths[index] = mChannels[index].size();
+        }
+
+        return mChannels[index];
+    }
+}
@@ -0,0 +1,121 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+// Frame size arithmetic shared by both camera backends and the renderers,
+// plain java so that it runs (and can be measured) off device.
+public class FrameGeometry {
+
+    private FrameGeometry() {}
+
+    private static final double ASPECT_TOLERANCE = 0.1;
+
+    // Index of the (width, height) size to capture with : closest height
+    // with a matching aspect ratio, closest height otherwise, -1 when there
+    // is no size at all.
+    public static int getOptimalSizeIndex(int[][] sizes, int captureWidth, int captureHeight) {
+        if (sizes == null) return -1;
+
+        double targetRatio = (double) captureWidth / captureHeight;
+
+        int optimalIndex = -1;
+        double minDiff = Double.MAX_VALUE;
+
+        // Try to find an size match aspect ratio and size
+        for (int i = 0; i < sizes.length; i++) {
+            double ratio = (double) sizes[i][0] / sizes[i][1];
+            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
+            if (Math.abs(sizes[i][1] - captureHeight) < minDiff) {
+                optimalIndex = i;
+                minDiff = Math.abs(sizes[i][1] - captureHeight);
+            }
+        }
+
+        // Cannot find the one match the aspect ratio, ignore the requirement
+        if (optimalIndex < 0) {
+            minDiff = Double.MAX_VALUE;
+            for (int i = 0; i < sizes.length; i++) {
+                if (Math.abs(sizes[i][1] - captureHeight) < minDiff) {
+                    optimalIndex = i;
+                    minDiff = Math.abs(sizes[i][1] - captureHeight);
+                }
+            }
+        }
+
+        return optimalIndex;
+    }
+
+    // Highest (lower, upper) fps range not going over fps, preferring fixed
+    // rates, the slowest range when every range goes over. Returns the range
+    // in thousandths of frames per second, like android.hardware.Camera,
+    // fps itself when there is no range at all.
+    public static int[] getOptimalFpsRange(int[][] ranges, int fps) {
+        int[] optimalRange = new int[]{fps * 1000, fps * 1000};
+        if (ranges == null || ranges.length == 0) {
+            return optimalRange;
+        }
+
+        int[] best = null;
+        int[] slowest = null;
+        for (int[] range : ranges) {
+            if (slowest == null || range[1] < slowest[1]) {
+                slowest = range;
+            }
+            if (range[1] <= fps) {
+                if (best == null || range[1] > best[1] || (range[1] == best[1] && range[0] > best[0])) {
+                    best = range;
+                }
+            }
+        }
+
+        if (best == null) {
+            best = slowest;
+        }
+
+        optimalRange[0] = best[0] * 1000;
+        optimalRange[1] = best[1] * 1000;
+        return optimalRange;
+    }
+
+    public static int[] calculateAspectRatio(int origWidth, int origHeight, int targetWidth, int targetHeight) {
+        return calculateAspectRatio(origWidth, origHeight, targetWidth, targetHeight, new int[2]);
+    }
+
+    // Same as above, written to size and returned.
+    public static int[] calculateAspectRatio(int origWidth, int origHeight, int targetWidth, int targetHeight, int[] size) {
+        int newWidth = targetWidth;
+        int newHeight = targetHeight;
+
+        // If no new width or height were specified return the original bitmap
+        if (newWidth <= 0 && newHeight <= 0) {
+            newWidth = origWidth;
+            newHeight = origHeight;
+        }
+        // Only the width was specified
+        else if (newWidth > 0 && newHeight <= 0) {
+            newHeight = (int) (newWidth / (double) origWidth * origHeight);
+        }
+        // only the height was specified
+        else if (newWidth <= 0 && newHeight > 0) {
+            newWidth = (int) (newHeight / (double) origHeight * origWidth);
+        }
+        // If the user specified both a positive width and height
+        // (potentially different aspect ratio) then the width or height is
+        // scaled so that the image fits while maintaining aspect ratio.
+        // Alternatively, the specified width and height could have been
+        // kept and Bitmap.SCALE_TO_FIT specified when scaling, but this
+        // would result in whitespace in the new image.
+        else {
+            double newRatio = newWidth / (double) newHeight;
+            double origRatio = origWidth / (double) origHeight;
+
+            if (origRatio > newRatio) {
+                newHeight = (newWidth * origHeight) / origWidth;
+            } else if (origRatio < newRatio) {
+                newWidth = (newHeight * origWidth) / origHeight;
+            }
+        }
+
+        size[0] = newWidth;
+        size[1] = newHeight;
+        return size;
+    }
+}
@@ -0,0 +1,136 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+public class FrameMailbox<T> {
+
+    public interface Listener<T> {
+        // Called on the executor, one frame at a time.
+        void onFrame(T frame);
+
+        // Called for frames that will never reach onFrame.
+        void onDiscard(T frame);
+    }
+
+    private final Executor mExecutor;
+    private final Listener<T> mListener;
+    private final ArrayDeque<T> mPending = new ArrayDeque<T>();
+
+    private int mCapacity = 1;
+    private boolean mDraining = false;
+
+    private long mProcessed = 0;
+    private long mSuperseded = 0;
+    private long mDropped = 0;
+
+    private final Runnable mDrainer = new Runnable() {
+        public void run() {
+            while (true) {
+                T frame;
+                synchronized (FrameMailbox.this) {
+                    frame = mPending.poll();
+                    if (frame == null) {
+                        mDraining = false;
+                        return;
+                    }
+                }
+
+                boolean completed = false;
+                try {
+                    mListener.onFrame(frame);
+                    completed = true;
+                } finally {
+                    synchronized (FrameMailbox.this) {
+                        if (completed) {
+                            mProcessed++;
+                        } else {
+                            // Let the next offer schedule a new drainer.
+                            mDropped++;
+                            mDraining = false;
+                        }
+                    }
+                }
+            }
+        }
+    };
+
+    public FrameMailbox(Executor executor, Listener<T> listener) {
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        mCapacity = Math.max(1, capacity);
+    }
+
+    public synchronized int getCapacity() {
+        return mCapacity;
+    }
+
+    // Queues a frame, replacing the oldest frame that has not started
+    // processing yet when the mailbox is full.
+    public void offer(T frame) {
+        T superseded = null;
+        boolean schedule = false;
+
+        synchronized (this) {
+            if (mPending.size() >= mCapacity) {
+                superseded = mPending.poll();
+                mSuperseded++;
+            }
+            mPending.add(frame);
+            if (!mDraining) {
+                mDraining = true;
+                schedule = true;
+            }
+        }
+
+        if (superseded != null) {
+            mListener.onDiscard(superseded);
+        }
+
+        if (schedule) {
+            try {
+                mExecutor.execute(mDrainer);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    mDraining = false;
+                }
+                clear();
+            }
+        }
+    }
+
+    // Drops every frame that has not started processing yet.
+    public void clear() {
+        ArrayDeque<T> dropped;
+
+        synchronized (this) {
+            dropped = new ArrayDeque<T>(mPending);
+            mDropped += mPending.size();
+            mPending.clear();
+        }
+
+        for (T frame : dropped) {
+            mListener.onDiscard(frame);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    public synchronized long getProcessedCount() {
+        return mProcessed;
+    }
+
+    public synchronized long getSupersededCount() {
+        return mSuperseded;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+}
@@ -0,0 +1,199 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Single memory mapped file holding a ring of frame slots, read back by
+// CanvasCamera.prototype.readMappedFrame. Writing a frame is a copy into the
+// mapping, no file is opened, created or deleted per frame.
+//
+// The file starts with a little endian header, padded to a whole page.
+//
+//  offset  size  field
+//       0     4  magic, "CCMR"
+//       4     4  version
+//       8     4  header length, first slot starts right after the header
+//      12     4  slot count
+//      16     4  slot stride in bytes, slot header included
+//      20     4  slot capacity in bytes, payload only
+//
+// Slots follow, each a whole number of pages starting with a 16 bytes header.
+//
+//       0     4  sequence, BUSY while the payload is being written
+//       4     4  payload length in bytes
+//       8     8  timestamp, milliseconds since epoch (float64)
+//
+// Readers check that the slot sequence matches the one they were given,
+// before and after reading the payload.
+public class FrameMappedRing {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    public static final int MAGIC = 0x524D4343;
+    public static final int VERSION = 1;
+    private static final int PAGE_SIZE = 4096;
+
+    // A whole page, so that every slot starts on a page boundary.
+    public static final int HEADER_LENGTH = PAGE_SIZE;
+    public static final int SLOT_HEADER_LENGTH = 16;
+    public static final int BUSY = 0xFFFFFFFF;
+
+    // One per slot, refilled by the write landing in it, valid until the
+    // ring wraps around.
+    public static class Slot {
+        private final int mIndex;
+        private long mSequence;
+        private int mOffset;
+        private int mLength;
+
+        Slot(int index) {
+            mIndex = index;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        // Unsigned 32 bits, never BUSY.
+        public long getSequence() {
+            return mSequence;
+        }
+
+        // Payload offset in the file.
+        public int getOffset() {
+            return mOffset;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+    }
+
+    private final File mFile;
+    private final int mSlotCount;
+    private final Slot[] mSlots;
+
+    private int mSlotCapacity;
+    private int mSlotStride;
+    private RandomAccessFile mRandomAccessFile = null;
+    private MappedByteBuffer mBuffer = null;
+
+    private int mNextSlot = 0;
+    private int mSequence = 0;
+
+    public FrameMappedRing(File file, int slotCount, int slotCapacity) throws IOException {
+        mFile = file;
+        mSlotCount = Math.max(1, slotCount);
+        mSlots = new Slot[mSlotCount];
+        for (int i = 0; i < mSlotCount; i++) {
+            mSlots[i] = new Slot(i);
+        }
+        map(slotCapacity);
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    public synchronized int getSlotCapacity() {
+        return mSlotCapacity;
+    }
+
+    // Copies a frame into the next slot, growing every slot when the frame
+    // does not fit. Returns null when the ring is closed or can't be written.
+    public synchronized Slot write(byte[] bytes, long timestamp) {
+        if (mBuffer == null || bytes.length == 0) {
+            return null;
+        }
+
+        try {
+            if (bytes.length > mSlotCapacity) {
+                // Offsets handed out before are stale, their sequence check fails.
+                map(Math.max(bytes.length, mSlotCapacity * 2));
+            }
+        } catch (IOException e) {
+            if (LOGGING) Log.e(TAG, "Could not grow frame ring : " + e.getMessage());
+            close();
+            return null;
+        }
+
+        int index = mNextSlot;
+        mNextSlot = (mNextSlot + 1) % mSlotCount;
+
+        mSequence++;
+        if (mSequence == BUSY || mSequence == 0) {
+            mSequence = 1;
+        }
+
+        int slotOffset = HEADER_LENGTH + index * mSlotStride;
+        int payloadOffset = slotOffset + SLOT_HEADER_LENGTH;
+
+        mBuffer.putInt(slotOffset, BUSY);
+        mBuffer.position(payloadOffset);
+        mBuffer.put(bytes);
+        mBuffer.putInt(slotOffset + 4, bytes.length);
+        mBuffer.putDouble(slotOffset + 8, (double) timestamp);
+        mBuffer.putInt(slotOffset, mSequence);
+
+        Slot slot = mSlots[index];
+        slot.mSequence = mSequence & 0xFFFFFFFFL;
+        slot.mOffset = payloadOffset;
+        slot.mLength = bytes.length;
+        return slot;
+    }
+
+    // Unmaps the ring, the file stays on disk.
+    public synchronized void close() {
+        mBuffer = null;
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                if (LOGGING) Log.e(TAG, "Could not close frame ring : " + e.getMessage());
+            }
+            mRandomAccessFile = null;
+        }
+    }
+
+    private void map(int slotCapacity) throws IOException {
+        close();
+
+        // Slots start on page boundaries and span whole pages, so that a frame
+        // never shares a page with the next slot header.
+        mSlotStride = roundToPage(SLOT_HEADER_LENGTH + Math.max(1, slotCapacity));
+        mSlotCapacity = mSlotStride - SLOT_HEADER_LENGTH;
+        mNextSlot = 0;
+
+        long length = HEADER_LENGTH + (long) mSlotStride * mSlotCount;
+
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRandomAccessFile.setLength(0);
+        mRandomAccessFile.setLength(length);
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(8, HEADER_LENGTH);
+        mBuffer.putInt(12, mSlotCount);
+        mBuffer.putInt(16, mSlotStride);
+        mBuffer.putInt(20, mSlotCapacity);
+
+        if (LOGGING)
+            Log.i(TAG, "Frame ring mapped, " + mSlotCount + " slots of " + mSlotCapacity + " bytes.");
+    }
+
+    private static int roundToPage(int length) {
+        return ((length + PAGE_SIZE - 1) / PAGE_SIZE) * PAGE_SIZE;
+    }
+}
@@ -0,0 +1,60 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+// Additional image built for every frame next to the fullsize image and the
+// thumbnail, e.g. a model input, sized either by a ratio of the fullsize
+// image or by a width and/or height it fits into.
+public class FrameOutput {
+    private final String mName;
+    private final int mWidth;
+    private final int mHeight;
+    private final double mRatio;
+    private final FrameEncoder mEncoder;
+
+    public FrameOutput(String name, int width, int height, double ratio, FrameEncoder encoder) {
+        mName = name;
+        mWidth = width;
+        mHeight = height;
+        mRatio = ratio;
+        mEncoder = encoder;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // Takes precedence over width and height when positive.
+    public double getRatio() {
+        return mRatio;
+    }
+
+    public FrameEncoder getEncoder() {
+        return mEncoder;
+    }
+
+    // Writes the size of the output of a fullsizeWidth x fullsizeHeight
+    // image to size and returns it.
+    public int[] getSize(int fullsizeWidth, int fullsizeHeight, int[] size) {
+        if (mRatio > 0) {
+            size[0] = (int) (fullsizeWidth * mRatio);
+            size[1] = (int) (fullsizeHeight * mRatio);
+        } else {
+            FrameGeometry.calculateAspectRatio(fullsizeWidth, fullsizeHeight, mWidth, mHeight, size);
+        }
+
+        if (size[0] <= 0 || size[1] <= 0) {
+            // Too small to be scaled down, same size as the fullsize image.
+            size[0] = fullsizeWidth;
+            size[1] = fullsizeHeight;
+        }
+
+        return size;
+    }
+}
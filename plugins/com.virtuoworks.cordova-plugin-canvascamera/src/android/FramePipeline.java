@@ -0,0 +1,244 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Three stage frame pipeline : convert (run by the caller, one frame at a
+// time), encode and deliver (each on its own thread). Stages hand
+// preallocated slots to each other through single producer single consumer
+// rings, and delivered slots go back to the convert stage through a third
+// ring, so a frame can be encoded while the previous one is delivered and
+// the next one converted. Throughput is bound by the slowest stage instead of
+// the sum of the stages.
+//
+// A stage waiting on an empty ring parks, with no timeout, until the stage
+// feeding it unparks it after an offer, the convert stage waits the same way
+// for a free slot. An unpark coming before the park is not lost, the park
+// returns at once.
+public class FramePipeline<T> {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    public interface Stage<T> {
+        // Called on the stage thread, one slot at a time, must not throw.
+        void process(T slot);
+    }
+
+    public static final int CONVERT = 0;
+    public static final int ENCODE = 1;
+    public static final int DELIVER = 2;
+
+    public static final String[] STAGES = {"convert", "encode", "deliver"};
+    // Ring feeding each stage, "free" feeds convert with delivered slots.
+    public static final String[] RINGS = {"free", "encode", "deliver"};
+
+    private final int mSlotCount;
+    private final SpscRing<T>[] mRings;
+    private final Stage<T> mEncodeStage;
+    private final Stage<T> mDeliverStage;
+    private final int mPriority;
+
+    private final Thread[] mThreads = new Thread[STAGES.length];
+    private volatile Thread mConvertThread = null;
+    private volatile boolean mRunning = false;
+    // Slot the convert stage obtained but did not publish, convert side only.
+    private T mSpare = null;
+
+    private final AtomicLongArray mBusy = new AtomicLongArray(STAGES.length);
+    private final AtomicLongArray mCounts = new AtomicLongArray(STAGES.length);
+    private volatile long mSince;
+    // Ring counters at the last reset.
+    private final long[] mOfferedBase = new long[RINGS.length];
+    private final long[] mOccupancyBase = new long[RINGS.length];
+
+    @SuppressWarnings("unchecked")
+    public FramePipeline(List<T> slots, Stage<T> encodeStage, Stage<T> deliverStage, int priority) {
+        mSlotCount = slots.size();
+        mRings = new SpscRing[RINGS.length];
+        for (int i = 0; i < RINGS.length; i++) {
+            mRings[i] = new SpscRing<T>(mSlotCount);
+        }
+        for (T slot : slots) {
+            mRings[CONVERT].offer(slot);
+        }
+        mEncodeStage = encodeStage;
+        mDeliverStage = deliverStage;
+        mPriority = priority;
+        mSince = System.nanoTime();
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mThreads[ENCODE] = new Thread(getStageRunnable(ENCODE, mEncodeStage), "CanvasCameraEncode");
+        mThreads[DELIVER] = new Thread(getStageRunnable(DELIVER, mDeliverStage), "CanvasCameraDeliver");
+        mThreads[ENCODE].start();
+        mThreads[DELIVER].start();
+    }
+
+    // Stops the stage threads and waits for them to end, each stage first
+    // finishes the slot it is working on. Returns the number of frames that
+    // were converted but not delivered: left in the rings, including a slot
+    // encoded while stopping. Stages must not wait on the caller's locks.
+    public int stop() {
+        synchronized (this) {
+            if (!mRunning) {
+                return 0;
+            }
+            // No slot is published past this point, see publish().
+            mRunning = false;
+        }
+
+        Thread convertThread = mConvertThread;
+        if (convertThread != null) {
+            LockSupport.unpark(convertThread);
+        }
+        for (Thread thread : mThreads) {
+            if (thread != null && thread != Thread.currentThread()) {
+                LockSupport.unpark(thread);
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return mRings[ENCODE].size() + mRings[DELIVER].size();
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    // Convert stage : takes a free slot, waiting for the deliver stage to
+    // give one back if needed. Returns null once the pipeline is stopped.
+    public T obtain() {
+        if (mSpare != null) {
+            T slot = mSpare;
+            mSpare = null;
+            return slot;
+        }
+
+        mConvertThread = Thread.currentThread();
+        while (mRunning) {
+            T slot = mRings[CONVERT].poll();
+            if (slot != null) {
+                return slot;
+            }
+            LockSupport.park(this);
+        }
+        return null;
+    }
+
+    // Convert stage : hands a converted slot over to the encode stage.
+    // Returns false once the pipeline is stopped, the slot will not be
+    // delivered and is not given back.
+    public synchronized boolean publish(T slot) {
+        if (!mRunning) {
+            return false;
+        }
+        mRings[ENCODE].offer(slot);
+        mCounts.incrementAndGet(CONVERT);
+        LockSupport.unpark(mThreads[ENCODE]);
+        return true;
+    }
+
+    // Convert stage : keeps a slot that was not published for the next frame.
+    public void recycle(T slot) {
+        mSpare = slot;
+    }
+
+    public void addBusyTime(int stage, long nanos) {
+        mBusy.addAndGet(stage, nanos);
+    }
+
+    // Nanoseconds the stage spent working since the last reset.
+    public long getBusyTime(int stage) {
+        return mBusy.get(stage);
+    }
+
+    // Slots that went through the stage since the last reset.
+    public long getCount(int stage) {
+        return mCounts.get(stage);
+    }
+
+    // Nanoseconds since the last reset.
+    public long getDuration() {
+        return System.nanoTime() - mSince;
+    }
+
+    public SpscRing<T> getRing(int ring) {
+        return mRings[ring];
+    }
+
+    // Mean number of slots waiting in the ring right after a slot was added
+    // since the last reset, close to the capacity when the stage it feeds is
+    // the bottleneck.
+    public synchronized double getMeanOccupancy(int ring) {
+        long offered = mRings[ring].getOfferedCount() - mOfferedBase[ring];
+        if (offered <= 0) {
+            return 0;
+        }
+        return (double) (mRings[ring].getOccupancySum() - mOccupancyBase[ring]) / offered;
+    }
+
+    public synchronized void resetStats() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mBusy.set(i, 0);
+            mCounts.set(i, 0);
+        }
+        for (int i = 0; i < RINGS.length; i++) {
+            mOfferedBase[i] = mRings[i].getOfferedCount();
+            mOccupancyBase[i] = mRings[i].getOccupancySum();
+        }
+        mSince = System.nanoTime();
+    }
+
+    private Runnable getStageRunnable(final int stage, final Stage<T> processor) {
+        final SpscRing<T> input = mRings[stage];
+        final SpscRing<T> output = mRings[(stage + 1) % RINGS.length];
+        return new Runnable() {
+            public void run() {
+                try {
+                    Process.setThreadPriority(mPriority);
+                } catch (Exception e) {
+                    if (LOGGING) Log.w(TAG, "Could not set " + STAGES[stage] + " stage priority : " + e.getMessage());
+                }
+
+                while (mRunning) {
+                    T slot = input.poll();
+                    if (slot == null) {
+                        LockSupport.park(FramePipeline.this);
+                        continue;
+                    }
+
+                    long start = System.nanoTime();
+                    try {
+                        processor.process(slot);
+                    } catch (RuntimeException e) {
+                        if (LOGGING) Log.e(TAG, "Frame " + STAGES[stage] + " stage failed : " + e.getMessage());
+                    }
+                    mBusy.addAndGet(stage, System.nanoTime() - start);
+                    mCounts.incrementAndGet(stage);
+
+                    // Every ring holds every slot, this never fails.
+                    output.offer(slot);
+                    Thread next = stage == DELIVER ? mConvertThread : mThreads[DELIVER];
+                    if (next != null) {
+                        LockSupport.unpark(next);
+                    }
+                }
+            }
+        };
+    }
+}
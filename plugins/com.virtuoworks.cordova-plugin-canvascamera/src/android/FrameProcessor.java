@@ -0,0 +1,19 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import org.json.JSONObject;
+
+public interface FrameProcessor {
+    // Hands the frame to the next stage.
+    public static final int CONTINUE = 0;
+    // Discards the frame, nothing is sent for it.
+    public static final int DROP = 1;
+    // Skips the remaining stages and the image output, only the fields added to output are sent.
+    public static final int COMPLETE = 2;
+
+    // Called on the rendering thread for every frame, before any conversion or
+    // encoding. Stages may add fields to output, which becomes data.output in
+    // the plugin result. Neither the frame, which is recycled, nor its data
+    // may be kept after returning.
+    public int process(PreviewFrame frame, JSONObject output);
+
+}
@@ -0,0 +1,188 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// JSON message sent to the capture callback for every frame : the images,
+// the stage timings and the message wrapping them. The options and preview
+// descriptions come from the plugin state and are built by CanvasCamera.
+public class FrameResult {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    private FrameResult() {}
+
+    // base64 is the encoded image, as android.util.Base64 returns it.
+    public static String getDataUrl(String mimeType, String base64) {
+        StringBuilder dataUrl = new StringBuilder(5 + mimeType.length() + 8 + base64.length());
+        return dataUrl.append("data:").append(mimeType).append(";base64,").append(base64).toString();
+    }
+
+    // Where an image went : a data URL, a file slot it was written to and
+    // its place in the mapped ring, only the ones given.
+    public static JSONObject getImage(String name, String dataUrl, FrameFileRing.Slot file, JSONObject mapped) {
+        JSONObject image = new JSONObject();
+
+        if (dataUrl != null) {
+            try {
+                image.put("data", dataUrl);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.images." + name + ".data into JSON result : " + e.getMessage());
+            }
+        }
+
+        if (mapped != null) {
+            try {
+                image.put("mapped", mapped);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.images." + name + ".mapped into JSON result : " + e.getMessage());
+            }
+        }
+
+        if (file != null) {
+            try {
+                image.put("file", file.getFile().getPath());
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.images." + name + ".path into JSON result : " + e.getMessage());
+            }
+
+            try {
+                image.put("slot", file.getIndex());
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.images." + name + ".slot into JSON result : " + e.getMessage());
+            }
+
+            try {
+                image.put("generation", file.getGeneration());
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.images." + name + ".generation into JSON result : " + e.getMessage());
+            }
+        }
+
+        return image;
+    }
+
+    // Adds image to images with its size (unless null), rotation, orientation
+    // and send timestamp. Images that went nowhere are left out, returns
+    // whether the image was added.
+    public static boolean putImage(JSONObject images, String name, JSONObject image, int[] size, int rotation, String orientation, long timestamp) {
+        if (image.length() == 0) {
+            return false;
+        }
+
+        if (size != null) {
+            try {
+                image.put("width", size[0]);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.images." + name + ".width into JSON result : " + e.getMessage());
+            }
+
+            try {
+                image.put("height", size[1]);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.output.images." + name + ".height into JSON result : " + e.getMessage());
+            }
+        }
+
+        try {
+            image.put("rotation", rotation);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images." + name + ".rotation into JSON result : " + e.getMessage());
+        }
+
+        try {
+            image.put("orientation", orientation);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images." + name + ".orientation into JSON result : " + e.getMessage());
+        }
+
+        try {
+            image.put("timestamp", timestamp);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images." + name + ".timestamp into JSON result : " + e.getMessage());
+        }
+
+        try {
+            images.put(name, image);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.images." + name + " into JSON result : " + e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    // Stages the frame went through, in milliseconds, see PreviewFrame.getTimings().
+    public static void putTimings(long[] stages, JSONObject output) {
+        JSONObject timings = new JSONObject();
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i] >= 0) {
+                try {
+                    timings.put(FrameStats.STAGES[i], FrameStats.toMillis(stages[i]));
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.output.timings." + FrameStats.STAGES[i] + " into JSON result : " + e.getMessage());
+                }
+            }
+        }
+
+        try {
+            output.put("timings", timings);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.output.timings into JSON result : " + e.getMessage());
+        }
+    }
+
+    // The message handed to the callback, qos may be null.
+    public static JSONObject getMessage(String message, JSONObject options, JSONObject preview, JSONObject qos, JSONObject output) {
+        JSONObject pluginResultMessage = new JSONObject();
+
+        try {
+            pluginResultMessage.put("message", message);
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.message into JSON result : " + e.getMessage());
+        }
+
+        try {
+            pluginResultMessage.put("options", options);
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.options into JSON result : " + e.getMessage());
+        }
+
+        try {
+            pluginResultMessage.put("preview", preview);
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.preview into JSON result : " + e.getMessage());
+        }
+
+        if (qos != null) {
+            try {
+                pluginResultMessage.put("qos", qos);
+            } catch (JSONException e) {
+                if (LOGGING) Log.e(TAG, "Cannot put data.qos into JSON result : " + e.getMessage());
+            }
+        }
+
+        try {
+            pluginResultMessage.put("output", output);
+        } catch (JSONException e) {
+            if (LOGGING) Log.e(TAG, "Cannot put data.output into JSON result : " + e.getMessage());
+        }
+
+        return pluginResultMessage;
+    }
+}
@@ -0,0 +1,28 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+// Producer of preview frames for the capture pipeline : the device camera
+// (android.hardware.Camera or camera2) or a recording replayed from disk.
+public interface FrameSource {
+
+    interface Listener {
+        // Called on the source thread with a buffer taken from the preview
+        // buffer pool, the buffer must be released to the pool once rendered.
+        // timestamp is the wall clock frame time in milliseconds, receivedAt
+        // the System.nanoTime() at which the source got hold of the frame.
+        void onFrame(byte[] data, int width, int height, int format, long timestamp, long receivedAt);
+
+        // Called on the source thread when the source can't deliver frames anymore.
+        void onError(String message);
+    }
+
+    boolean isOpened();
+
+    int getWidth();
+
+    int getHeight();
+
+    // Frames per second range, multiplied by 1000 like android.hardware.Camera.
+    int[] getFpsRange();
+
+    void close();
+}
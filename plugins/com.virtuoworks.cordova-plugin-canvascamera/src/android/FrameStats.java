@@ -0,0 +1,276 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Per stage frame latency histograms, cheap enough to stay on while
+// capturing : recording a frame is a few atomic increments per stage, the
+// percentiles are only computed when the stats are read.
+public class FrameStats {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    // Camera callback, until the frame is queued for rendering.
+    public static final int DELIVERY = 0;
+    // Waiting in the frame mailbox.
+    public static final int QUEUE = 1;
+    // Frame processors.
+    public static final int PROCESS = 2;
+    // Scaling, mirroring and rotating.
+    public static final int TRANSFORM = 3;
+    // Pixel format conversion.
+    public static final int CONVERT = 4;
+    public static final int ENCODE = 5;
+    // Base64, file or mapped ring writes.
+    public static final int OUTPUT = 6;
+    // sendPluginResult.
+    public static final int SEND = 7;
+    // Camera callback, until the result is sent.
+    public static final int TOTAL = 8;
+
+    public static final String[] STAGES = {"delivery", "queue", "process", "transform", "convert", "encode", "output", "send", "total"};
+
+    // Log linear buckets : values below SUB_BUCKETS nanoseconds get their own
+    // bucket, then every power of two is split into SUB_BUCKETS buckets
+    // (12.5% resolution), up to about 18 minutes.
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static class Histogram {
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        void record(long nanos) {
+            mCounts.incrementAndGet(getBucket(nanos));
+            mCount.incrementAndGet();
+            mSum.addAndGet(nanos);
+
+            long max = mMax.get();
+            while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+                max = mMax.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mCounts.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        // Middle of the bucket holding the given fraction of the values.
+        long getPercentile(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mCounts.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(getBucketMiddle(i), mMax.get());
+                }
+            }
+
+            return mMax.get();
+        }
+    }
+
+    private final Histogram[] mHistograms = new Histogram[STAGES.length];
+
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mSent = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mSkipped = new AtomicLong();
+    private volatile long mSince;
+
+    public FrameStats() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mHistograms[i] = new Histogram();
+        }
+        mSince = System.nanoTime();
+    }
+
+    public void countReceived() {
+        mReceived.incrementAndGet();
+    }
+
+    // Frames dropped while rendering, by a frame processor or because capture stopped.
+    public void countDropped() {
+        mDropped.incrementAndGet();
+    }
+
+    // Frames skipped on purpose, e.g. unchanged frames.
+    public void countSkipped() {
+        mSkipped.incrementAndGet();
+    }
+
+    // Records every stage the frame went through, once its result is sent.
+    // Same lock as reset(), a frame is never half recorded across a reset.
+    public synchronized void commit(PreviewFrame frame) {
+        mSent.incrementAndGet();
+
+        long[] timings = frame.getTimings();
+        for (int i = 0; i < timings.length; i++) {
+            if (timings[i] >= 0) {
+                mHistograms[i].record(timings[i]);
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mReceived.set(0);
+        mSent.set(0);
+        mDropped.set(0);
+        mSkipped.set(0);
+        mSince = System.nanoTime();
+    }
+
+    // Milliseconds, as reported to javascript.
+    public static double toMillis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject stats = new JSONObject();
+
+        double duration = toMillis(System.nanoTime() - mSince);
+        long sent = mSent.get();
+
+        try {
+            stats.put("duration", duration);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.stats.duration into JSON result : " + e.getMessage());
+        }
+
+        try {
+            stats.put("received", mReceived.get());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.stats.received into JSON result : " + e.getMessage());
+        }
+
+        try {
+            stats.put("sent", sent);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.stats.sent into JSON result : " + e.getMessage());
+        }
+
+        try {
+            stats.put("dropped", mDropped.get());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.stats.dropped into JSON result : " + e.getMessage());
+        }
+
+        try {
+            stats.put("skipped", mSkipped.get());
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.stats.skipped into JSON result : " + e.getMessage());
+        }
+
+        try {
+            stats.put("fps", duration > 0 ? sent * 1000 / duration : 0);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.stats.fps into JSON result : " + e.getMessage());
+        }
+
+        JSONObject stages = new JSONObject();
+
+        for (int i = 0; i < STAGES.length; i++) {
+            Histogram histogram = mHistograms[i];
+            long count = histogram.mCount.get();
+            if (count == 0) {
+                continue;
+            }
+
+            JSONObject stage = new JSONObject();
+
+            try {
+                stage.put("count", count);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.stats.stages." + STAGES[i] + ".count into JSON result : " + e.getMessage());
+            }
+
+            String[] keys = {"mean", "p50", "p95", "p99", "max"};
+            long[] values = {histogram.mSum.get() / count, histogram.getPercentile(0.50), histogram.getPercentile(0.95), histogram.getPercentile(0.99), histogram.mMax.get()};
+            for (int j = 0; j < keys.length; j++) {
+                try {
+                    stage.put(keys[j], toMillis(values[j]));
+                } catch (JSONException e) {
+                    if (LOGGING)
+                        Log.e(TAG, "Cannot put data.stats.stages." + STAGES[i] + "." + keys[j] + " into JSON result : " + e.getMessage());
+                }
+            }
+
+            try {
+                stages.put(STAGES[i], stage);
+            } catch (JSONException e) {
+                if (LOGGING)
+                    Log.e(TAG, "Cannot put data.stats.stages." + STAGES[i] + " into JSON result : " + e.getMessage());
+            }
+        }
+
+        try {
+            stats.put("stages", stages);
+        } catch (JSONException e) {
+            if (LOGGING)
+                Log.e(TAG, "Cannot put data.stats.stages into JSON result : " + e.getMessage());
+        }
+
+        return stats;
+    }
+
+    private static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(nanos));
+        int subBucket = (int) ((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        if (exponent == MAX_EXPONENT && nanos >= (1L << (MAX_EXPONENT + 1))) {
+            subBucket = SUB_BUCKETS - 1;
+        }
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getBucketMiddle(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + subBucket) * width;
+
+        return lower + width / 2;
+    }
+}
@@ -0,0 +1,260 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.Collections;
+import java.util.List;
+
+// Everything a preview frame goes through before encoding that only depends
+// on the camera, the display orientation and the options : region of
+// interest, scaled size, rotation, mirroring, NV21 sampling lookup tables,
+// thumbnail and output levels, and bitmap decode settings. Built once
+// whenever one of those changes, then shared read only by every frame of
+// that size, plain java.
+public class FrameTransform {
+
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final int mRotation;
+    private final boolean mMirrored;
+    private final String mOrientation;
+
+    // Region of interest (left, top, width, height) in source frame pixels.
+    private final int[] mCrop;
+    // Whether a target size was given, frames are sent as is otherwise.
+    private final boolean mScaled;
+    // Scaled size, before rotation.
+    private final int mWidth;
+    private final int mHeight;
+    // NV21 output size, rotated and rounded to even.
+    private final int mOutputWidth;
+    private final int mOutputHeight;
+    // Null when sampling degenerates to a plain crop, mirror and rotate.
+    private final int[][] mLuts;
+    // Levels scaled down from the output frame : the thumbnail when it is
+    // scaled, then the additional outputs.
+    private final boolean mThumbnailScaled;
+    private final Nv21Transformer.Cascade mCascade;
+
+    // Bitmap path : the jpeg of the crop is decoded with mSampleSize, then
+    // drawn through mMatrixValues into a mBitmapWidth x mBitmapHeight bitmap.
+    private final int mSampleSize;
+    private final int mDecodedWidth;
+    private final int mDecodedHeight;
+    private final int mBitmapWidth;
+    private final int mBitmapHeight;
+    private final float[] mMatrixValues;
+
+    public FrameTransform(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, int rotation, boolean mirrored, String orientation, double[] roi) {
+        this(sourceWidth, sourceHeight, targetWidth, targetHeight, rotation, mirrored, orientation, roi, 0, Collections.<FrameOutput>emptyList());
+    }
+
+    // thumbnailRatio is 0 without a thumbnail.
+    public FrameTransform(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight, int rotation, boolean mirrored, String orientation, double[] roi,
+                          double thumbnailRatio, List<FrameOutput> outputs) {
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mRotation = ((rotation % 360) + 360) % 360;
+        mMirrored = mirrored;
+        mOrientation = orientation;
+
+        if (roi != null) {
+            // The region is given in output frame coordinates, after mirroring and rotation.
+            mCrop = Nv21Transformer.mapRegion(roi[0], roi[1], roi[2], roi[3], sourceWidth, sourceHeight, mRotation, mirrored);
+        } else {
+            mCrop = new int[]{0, 0, sourceWidth, sourceHeight};
+        }
+
+        mScaled = targetWidth > 0 && targetHeight > 0;
+        int[] widthHeight = FrameGeometry.calculateAspectRatio(mCrop[2], mCrop[3], targetWidth, targetHeight);
+        mWidth = widthHeight[0];
+        mHeight = widthHeight[1];
+
+        mOutputWidth = Nv21Transformer.getOutputWidth(mWidth, mHeight, mRotation);
+        mOutputHeight = Nv21Transformer.getOutputHeight(mWidth, mHeight, mRotation);
+        mLuts = Nv21Transformer.getLuts(sourceWidth, mCrop, mWidth, mHeight, mRotation, mirrored);
+
+        int thumbnailWidth = (int) (mOutputWidth * thumbnailRatio);
+        int thumbnailHeight = (int) (mOutputHeight * thumbnailRatio);
+        mThumbnailScaled = thumbnailWidth > 0 && thumbnailHeight > 0;
+        int[][] levelSizes = new int[(mThumbnailScaled ? 1 : 0) + outputs.size()][];
+        int level = 0;
+        if (mThumbnailScaled) {
+            levelSizes[level++] = new int[]{thumbnailWidth, thumbnailHeight};
+        }
+        for (FrameOutput output : outputs) {
+            levelSizes[level++] = output.getSize(mOutputWidth, mOutputHeight, new int[2]);
+        }
+        mCascade = new Nv21Transformer.Cascade(mOutputWidth, mOutputHeight, levelSizes);
+
+        mSampleSize = mScaled ? getSampleSize(mCrop[2], mCrop[3], mWidth, mHeight) : 1;
+        mDecodedWidth = (mCrop[2] + mSampleSize - 1) / mSampleSize;
+        mDecodedHeight = (mCrop[3] + mSampleSize - 1) / mSampleSize;
+        boolean transposed = mRotation == 90 || mRotation == 270;
+        mBitmapWidth = transposed ? mHeight : mWidth;
+        mBitmapHeight = transposed ? mWidth : mHeight;
+        mMatrixValues = getMatrixValues(mDecodedWidth, mDecodedHeight, mWidth, mHeight, mRotation, mirrored);
+    }
+
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    public boolean isSourceSize(int width, int height) {
+        return width == mSourceWidth && height == mSourceHeight;
+    }
+
+    // Clockwise display rotation in degrees.
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirrored() {
+        return mMirrored;
+    }
+
+    public String getOrientation() {
+        return mOrientation;
+    }
+
+    // Shared by every frame, must not be modified.
+    public int[] getCrop() {
+        return mCrop;
+    }
+
+    public boolean isScaled() {
+        return mScaled;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    public int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    // Whether the thumbnail is the first level of the cascade, a thumbnail
+    // too small to be scaled is the fullsize image itself.
+    public boolean isThumbnailScaled() {
+        return mThumbnailScaled;
+    }
+
+    // Levels scaled down from the output frame, see isThumbnailScaled().
+    public Nv21Transformer.Cascade getCascade() {
+        return mCascade;
+    }
+
+    public int getSampleSize() {
+        return mSampleSize;
+    }
+
+    public int getDecodedWidth() {
+        return mDecodedWidth;
+    }
+
+    public int getDecodedHeight() {
+        return mDecodedHeight;
+    }
+
+    public int getBitmapWidth() {
+        return mBitmapWidth;
+    }
+
+    public int getBitmapHeight() {
+        return mBitmapHeight;
+    }
+
+    // Matrix.setValues() order, shared by every frame, must not be modified.
+    public float[] getMatrixValues() {
+        return mMatrixValues;
+    }
+
+    // Crops, scales, mirrors and rotates a NV21 frame of the source size,
+    // into dst when it fits. Same output as Nv21Transformer.transform().
+    public byte[] transform(byte[] src, byte[] dst) {
+        if (mLuts == null) {
+            return Yuv420Kernels.transform(src, Yuv420Kernels.NV21, mSourceWidth, mSourceHeight, mCrop, mRotation, mMirrored, dst, Yuv420Kernels.NV21);
+        }
+        return Nv21Transformer.transform(src, mSourceWidth, mSourceHeight, mLuts, dst);
+    }
+
+    // Largest power of two sample size keeping the decoded image at least
+    // as large as the scaled size.
+    private static int getSampleSize(int width, int height, int scaledWidth, int scaledHeight) {
+        int sampleSize = 1;
+        if (height > scaledHeight || width > scaledWidth) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            while ((halfHeight / sampleSize) >= scaledHeight && (halfWidth / sampleSize) >= scaledWidth) {
+                sampleSize *= 2;
+            }
+        }
+        return sampleSize;
+    }
+
+    // Scale to width x height, mirror horizontally, then rotate clockwise
+    // and translate back into view, as an affine (x' = a x + b y + c,
+    // y' = d x + e y + f) in Matrix.setValues() order.
+    static float[] getMatrixValues(int srcWidth, int srcHeight, int width, int height, int angle, boolean mirror) {
+        float a = (float) width / srcWidth;
+        float b = 0;
+        float c = 0;
+        float d = 0;
+        float e = (float) height / srcHeight;
+        float f = 0;
+
+        if (mirror) {
+            a = -a;
+            c = width;
+        }
+
+        float a0 = a;
+        float b0 = b;
+        float c0 = c;
+        switch (angle) {
+            case 90:
+                // (x, y) -> (height - y, x)
+                a = -d;
+                b = -e;
+                c = height - f;
+                d = a0;
+                e = b0;
+                f = c0;
+                break;
+            case 180:
+                // (x, y) -> (width - x, height - y)
+                a = -a;
+                b = -b;
+                c = width - c;
+                d = -d;
+                e = -e;
+                f = height - f;
+                break;
+            case 270:
+                // (x, y) -> (y, width - x)
+                a = d;
+                b = e;
+                c = f;
+                d = -a0;
+                e = -b0;
+                f = width - c0;
+                break;
+            default:
+                break;
+        }
+
+        return new float[]{a, b, c, d, e, f, 0, 0, 1};
+    }
+}
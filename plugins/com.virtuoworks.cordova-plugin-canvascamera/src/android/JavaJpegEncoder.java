@@ -0,0 +1,576 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import java.util.Arrays;
+
+// Baseline JPEG encoder in plain Java, registered as "java". NV21 preview
+// bytes are read straight into YCbCr blocks, with no bitmap nor RGB pass,
+// at 4:2:0, 4:2:2 or 4:4:4 chroma subsampling. The preview chroma being
+// 4:2:0 already, 4:2:2 and 4:4:4 repeat it, they only add detail to bitmaps.
+// Tables, blocks and the output buffer are kept from one frame to the next,
+// only the encoded image is a new array.
+public class JavaJpegEncoder implements FrameEncoder {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    // Zigzag position of each coefficient, in natural (row major) order.
+    private static final int[] ZIGZAG = {
+            0, 1, 5, 6, 14, 15, 27, 28,
+            2, 4, 7, 13, 16, 26, 29, 42,
+            3, 8, 12, 17, 25, 30, 41, 43,
+            9, 11, 18, 24, 31, 40, 44, 53,
+            10, 19, 23, 32, 39, 45, 52, 54,
+            20, 22, 33, 38, 46, 51, 55, 60,
+            21, 34, 37, 47, 50, 56, 59, 61,
+            35, 36, 48, 49, 57, 58, 62, 63
+    };
+
+    // Quantization tables of the JPEG specification (Annex K), natural order.
+    private static final int[] LUMA_QUANTIZATION = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+    private static final int[] CHROMA_QUANTIZATION = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    // Huffman tables of the JPEG specification (Annex K) : code counts per
+    // length from 1 to 16 bits, then the symbols.
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_LUMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    // Code and code length of each symbol.
+    private static final int[][] DC_LUMA = getCodes(DC_LUMA_BITS, DC_LUMA_VALUES);
+    private static final int[][] DC_CHROMA = getCodes(DC_CHROMA_BITS, DC_CHROMA_VALUES);
+    private static final int[][] AC_LUMA = getCodes(AC_LUMA_BITS, AC_LUMA_VALUES);
+    private static final int[][] AC_CHROMA = getCodes(AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+    // Scale factors of the AAN forward DCT, per row and column.
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private static final int NV21 = 0;
+    private static final int ARGB = 1;
+
+    private final int mQuality;
+    private final String mSubsampling;
+    // Luma blocks per MCU, horizontally and vertically.
+    private final int mHorizontal;
+    private final int mVertical;
+
+    // Quantization tables, zigzag order as written to the file.
+    private final int[] mLumaTable = new int[64];
+    private final int[] mChromaTable = new int[64];
+    // Reciprocals of the quantizers scaled by the DCT factors, natural order.
+    private final float[] mLumaDivisors = new float[64];
+    private final float[] mChromaDivisors = new float[64];
+
+    private final float[] mBlock = new float[64];
+    private final int[] mCoefficients = new int[64];
+
+    // Current image, NV21 bytes or ARGB pixels.
+    private int mSource;
+    private byte[] mData;
+    private int mFrameWidth;
+    private int mFrameSize;
+    private int mLeft;
+    private int mTop;
+    private int[] mArgb;
+    private int mWidth;
+    private int mHeight;
+
+    private byte[] mOut = new byte[0];
+    private int mLength;
+    private int mBitBuffer;
+    private int mBitCount;
+
+    public JavaJpegEncoder(int quality, String subsampling) throws Exception {
+        if (subsampling == null) {
+            subsampling = SUBSAMPLING_420;
+        }
+        if (SUBSAMPLING_420.equals(subsampling)) {
+            mHorizontal = 2;
+            mVertical = 2;
+        } else if (SUBSAMPLING_422.equals(subsampling)) {
+            mHorizontal = 2;
+            mVertical = 1;
+        } else if (SUBSAMPLING_444.equals(subsampling)) {
+            mHorizontal = 1;
+            mVertical = 1;
+        } else {
+            throw new Exception("Unsupported chroma subsampling for the " + FrameEncoders.JAVA + " encoder : " + subsampling);
+        }
+        mQuality = quality;
+        mSubsampling = subsampling;
+
+        setTables(quality, LUMA_QUANTIZATION, mLumaTable, mLumaDivisors);
+        setTables(quality, CHROMA_QUANTIZATION, mChromaTable, mChromaDivisors);
+    }
+
+    public JavaJpegEncoder(String format, int quality, String subsampling) throws Exception {
+        this(quality, subsampling);
+        if (!JPEG.equals(format)) {
+            throw new Exception("Unsupported encoder format for the " + FrameEncoders.JAVA + " encoder : " + format);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return FrameEncoders.JAVA;
+    }
+
+    @Override
+    public String getFormat() {
+        return JPEG;
+    }
+
+    @Override
+    public int getQuality() {
+        return mQuality;
+    }
+
+    @Override
+    public String getSubsampling() {
+        return mSubsampling;
+    }
+
+    @Override
+    public String getMimeType() {
+        return "image/jpeg";
+    }
+
+    @Override
+    public String getExtension() {
+        return "jpg";
+    }
+
+    @Override
+    public synchronized byte[] encode(byte[] data, int imageFormat, int width, int height, int[] crop) {
+        if (data.length == 0) {
+            return data;
+        }
+        if (imageFormat != ImageFormat.NV21) {
+            if (LOGGING) Log.e(TAG, "Unsupported preview format for the " + FrameEncoders.JAVA + " encoder : " + imageFormat);
+            return new byte[0];
+        }
+
+        mSource = NV21;
+        mData = data;
+        mFrameWidth = width;
+        mFrameSize = width * height;
+        mLeft = crop[0];
+        mTop = crop[1];
+        try {
+            return encode(crop[2], crop[3]);
+        } finally {
+            // The preview buffer is not kept past the call.
+            mData = null;
+        }
+    }
+
+    @Override
+    public synchronized byte[] encode(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (mArgb == null || mArgb.length != width * height) {
+            mArgb = new int[width * height];
+        }
+        bitmap.getPixels(mArgb, 0, width, 0, 0, width, height);
+
+        mSource = ARGB;
+        mFrameWidth = width;
+        mLeft = 0;
+        mTop = 0;
+        return encode(width, height);
+    }
+
+    private byte[] encode(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mLength = 0;
+        mBitBuffer = 0;
+        mBitCount = 0;
+
+        writeHeaders();
+
+        int mcuWidth = 8 * mHorizontal;
+        int mcuHeight = 8 * mVertical;
+        int lumaDc = 0;
+        int blueDc = 0;
+        int redDc = 0;
+        for (int y = 0; y < height; y += mcuHeight) {
+            for (int x = 0; x < width; x += mcuWidth) {
+                for (int by = 0; by < mVertical; by++) {
+                    for (int bx = 0; bx < mHorizontal; bx++) {
+                        fillLuma(x + 8 * bx, y + 8 * by);
+                        lumaDc = encodeBlock(mLumaDivisors, lumaDc, DC_LUMA, AC_LUMA);
+                    }
+                }
+                fillChroma(x, y, true);
+                blueDc = encodeBlock(mChromaDivisors, blueDc, DC_CHROMA, AC_CHROMA);
+                fillChroma(x, y, false);
+                redDc = encodeBlock(mChromaDivisors, redDc, DC_CHROMA, AC_CHROMA);
+            }
+        }
+
+        // Last byte padded with ones.
+        if (mBitCount > 0) {
+            writeBits((1 << (8 - mBitCount)) - 1, 8 - mBitCount);
+        }
+        writeMarker(0xD9);
+
+        return Arrays.copyOf(mOut, mLength);
+    }
+
+    // Level shifted luma of the 8x8 block at (x0, y0), edges repeated.
+    private void fillLuma(int x0, int y0) {
+        float[] block = mBlock;
+        for (int j = 0; j < 8; j++) {
+            int y = Math.min(y0 + j, mHeight - 1) + mTop;
+            for (int i = 0; i < 8; i++) {
+                int x = Math.min(x0 + i, mWidth - 1) + mLeft;
+                int luma;
+                if (mSource == NV21) {
+                    luma = mData[y * mFrameWidth + x] & 0xFF;
+                } else {
+                    int argb = mArgb[y * mFrameWidth + x];
+                    luma = (int) (0.299f * ((argb >> 16) & 0xFF) + 0.587f * ((argb >> 8) & 0xFF) + 0.114f * (argb & 0xFF) + 0.5f);
+                }
+                block[8 * j + i] = luma - 128;
+            }
+        }
+    }
+
+    // Level shifted chroma of the MCU at (x0, y0). NV21 chroma is read from
+    // the sample covering each block pixel, bitmap chroma is averaged.
+    private void fillChroma(int x0, int y0, boolean blue) {
+        float[] block = mBlock;
+        for (int j = 0; j < 8; j++) {
+            int top = y0 + j * mVertical;
+            for (int i = 0; i < 8; i++) {
+                int left = x0 + i * mHorizontal;
+                float chroma;
+                if (mSource == NV21) {
+                    int x = Math.min(left, mWidth - 1) + mLeft;
+                    int y = Math.min(top, mHeight - 1) + mTop;
+                    // Interleaved V then U.
+                    int offset = mFrameSize + (y >> 1) * mFrameWidth + (x & ~1);
+                    chroma = mData[blue ? offset + 1 : offset] & 0xFF;
+                } else {
+                    chroma = getAverageChroma(left, top, blue);
+                }
+                block[8 * j + i] = chroma - 128;
+            }
+        }
+    }
+
+    private float getAverageChroma(int left, int top, boolean blue) {
+        float sum = 0;
+        for (int dy = 0; dy < mVertical; dy++) {
+            int y = Math.min(top + dy, mHeight - 1);
+            for (int dx = 0; dx < mHorizontal; dx++) {
+                int x = Math.min(left + dx, mWidth - 1);
+                int argb = mArgb[y * mFrameWidth + x];
+                int r = (argb >> 16) & 0xFF;
+                int g = (argb >> 8) & 0xFF;
+                int b = argb & 0xFF;
+                sum += blue ? -0.168736f * r - 0.331264f * g + 0.5f * b + 128 : 0.5f * r - 0.418688f * g - 0.081312f * b + 128;
+            }
+        }
+        return sum / (mHorizontal * mVertical);
+    }
+
+    // Transforms, quantizes and writes the current block, returns its DC
+    // coefficient, which the next block of the component is coded against.
+    private int encodeBlock(float[] divisors, int previousDc, int[][] dcCodes, int[][] acCodes) {
+        forwardDct(mBlock);
+
+        int[] coefficients = mCoefficients;
+        for (int i = 0; i < 64; i++) {
+            coefficients[ZIGZAG[i]] = Math.round(mBlock[i] * divisors[i]);
+        }
+
+        int dc = coefficients[0];
+        writeValue(dc - previousDc, dcCodes, 0);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int coefficient = coefficients[k];
+            if (coefficient == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                // ZRL, sixteen zeros.
+                writeBits(acCodes[0][0xF0], acCodes[1][0xF0]);
+                run -= 16;
+            }
+            writeValue(coefficient, acCodes, run << 4);
+            run = 0;
+        }
+        if (run > 0) {
+            // EOB, the rest of the block is zero.
+            writeBits(acCodes[0][0x00], acCodes[1][0x00]);
+        }
+
+        return dc;
+    }
+
+    // Symbol (run | size category) then the value bits, negative values
+    // being written as value - 1 on size bits.
+    private void writeValue(int value, int[][] codes, int run) {
+        int magnitude = value < 0 ? -value : value;
+        int size = 32 - Integer.numberOfLeadingZeros(magnitude);
+        int symbol = run | size;
+        writeBits(codes[0][symbol], codes[1][symbol]);
+        if (size > 0) {
+            writeBits(value < 0 ? value + (1 << size) - 1 : value, size);
+        }
+    }
+
+    // In place AAN forward DCT of an 8x8 block, rows then columns. The
+    // outputs are scaled by the AAN factors, folded into the divisors.
+    private static void forwardDct(float[] data) {
+        for (int i = 0; i < 8; i++) {
+            dct(data, 8 * i, 1);
+        }
+        for (int i = 0; i < 8; i++) {
+            dct(data, i, 8);
+        }
+    }
+
+    private static void dct(float[] data, int offset, int step) {
+        int i0 = offset;
+        int i1 = offset + step;
+        int i2 = offset + 2 * step;
+        int i3 = offset + 3 * step;
+        int i4 = offset + 4 * step;
+        int i5 = offset + 5 * step;
+        int i6 = offset + 6 * step;
+        int i7 = offset + 7 * step;
+
+        float tmp0 = data[i0] + data[i7];
+        float tmp7 = data[i0] - data[i7];
+        float tmp1 = data[i1] + data[i6];
+        float tmp6 = data[i1] - data[i6];
+        float tmp2 = data[i2] + data[i5];
+        float tmp5 = data[i2] - data[i5];
+        float tmp3 = data[i3] + data[i4];
+        float tmp4 = data[i3] - data[i4];
+
+        // Even part
+        float tmp10 = tmp0 + tmp3;
+        float tmp13 = tmp0 - tmp3;
+        float tmp11 = tmp1 + tmp2;
+        float tmp12 = tmp1 - tmp2;
+
+        data[i0] = tmp10 + tmp11;
+        data[i4] = tmp10 - tmp11;
+
+        float z1 = (tmp12 + tmp13) * 0.707106781f;
+        data[i2] = tmp13 + z1;
+        data[i6] = tmp13 - z1;
+
+        // Odd part
+        tmp10 = tmp4 + tmp5;
+        tmp11 = tmp5 + tmp6;
+        tmp12 = tmp6 + tmp7;
+
+        float z5 = (tmp10 - tmp12) * 0.382683433f;
+        float z2 = 0.541196100f * tmp10 + z5;
+        float z4 = 1.306562965f * tmp12 + z5;
+        float z3 = tmp11 * 0.707106781f;
+
+        float z11 = tmp7 + z3;
+        float z13 = tmp7 - z3;
+
+        data[i5] = z13 + z2;
+        data[i3] = z13 - z2;
+        data[i1] = z11 + z4;
+        data[i7] = z11 - z4;
+    }
+
+    private void writeHeaders() {
+        writeMarker(0xD8);
+
+        // JFIF 1.1, no density, no thumbnail.
+        writeMarker(0xE0);
+        writeShort(16);
+        write('J');
+        write('F');
+        write('I');
+        write('F');
+        write(0);
+        write(1);
+        write(1);
+        write(0);
+        writeShort(1);
+        writeShort(1);
+        write(0);
+        write(0);
+
+        writeMarker(0xDB);
+        writeShort(2 + 2 * 65);
+        write(0);
+        for (int i = 0; i < 64; i++) {
+            write(mLumaTable[i]);
+        }
+        write(1);
+        for (int i = 0; i < 64; i++) {
+            write(mChromaTable[i]);
+        }
+
+        // Baseline frame, 3 components, luma sampled mHorizontal x mVertical times per chroma sample.
+        writeMarker(0xC0);
+        writeShort(17);
+        write(8);
+        writeShort(mHeight);
+        writeShort(mWidth);
+        write(3);
+        write(1);
+        write((mHorizontal << 4) | mVertical);
+        write(0);
+        write(2);
+        write(0x11);
+        write(1);
+        write(3);
+        write(0x11);
+        write(1);
+
+        writeMarker(0xC4);
+        writeShort(2 + 4 * 17 + DC_LUMA_VALUES.length + AC_LUMA_VALUES.length + DC_CHROMA_VALUES.length + AC_CHROMA_VALUES.length);
+        writeHuffmanTable(0x00, DC_LUMA_BITS, DC_LUMA_VALUES);
+        writeHuffmanTable(0x10, AC_LUMA_BITS, AC_LUMA_VALUES);
+        writeHuffmanTable(0x01, DC_CHROMA_BITS, DC_CHROMA_VALUES);
+        writeHuffmanTable(0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+        writeMarker(0xDA);
+        writeShort(12);
+        write(3);
+        write(1);
+        write(0x00);
+        write(2);
+        write(0x11);
+        write(3);
+        write(0x11);
+        write(0);
+        write(63);
+        write(0);
+    }
+
+    private void writeHuffmanTable(int tableClass, int[] bits, int[] values) {
+        write(tableClass);
+        for (int count : bits) {
+            write(count);
+        }
+        for (int value : values) {
+            write(value);
+        }
+    }
+
+    // Entropy coded bits, a 0xFF byte being followed by a stuffed 0x00.
+    private void writeBits(int bits, int count) {
+        mBitBuffer = (mBitBuffer << count) | bits;
+        mBitCount += count;
+        while (mBitCount >= 8) {
+            int b = (mBitBuffer >> (mBitCount - 8)) & 0xFF;
+            write(b);
+            if (b == 0xFF) {
+                write(0);
+            }
+            mBitCount -= 8;
+        }
+        mBitBuffer &= (1 << mBitCount) - 1;
+    }
+
+    private void writeMarker(int marker) {
+        write(0xFF);
+        write(marker);
+    }
+
+    private void writeShort(int value) {
+        write(value >> 8);
+        write(value);
+    }
+
+    private void write(int b) {
+        if (mLength == mOut.length) {
+            mOut = Arrays.copyOf(mOut, Math.max(4096, 2 * mOut.length));
+        }
+        mOut[mLength++] = (byte) b;
+    }
+
+    // Quantizers for the IJG quality scale, 50 being the tables as is.
+    private static void setTables(int quality, int[] base, int[] table, float[] divisors) {
+        quality = Math.max(1, Math.min(100, quality));
+        int scale = quality < 50 ? 5000 / quality : 200 - 2 * quality;
+        for (int i = 0; i < 64; i++) {
+            int quantizer = Math.max(1, Math.min(255, (base[i] * scale + 50) / 100));
+            table[ZIGZAG[i]] = quantizer;
+            divisors[i] = (float) (1.0 / (quantizer * AAN_SCALE[i / 8] * AAN_SCALE[i % 8] * 8.0));
+        }
+    }
+
+    // Canonical codes of a Huffman table, indexed by symbol : codes then lengths.
+    private static int[][] getCodes(int[] bits, int[] values) {
+        int[][] codes = new int[2][256];
+        int code = 0;
+        int k = 0;
+        for (int length = 1; length <= 16; length++) {
+            for (int i = 0; i < bits[length - 1]; i++) {
+                codes[0][values[k]] = code++;
+                codes[1][values[k]] = length;
+                k++;
+            }
+            code <<= 1;
+        }
+        return codes;
+    }
+}
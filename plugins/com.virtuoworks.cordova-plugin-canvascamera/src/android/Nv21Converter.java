@@ -0,0 +1,171 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+public class Nv21Converter {
+    public static final String GRAY8 = "GRAY8";
+    public static final String RGB888 = "RGB888";
+    public static final String RGBA8888 = "RGBA8888";
+
+    // Reused from frame to frame, one per calling thread.
+    private static final ThreadLocal<ConvertKernel> sConvertKernel = new ThreadLocal<ConvertKernel>() {
+        @Override
+        protected ConvertKernel initialValue() {
+            return new ConvertKernel();
+        }
+    };
+
+    private Nv21Converter() {}
+
+    public static boolean isSupportedFormat(String format) {
+        return GRAY8.equals(format) || RGB888.equals(format) || RGBA8888.equals(format);
+    }
+
+    public static int getBytesPerPixel(String format) {
+        if (GRAY8.equals(format)) {
+            return 1;
+        } else if (RGB888.equals(format)) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+    public static byte[] convert(byte[] nv21, int width, int height, String format) {
+        return convert(nv21, width, height, format, null);
+    }
+
+    // Same as above, written to dst when it fits the converted image exactly.
+    // Large frames are converted in bands of rows on several threads, see RowBands.
+    public static byte[] convert(byte[] nv21, int width, int height, String format, byte[] dst) {
+        int bytesPerPixel = getBytesPerPixel(format);
+        byte[] out = obtain(dst, width * height * bytesPerPixel);
+
+        if (GRAY8.equals(format)) {
+            // The luma plane already is a grayscale image.
+            System.arraycopy(nv21, 0, out, 0, width * height);
+            return out;
+        }
+
+        ConvertKernel kernel = sConvertKernel.get();
+        kernel.set(nv21, null, width, height, bytesPerPixel, out);
+        try {
+            RowBands.run(height, (long) width * height, kernel);
+        } finally {
+            kernel.set(null, null, 0, 0, 0, null);
+        }
+
+        return out;
+    }
+
+    private static void convertRows(byte[] nv21, int width, int frameSize, int bytesPerPixel, byte[] dst, int from, int to) {
+        int o = from * width * bytesPerPixel;
+        for (int j = from; j < to; j++) {
+            int yp = j * width;
+            int uvp = frameSize + (j >> 1) * width;
+            int u = 0;
+            int v = 0;
+            for (int i = 0; i < width; i++, yp++) {
+                if ((i & 1) == 0) {
+                    v = (0xff & nv21[uvp++]) - 128;
+                    u = (0xff & nv21[uvp++]) - 128;
+                }
+
+                // ITU-R BT.601 video range, 10 bits fixed point.
+                int y = (0xff & nv21[yp]) - 16;
+                if (y < 0) y = 0;
+                int y1192 = 1192 * y;
+                int r = clamp(y1192 + 1634 * v);
+                int g = clamp(y1192 - 833 * v - 400 * u);
+                int b = clamp(y1192 + 2066 * u);
+
+                dst[o++] = (byte) (r >> 10);
+                dst[o++] = (byte) (g >> 10);
+                dst[o++] = (byte) (b >> 10);
+                if (bytesPerPixel == 4) {
+                    dst[o++] = (byte) 0xff;
+                }
+            }
+        }
+    }
+
+    public static byte[] convert(int[] argb, int width, int height, String format) {
+        return convert(argb, width, height, format, null);
+    }
+
+    public static byte[] convert(int[] argb, int width, int height, String format, byte[] dst) {
+        int bytesPerPixel = getBytesPerPixel(format);
+        byte[] out = obtain(dst, width * height * bytesPerPixel);
+
+        ConvertKernel kernel = sConvertKernel.get();
+        kernel.set(null, argb, width, height, bytesPerPixel, out);
+        try {
+            RowBands.run(height, (long) width * height, kernel);
+        } finally {
+            kernel.set(null, null, 0, 0, 0, null);
+        }
+
+        return out;
+    }
+
+    // Converts rows of either a NV21 frame or ARGB pixels.
+    private static class ConvertKernel implements RowBands.Kernel {
+        private byte[] mNv21;
+        private int[] mArgb;
+        private int mWidth;
+        private int mFrameSize;
+        private int mBytesPerPixel;
+        private byte[] mOut;
+
+        void set(byte[] nv21, int[] argb, int width, int height, int bytesPerPixel, byte[] out) {
+            mNv21 = nv21;
+            mArgb = argb;
+            mWidth = width;
+            mFrameSize = width * height;
+            mBytesPerPixel = bytesPerPixel;
+            mOut = out;
+        }
+
+        @Override
+        public void run(int from, int to) {
+            if (mNv21 != null) {
+                convertRows(mNv21, mWidth, mFrameSize, mBytesPerPixel, mOut, from, to);
+            } else {
+                convertRows(mArgb, mWidth, mBytesPerPixel, mOut, from, to);
+            }
+        }
+    }
+
+    private static void convertRows(int[] argb, int width, int bytesPerPixel, byte[] dst, int from, int to) {
+        int o = from * width * bytesPerPixel;
+        for (int p = from * width; p < to * width; p++) {
+            int color = argb[p];
+            int r = (color >> 16) & 0xff;
+            int g = (color >> 8) & 0xff;
+            int b = color & 0xff;
+            if (bytesPerPixel == 1) {
+                // ITU-R BT.601 luma, 8 bits fixed point.
+                dst[o++] = (byte) ((66 * r + 129 * g + 25 * b + 128 >> 8) + 16);
+            } else {
+                dst[o++] = (byte) r;
+                dst[o++] = (byte) g;
+                dst[o++] = (byte) b;
+                if (bytesPerPixel == 4) {
+                    dst[o++] = (byte) ((color >> 24) & 0xff);
+                }
+            }
+        }
+    }
+
+    private static byte[] obtain(byte[] dst, int size) {
+        return dst != null && dst.length == size ? dst : new byte[size];
+    }
+
+    private static int clamp(int value) {
+        if (value < 0) {
+            return 0;
+        } else if (value > 262143) {
+            return 262143;
+        } else {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+// Replays recorded NV21 frames from disk, in order, so that the pipeline can
+// be driven without a camera. The recording is a plain concatenation of
+// width x height NV21 frames, optionally paired with a text file holding one
+// timestamp (milliseconds) per frame.
+//
+// With a positive fps frames are paced at that rate and a frame finding every
+// buffer in flight is skipped, like a camera would drop it. Otherwise frames
+// are delivered as fast as the pipeline releases buffers, none is skipped.
+public class Nv21FileSource implements FrameSource {
+    private static final String TAG = "CanvasCamera";
+    private static final boolean LOGGING = false;
+
+    private final File mFile;
+    private final File mTimestampsFile;
+    private final int mWidth;
+    private final int mHeight;
+    private final double mFps;
+    private final boolean mLoop;
+    private final PreviewBufferPool mBufferPool;
+    private final Listener mListener;
+
+    private long[] mTimestamps = null;
+    private int mFrameCount = 0;
+    private Thread mThread = null;
+    private volatile boolean mRunning = false;
+    private volatile long mDelivered = 0;
+    private volatile long mSkipped = 0;
+
+    private final Runnable mReplay = new Runnable() {
+        public void run() {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(mFile, "r");
+                replay(file);
+            } catch (IOException e) {
+                if (mRunning) {
+                    if (LOGGING) Log.e(TAG, "Could not replay frames : " + e.getMessage());
+                    mListener.onError(e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                // Closed.
+            } finally {
+                if (file != null) {
+                    try {
+                        file.close();
+                    } catch (IOException e) {
+                        if (LOGGING) Log.e(TAG, "Could not close replay file : " + e.getMessage());
+                    }
+                }
+            }
+        }
+    };
+
+    public Nv21FileSource(File file, File timestampsFile, int width, int height, double fps, boolean loop, PreviewBufferPool bufferPool, Listener listener) {
+        mFile = file;
+        mTimestampsFile = timestampsFile;
+        mWidth = width;
+        mHeight = height;
+        mFps = fps;
+        mLoop = loop;
+        mBufferPool = bufferPool;
+        mListener = listener;
+    }
+
+    public boolean open() {
+        // Stops a running replay first, outside the lock (see close()).
+        close();
+
+        synchronized (this) {
+            return start();
+        }
+    }
+
+    private boolean start() {
+        int frameSize = getFrameSize();
+        if (mWidth <= 0 || mHeight <= 0 || mWidth % 2 != 0 || mHeight % 2 != 0) {
+            if (LOGGING) Log.e(TAG, "Invalid replay frame size : " + mWidth + "x" + mHeight + ".");
+            return false;
+        }
+        if (!mFile.isFile() || mFile.length() < frameSize) {
+            if (LOGGING) Log.e(TAG, "No frame to replay in " + mFile.getPath() + ".");
+            return false;
+        }
+
+        mFrameCount = (int) (mFile.length() / frameSize);
+
+        if (mTimestampsFile != null) {
+            try {
+                mTimestamps = readTimestamps(mTimestampsFile, mFrameCount);
+            } catch (Exception e) {
+                if (LOGGING) Log.e(TAG, "Could not read replay timestamps : " + e.getMessage());
+                return false;
+            }
+        }
+
+        mBufferPool.attach(frameSize);
+
+        mDelivered = 0;
+        mSkipped = 0;
+        mRunning = true;
+        mThread = new Thread(mReplay, "FrameReplayThread");
+        mThread.start();
+
+        if (LOGGING)
+            Log.i(TAG, "Replaying " + mFrameCount + " frames of " + mWidth + "x" + mHeight + " from " + mFile.getPath() + ".");
+        return true;
+    }
+
+    // Stops the replay and waits for the replay thread to end, without
+    // holding the lock the thread may need on its way out.
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public synchronized boolean isOpened() {
+        return mThread != null;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int[] getFpsRange() {
+        int fps = (int) (Math.max(0, mFps) * 1000);
+        return new int[]{fps, fps};
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getDeliveredCount() {
+        return mDelivered;
+    }
+
+    // Paced frames that found every buffer in flight.
+    public long getSkippedCount() {
+        return mSkipped;
+    }
+
+    private int getFrameSize() {
+        return mWidth * mHeight * 3 / 2;
+    }
+
+    private void replay(RandomAccessFile file) throws IOException, InterruptedException {
+        int frameSize = getFrameSize();
+        long intervalNanos = mFps > 0 ? (long) (1000000000L / mFps) : 0;
+        long startNanos = System.nanoTime();
+        long startMillis = System.currentTimeMillis();
+
+        // Recorded timestamps keep increasing from one loop to the next.
+        long loopDuration = 0;
+        if (mTimestamps != null && mFrameCount > 0) {
+            long span = mTimestamps[mFrameCount - 1] - mTimestamps[0];
+            loopDuration = span + (mFrameCount > 1 ? span / (mFrameCount - 1) : 0);
+        }
+
+        long index = 0;
+        int loop = 0;
+        int frame = 0;
+        while (mRunning) {
+            if (frame == mFrameCount) {
+                if (!mLoop) {
+                    if (LOGGING) Log.i(TAG, "Replay ended after " + index + " frames.");
+                    return;
+                }
+                frame = 0;
+                loop++;
+            }
+
+            byte[] data;
+            if (intervalNanos > 0) {
+                long wait = startNanos + index * intervalNanos - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                }
+                data = mBufferPool.obtain();
+                if (data == null) {
+                    // Every buffer is still being rendered, counted as starved by the pool.
+                    mSkipped++;
+                    frame++;
+                    index++;
+                    continue;
+                }
+            } else {
+                // Back pressure : waits for the pipeline to release a buffer instead of skipping frames.
+                data = mBufferPool.take();
+            }
+
+            long receivedAt = System.nanoTime();
+            try {
+                file.seek((long) frame * frameSize);
+                file.readFully(data, 0, frameSize);
+            } catch (IOException e) {
+                mBufferPool.release(data);
+                throw e;
+            }
+
+            long timestamp;
+            if (mTimestamps != null) {
+                timestamp = mTimestamps[frame] + loop * loopDuration;
+            } else if (intervalNanos > 0) {
+                timestamp = startMillis + index * intervalNanos / 1000000L;
+            } else {
+                timestamp = System.currentTimeMillis();
+            }
+
+            mDelivered++;
+            mListener.onFrame(data, mWidth, mHeight, ImageFormat.NV21, timestamp, receivedAt);
+
+            frame++;
+            index++;
+        }
+    }
+
+    private static long[] readTimestamps(File file, int frameCount) throws Exception {
+        List<Long> timestamps = new ArrayList<Long>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    timestamps.add(Long.parseLong(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (timestamps.size() < frameCount) {
+            throw new Exception("Expected " + frameCount + " timestamps, found " + timestamps.size() + ".");
+        }
+
+        long[] result = new long[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            result[i] = timestamps.get(i);
+        }
+        return result;
+    }
+}
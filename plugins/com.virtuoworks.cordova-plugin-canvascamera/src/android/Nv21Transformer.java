@@ -0,0 +1,377 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+public class Nv21Transformer {
+
+    // Reused from frame to frame, one per calling thread.
+    private static final ThreadLocal<SampleKernel> sSampleKernel = new ThreadLocal<SampleKernel>() {
+        @Override
+        protected SampleKernel initialValue() {
+            return new SampleKernel();
+        }
+    };
+
+    private Nv21Transformer() {}
+
+    public static int getOutputWidth(int width, int height, int angle) {
+        return isTransposed(angle) ? toEven(height) : toEven(width);
+    }
+
+    public static int getOutputHeight(int width, int height, int angle) {
+        return isTransposed(angle) ? toEven(width) : toEven(height);
+    }
+
+    public static byte[] transform(byte[] src, int srcWidth, int srcHeight, int width, int height, int angle, boolean mirror) {
+        return transform(src, srcWidth, srcHeight, new int[]{0, 0, srcWidth, srcHeight}, width, height, angle, mirror);
+    }
+
+    // Crops a NV21 frame to crop (left, top, width, height), scales it to
+    // width x height, mirrors it horizontally if requested, then rotates it
+    // clockwise by angle. Mirroring happens before rotation, like the Matrix
+    // (preScale then postRotate) used on bitmaps. Sampling is nearest
+    // neighbour on pixel centers, chroma is sampled from the source pixel
+    // matching the top left luma of each 2x2 output block.
+    public static byte[] transform(byte[] src, int srcWidth, int srcHeight, int[] crop, int width, int height, int angle, boolean mirror) {
+        return transform(src, srcWidth, srcHeight, crop, width, height, angle, mirror, null);
+    }
+
+    // Same as above, written to dst when it fits the output frame exactly.
+    public static byte[] transform(byte[] src, int srcWidth, int srcHeight, int[] crop, int width, int height, int angle, boolean mirror, byte[] dst) {
+        width = toEven(width);
+        height = toEven(height);
+        angle = ((angle % 360) + 360) % 360;
+
+        if (width == crop[2] && height == crop[3] && angle % 90 == 0 && isEven(crop)) {
+            // Nothing to scale, sampling degenerates to a plain crop, mirror and rotate.
+            return Yuv420Kernels.transform(src, Yuv420Kernels.NV21, srcWidth, srcHeight, crop, angle, mirror, dst, Yuv420Kernels.NV21);
+        }
+
+        return transform(src, srcWidth, srcHeight, getLuts(srcWidth, crop, width, height, angle, mirror), dst);
+    }
+
+    // Source offsets sampled for each output column and row, luma then
+    // chroma, as used by transform(). They only depend on the geometry, so
+    // they can be kept for every frame of the same size. Returns null when
+    // the transform is a plain crop, mirror and rotate (see Yuv420Kernels).
+    public static int[][] getLuts(int srcWidth, int[] crop, int width, int height, int angle, boolean mirror) {
+        width = toEven(width);
+        height = toEven(height);
+        angle = ((angle % 360) + 360) % 360;
+
+        if (width == crop[2] && height == crop[3] && angle % 90 == 0 && isEven(crop)) {
+            return null;
+        }
+
+        boolean transposed = isTransposed(angle);
+        boolean xReverse = mirror ^ (angle == 180 || angle == 270);
+        boolean yReverse = (angle == 90 || angle == 180);
+
+        int outWidth = transposed ? height : width;
+        int outHeight = transposed ? width : height;
+
+        // A source offset is the sum of a column and a row lookup, whichever
+        // source axis each output axis maps to after rotation.
+        if (transposed) {
+            return new int[][]{
+                    getAxisLut(outWidth, 1, height, crop[1], crop[3], yReverse, srcWidth, false),
+                    getAxisLut(outHeight, 1, width, crop[0], crop[2], xReverse, 1, false),
+                    getAxisLut(outWidth / 2, 2, height, crop[1], crop[3], yReverse, srcWidth, true),
+                    getAxisLut(outHeight / 2, 2, width, crop[0], crop[2], xReverse, 2, true)
+            };
+        } else {
+            return new int[][]{
+                    getAxisLut(outWidth, 1, width, crop[0], crop[2], xReverse, 1, false),
+                    getAxisLut(outHeight, 1, height, crop[1], crop[3], yReverse, srcWidth, false),
+                    getAxisLut(outWidth / 2, 2, width, crop[0], crop[2], xReverse, 2, true),
+                    getAxisLut(outHeight / 2, 2, height, crop[1], crop[3], yReverse, srcWidth, true)
+            };
+        }
+    }
+
+    // Samples src through luts from getLuts(), the output frame size is
+    // given by the column and row lookups. Large frames are sampled in bands
+    // of rows on several threads, see RowBands.
+    public static byte[] transform(byte[] src, int srcWidth, int srcHeight, int[][] luts, byte[] dst) {
+        int outWidth = luts[0].length;
+        int outHeight = luts[1].length;
+        byte[] out = Yuv420Kernels.obtain(dst, outWidth, outHeight);
+
+        SampleKernel kernel = sSampleKernel.get();
+        kernel.mSrc = src;
+        kernel.mSrcFrameSize = srcWidth * srcHeight;
+        kernel.mLuts = luts;
+        kernel.mOut = out;
+        try {
+            // A band of output row pairs is two luma rows and their chroma row.
+            RowBands.run(outHeight / 2, (long) outWidth * outHeight, kernel);
+        } finally {
+            // The frames are not kept past the call.
+            kernel.mSrc = null;
+            kernel.mLuts = null;
+            kernel.mOut = null;
+        }
+
+        return out;
+    }
+
+    private static class SampleKernel implements RowBands.Kernel {
+        private byte[] mSrc;
+        private int mSrcFrameSize;
+        private int[][] mLuts;
+        private byte[] mOut;
+
+        @Override
+        public void run(int from, int to) {
+            sampleRows(mSrc, mSrcFrameSize, mLuts[0], mLuts[1], mLuts[2], mLuts[3], mOut, mLuts[0].length, mLuts[1].length, from, to);
+        }
+    }
+
+    private static void sampleRows(byte[] src, int srcFrameSize, int[] colLut, int[] rowLut, int[] chromaColLut, int[] chromaRowLut,
+                                   byte[] dst, int outWidth, int outHeight, int fromPair, int toPair) {
+        // Luma plane
+        int o = 2 * fromPair * outWidth;
+        for (int oy = 2 * fromPair; oy < 2 * toPair; oy++) {
+            int rowOffset = rowLut[oy];
+            for (int ox = 0; ox < outWidth; ox++) {
+                dst[o++] = src[rowOffset + colLut[ox]];
+            }
+        }
+
+        // Interleaved VU plane
+        int chromaWidth = outWidth / 2;
+        o = outWidth * outHeight + fromPair * 2 * chromaWidth;
+        for (int cy = fromPair; cy < toPair; cy++) {
+            int rowOffset = srcFrameSize + chromaRowLut[cy];
+            for (int cx = 0; cx < chromaWidth; cx++) {
+                int s = rowOffset + chromaColLut[cx];
+                dst[o++] = src[s];
+                dst[o++] = src[s + 1];
+            }
+        }
+    }
+
+    // Scales a NV21 frame down to every (width, height) of sizes, largest
+    // first, each level being sampled from the smallest level already built
+    // that is still at least as large, instead of from the full frame.
+    // Levels are returned in the order of sizes, dimensions rounded to even.
+    public static byte[][] cascade(byte[] src, int srcWidth, int srcHeight, int[][] sizes) {
+        return cascade(src, srcWidth, srcHeight, sizes, new byte[sizes.length][]);
+    }
+
+    // Same as above, scaled levels are written to buffers (one per size,
+    // entries may be null), buffers are updated with the arrays used. A level
+    // the size of an already built one shares its array and leaves its buffer
+    // untouched.
+    public static byte[][] cascade(byte[] src, int srcWidth, int srcHeight, int[][] sizes, byte[][] buffers) {
+        return cascade(src, srcWidth, srcHeight, sizes, buffers, new byte[sizes.length][]);
+    }
+
+    // Same as above, the levels are written to levels (one per size) and returned.
+    public static byte[][] cascade(byte[] src, int srcWidth, int srcHeight, int[][] sizes, byte[][] buffers, byte[][] levels) {
+        return cascade(src, new Cascade(srcWidth, srcHeight, sizes), buffers, levels);
+    }
+
+    // Same as above, through a plan built once for the frame size and the
+    // sizes, see Cascade.
+    public static byte[][] cascade(byte[] src, Cascade cascade, byte[][] buffers, byte[][] levels) {
+        for (int i : cascade.mOrder) {
+            int source = cascade.mSources[i];
+            byte[] sourceLevel = source < 0 ? src : levels[source];
+            int[][] luts = cascade.mLuts[i];
+
+            if (luts == null) {
+                levels[i] = sourceLevel;
+            } else {
+                int sourceWidth = source < 0 ? cascade.mSourceWidth : cascade.mSizes[source][0];
+                int sourceHeight = source < 0 ? cascade.mSourceHeight : cascade.mSizes[source][1];
+                levels[i] = transform(sourceLevel, sourceWidth, sourceHeight, luts, buffers[i]);
+                buffers[i] = levels[i];
+            }
+        }
+
+        return levels;
+    }
+
+    // Plan of a cascade for a frame size and a list of sizes : the order the
+    // levels are built in (largest first), the level each one is sampled
+    // from and its lookup tables. Immutable, shared by every frame.
+    public static class Cascade {
+        private final int mSourceWidth;
+        private final int mSourceHeight;
+        // Dimensions rounded to even, in the order of the sizes given.
+        private final int[][] mSizes;
+        private final int[] mOrder;
+        // Level sampled for each level, -1 for the frame itself.
+        private final int[] mSources;
+        // Null when the level is the size of its source and shares its array.
+        private final int[][][] mLuts;
+
+        public Cascade(int srcWidth, int srcHeight, int[][] sizes) {
+            mSourceWidth = srcWidth;
+            mSourceHeight = srcHeight;
+            mSizes = new int[sizes.length][];
+            for (int i = 0; i < sizes.length; i++) {
+                mSizes[i] = new int[]{toEven(sizes[i][0]), toEven(sizes[i][1])};
+            }
+
+            // Stable insertion sort by decreasing pixel count, there are only a few sizes.
+            mOrder = new int[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+                long pixels = (long) sizes[i][0] * sizes[i][1];
+                int j = i;
+                while (j > 0 && (long) sizes[mOrder[j - 1]][0] * sizes[mOrder[j - 1]][1] < pixels) {
+                    mOrder[j] = mOrder[j - 1];
+                    j--;
+                }
+                mOrder[j] = i;
+            }
+
+            mSources = new int[sizes.length];
+            mLuts = new int[sizes.length][][];
+            for (int k = 0; k < mOrder.length; k++) {
+                int i = mOrder[k];
+                int width = mSizes[i][0];
+                int height = mSizes[i][1];
+
+                // Built levels are sorted by decreasing size, the last one large enough is the smallest.
+                int source = -1;
+                int sourceWidth = srcWidth;
+                int sourceHeight = srcHeight;
+                for (int j = 0; j < k; j++) {
+                    int level = mOrder[j];
+                    if (mSizes[level][0] >= width && mSizes[level][1] >= height) {
+                        source = level;
+                        sourceWidth = mSizes[level][0];
+                        sourceHeight = mSizes[level][1];
+                    }
+                }
+
+                mSources[i] = source;
+                if (width != sourceWidth || height != sourceHeight) {
+                    mLuts[i] = getScaleLuts(sourceWidth, sourceHeight, width, height);
+                }
+            }
+        }
+
+        public int getSourceWidth() {
+            return mSourceWidth;
+        }
+
+        public int getSourceHeight() {
+            return mSourceHeight;
+        }
+
+        public int getCount() {
+            return mSizes.length;
+        }
+
+        // Level size, dimensions rounded to even, shared, must not be modified.
+        public int[] getSize(int index) {
+            return mSizes[index];
+        }
+    }
+
+    // Same as getLuts() for a whole frame scaled to width x height, without
+    // rotation nor mirroring.
+    private static int[][] getScaleLuts(int srcWidth, int srcHeight, int width, int height) {
+        return new int[][]{
+                getAxisLut(width, 1, width, 0, srcWidth, false, 1, false),
+                getAxisLut(height, 1, height, 0, srcHeight, false, srcWidth, false),
+                getAxisLut(width / 2, 2, width, 0, srcWidth, false, 2, true),
+                getAxisLut(height / 2, 2, height, 0, srcHeight, false, srcWidth, true)
+        };
+    }
+
+    // Maps a region given in normalized coordinates of the output frame
+    // (after mirroring and rotation) back to a crop (left, top, width, height)
+    // of the srcWidth x srcHeight source frame, aligned on even pixels.
+    public static int[] mapRegion(double x, double y, double width, double height, int srcWidth, int srcHeight, int angle, boolean mirror) {
+        angle = ((angle % 360) + 360) % 360;
+
+        double x0 = x;
+        double x1 = x + width;
+        double y0 = y;
+        double y1 = y + height;
+
+        // Undo the rotation
+        double u0;
+        double u1;
+        double v0;
+        double v1;
+        switch (angle) {
+            case 90:
+                u0 = y0;
+                u1 = y1;
+                v0 = 1 - x1;
+                v1 = 1 - x0;
+                break;
+            case 180:
+                u0 = 1 - x1;
+                u1 = 1 - x0;
+                v0 = 1 - y1;
+                v1 = 1 - y0;
+                break;
+            case 270:
+                u0 = 1 - y1;
+                u1 = 1 - y0;
+                v0 = x0;
+                v1 = x1;
+                break;
+            default:
+                u0 = x0;
+                u1 = x1;
+                v0 = y0;
+                v1 = y1;
+                break;
+        }
+
+        // Undo the mirroring
+        if (mirror) {
+            double u = u0;
+            u0 = 1 - u1;
+            u1 = 1 - u;
+        }
+
+        // Tolerance absorbs the rounding of 1 - x on pixel boundaries.
+        final double EPSILON = 1e-6;
+        int left = clamp((int) Math.floor(u0 * srcWidth + EPSILON), 0, srcWidth - 2) & ~1;
+        int top = clamp((int) Math.floor(v0 * srcHeight + EPSILON), 0, srcHeight - 2) & ~1;
+        int right = clamp((int) Math.ceil(u1 * srcWidth - EPSILON), left + 2, srcWidth);
+        int bottom = clamp((int) Math.ceil(v1 * srcHeight - EPSILON), top + 2, srcHeight);
+
+        return new int[]{left, top, toEven(right - left), toEven(bottom - top)};
+    }
+
+    private static int[] getAxisLut(int count, int step, int scaledLength, int srcOffset, int srcLength, boolean reverse, int unit, boolean chroma) {
+        int[] lut = new int[count];
+        for (int i = 0; i < count; i++) {
+            int p = i * step;
+            if (reverse) {
+                p = scaledLength - 1 - p;
+            }
+            int s = srcOffset + (int) (((2L * p + 1) * srcLength) / (2L * scaledLength));
+            if (chroma) {
+                s >>= 1;
+            }
+            lut[i] = s * unit;
+        }
+        return lut;
+    }
+
+    private static boolean isEven(int[] crop) {
+        return ((crop[0] | crop[1] | crop[2] | crop[3]) & 1) == 0;
+    }
+
+    private static boolean isTransposed(int angle) {
+        angle = ((angle % 360) + 360) % 360;
+        return angle == 90 || angle == 270;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // NV21 needs even dimensions for its 2x2 subsampled chroma.
+    public static int toEven(int value) {
+        return Math.max(2, value & ~1);
+    }
+}
@@ -0,0 +1,174 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+public class PreviewBufferPool {
+    private final int mSize;
+    private final List<byte[]> mBuffers = new ArrayList<byte[]>();
+    private final Set<byte[]> mInFlight = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+
+    private Camera mCamera = null;
+    private boolean mAttached = false;
+    private int mBufferSize = 0;
+
+    private long mReused = 0;
+    // Frames lost for want of an idle buffer.
+    private long mStarved = 0;
+
+    // Legacy camera frames, which drops frames silently while it has no
+    // buffer to fill: the frames missed are counted from the gap between
+    // the frames on each side of the time the pool ran dry.
+    private long mLastAcquiredAt = 0;
+    private long mFrameInterval = 0;
+    private boolean mDry = false;
+
+    public PreviewBufferPool(int size) {
+        mSize = Math.max(1, size);
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    // Allocates the buffers without handing them to a camera, for producers
+    // taking buffers themselves with obtain().
+    public synchronized void attach(int bufferSize) {
+        attach(null, bufferSize);
+    }
+
+    // Hands every idle buffer to the camera. Buffers are kept across camera
+    // restarts as long as the preview buffer size does not change.
+    public synchronized void attach(Camera camera, int bufferSize) {
+        if (bufferSize != mBufferSize) {
+            mBuffers.clear();
+            mInFlight.clear();
+            mBufferSize = bufferSize;
+        }
+
+        while (mBuffers.size() < mSize) {
+            mBuffers.add(new byte[mBufferSize]);
+        }
+
+        mCamera = camera;
+        mAttached = true;
+        // A restart is not a gap in the frames.
+        mLastAcquiredAt = 0;
+        mDry = false;
+        notifyAll();
+
+        if (mCamera != null) {
+            for (byte[] buffer : mBuffers) {
+                if (!mInFlight.contains(buffer)) {
+                    mCamera.addCallbackBuffer(buffer);
+                }
+            }
+        }
+    }
+
+    public synchronized void detach() {
+        mCamera = null;
+        mAttached = false;
+    }
+
+    // Takes an idle buffer, or returns null when every buffer is in flight,
+    // in which case the caller drops its frame.
+    public synchronized byte[] obtain() {
+        byte[] buffer = takeIdle();
+        if (buffer == null && mAttached) {
+            mStarved++;
+        }
+        return buffer;
+    }
+
+    // Takes an idle buffer, waiting for one to be released while every
+    // buffer is in flight or the pool is detached.
+    public synchronized byte[] take() throws InterruptedException {
+        byte[] buffer = takeIdle();
+        while (buffer == null) {
+            wait();
+            buffer = takeIdle();
+        }
+        return buffer;
+    }
+
+    private byte[] takeIdle() {
+        if (mAttached) {
+            for (byte[] buffer : mBuffers) {
+                if (!mInFlight.contains(buffer)) {
+                    mInFlight.add(buffer);
+                    return buffer;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Called when the camera delivers a frame into one of our buffers.
+    public void acquire(byte[] buffer) {
+        acquire(buffer, System.nanoTime());
+    }
+
+    synchronized void acquire(byte[] buffer, long now) {
+        if (buffer != null && buffer.length == mBufferSize) {
+            if (mLastAcquiredAt > 0) {
+                long gap = now - mLastAcquiredAt;
+                if (!mDry) {
+                    // Frame interval, from frames the camera had a buffer for.
+                    mFrameInterval = mFrameInterval == 0 ? gap : (7 * mFrameInterval + gap) / 8;
+                } else if (mFrameInterval > 0) {
+                    // The camera ran dry after the previous frame, every
+                    // interval past the first in the gap is a dropped frame.
+                    long missed = Math.round((double) gap / mFrameInterval) - 1;
+                    if (missed > 0) {
+                        mStarved += missed;
+                    }
+                }
+            }
+            mLastAcquiredAt = now;
+
+            mInFlight.add(buffer);
+            // The camera has no buffer left to fill until one is released,
+            // frames are only lost if that takes longer than a frame.
+            mDry = mInFlight.size() >= mBuffers.size();
+        }
+    }
+
+    // Gives a buffer back to the camera once the pipeline is done with it.
+    public synchronized void release(byte[] buffer) {
+        if (buffer != null && mInFlight.remove(buffer)) {
+            if (mCamera != null) {
+                mCamera.addCallbackBuffer(buffer);
+                mReused++;
+            } else if (mAttached) {
+                mReused++;
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized int getBufferSize() {
+        return mBufferSize;
+    }
+
+    public synchronized int getAllocatedCount() {
+        return mBuffers.size();
+    }
+
+    public synchronized int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    public synchronized long getReusedCount() {
+        return mReused;
+    }
+
+    public synchronized long getStarvedCount() {
+        return mStarved;
+    }
+}
@@ -0,0 +1,142 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.Arrays;
+
+// Frames are recycled through a PreviewFramePool once rendered, they must
+// not be kept past the stage they are handed to.
+public class PreviewFrame {
+    private byte[] mData;
+    private int mWidth;
+    private int mHeight;
+    private int mFormat;
+    private long mTimestamp;
+    private long mSequence;
+
+    private int mRotation = 0;
+    private boolean mMirrored = false;
+    private String mOrientation = "unknown";
+    private int[] mCrop;
+    private final int[] mFullCrop = new int[4];
+    private long mReceivedAt;
+    private long mQueuedAt;
+    private final long[] mTimings = new long[FrameStats.STAGES.length];
+
+    public PreviewFrame(byte[] data, int width, int height, int format, long timestamp, long sequence) {
+        reset(data, width, height, format, timestamp, sequence);
+    }
+
+    // Turns a recycled frame into a new one, as the constructor.
+    void reset(byte[] data, int width, int height, int format, long timestamp, long sequence) {
+        mData = data;
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mTimestamp = timestamp;
+        mSequence = sequence;
+        mRotation = 0;
+        mMirrored = false;
+        mOrientation = "unknown";
+        mFullCrop[0] = 0;
+        mFullCrop[1] = 0;
+        mFullCrop[2] = width;
+        mFullCrop[3] = height;
+        mCrop = mFullCrop;
+        mReceivedAt = System.nanoTime();
+        mQueuedAt = mReceivedAt;
+        Arrays.fill(mTimings, -1);
+    }
+
+    // Preview bytes, owned by the preview buffer pool.
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    // Wall clock time in milliseconds at which the camera delivered the frame.
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    // Incremented for every delivered frame, gaps are frames that were not rendered.
+    public long getSequence() {
+        return mSequence;
+    }
+
+    // Clockwise rotation applied to the output image, set when rendering starts.
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public void setRotation(int rotation) {
+        mRotation = rotation;
+    }
+
+    // Whether the output image is mirrored (front camera), set when rendering starts.
+    public boolean isMirrored() {
+        return mMirrored;
+    }
+
+    public void setMirrored(boolean mirrored) {
+        mMirrored = mirrored;
+    }
+
+    // Device orientation, "portrait", "landscape" or "unknown", set when rendering starts.
+    public String getOrientation() {
+        return mOrientation;
+    }
+
+    public void setOrientation(String orientation) {
+        mOrientation = orientation;
+    }
+
+    // Region of interest (left, top, width, height) in source frame pixels, the full frame by default.
+    public int[] getCrop() {
+        return mCrop;
+    }
+
+    public void setCrop(int[] crop) {
+        mCrop = crop;
+    }
+
+    // System.nanoTime() when the camera handed the frame over, construction time by default.
+    public long getReceivedAt() {
+        return mReceivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        mReceivedAt = receivedAt;
+    }
+
+    // System.nanoTime() when the frame was queued for rendering.
+    public long getQueuedAt() {
+        return mQueuedAt;
+    }
+
+    public void setQueuedAt(long queuedAt) {
+        mQueuedAt = queuedAt;
+    }
+
+    // Nanoseconds spent in each FrameStats stage, -1 for stages the frame did not go through.
+    public long[] getTimings() {
+        return mTimings;
+    }
+
+    // Adds the time elapsed since start to a stage and returns the current time,
+    // so that consecutive stages can be chained.
+    public long mark(int stage, long start) {
+        long now = System.nanoTime();
+        mTimings[stage] = Math.max(0, mTimings[stage]) + (now - start);
+        return now;
+    }
+}
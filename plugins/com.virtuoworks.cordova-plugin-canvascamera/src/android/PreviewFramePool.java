@@ -0,0 +1,50 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Preview frames, recycled once the deliver stage is done with them, which
+// can be after their preview buffer went back to the camera. There are never
+// more frames in flight than preview buffers and render slots.
+public class PreviewFramePool {
+    private final int mSize;
+    private final List<PreviewFrame> mIdle = new ArrayList<PreviewFrame>();
+
+    private long mCreated = 0;
+
+    public PreviewFramePool(int size) {
+        mSize = Math.max(1, size);
+    }
+
+    // Takes an idle frame, or a new one when every frame is in flight.
+    public synchronized PreviewFrame obtain(byte[] data, int width, int height, int format, long timestamp, long sequence) {
+        int last = mIdle.size() - 1;
+        if (last < 0) {
+            mCreated++;
+            return new PreviewFrame(data, width, height, format, timestamp, sequence);
+        }
+
+        PreviewFrame frame = mIdle.remove(last);
+        frame.reset(data, width, height, format, timestamp, sequence);
+        return frame;
+    }
+
+    // Frames recycled twice are only kept once, frames beyond the pool size
+    // are left to the garbage collector.
+    public synchronized void recycle(PreviewFrame frame) {
+        if (frame == null || mIdle.size() >= mSize) {
+            return;
+        }
+        for (int i = 0; i < mIdle.size(); i++) {
+            if (mIdle.get(i) == frame) {
+                return;
+            }
+        }
+        mIdle.add(frame);
+    }
+
+    // Frames allocated because none was idle.
+    public synchronized long getCreatedCount() {
+        return mCreated;
+    }
+}
@@ -0,0 +1,199 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Closed loop quality of service : follows the per frame latency (camera
+// callback to result sent) and the frame queue congestion, and walks a
+// ladder of operating points when the pipeline can't keep up with the
+// latency target or has room to spare.
+//
+// The ladder lowers the encoding quality first (no camera restart), then the
+// frame rate, then the capture size, and climbs back in the reverse order.
+// Lowering needs DEGRADE_FRAMES consecutive late frames, raising needs a
+// longer run of frames well under the target, and that run doubles every
+// time a raise is quickly followed by a drop, so the controller settles
+// instead of flapping between two points.
+public class QosController {
+
+    public static class OperatingPoint {
+        private final int mLevel;
+        private final int mQuality;
+        private final int mFps;
+        private final int mWidth;
+        private final int mHeight;
+
+        OperatingPoint(int level, int quality, int fps, int width, int height) {
+            mLevel = level;
+            mQuality = quality;
+            mFps = fps;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        // 0 is the configured operating point, higher levels are cheaper.
+        public int getLevel() {
+            return mLevel;
+        }
+
+        public int getQuality() {
+            return mQuality;
+        }
+
+        public int getFps() {
+            return mFps;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+    }
+
+    private static final int QUALITY_STEP = 15;
+    private static final double[] FPS_FACTORS = {1.0, 0.75, 0.5, 0.25};
+    private static final double[] SCALE_FACTORS = {1.0, 0.75, 0.5, 0.25};
+
+    // Latency moving average weight.
+    private static final double LATENCY_WEIGHT = 0.2;
+    // Late when over the target, idle when under UPGRADE_RATIO of it.
+    private static final double UPGRADE_RATIO = 0.6;
+    private static final int DEGRADE_FRAMES = 5;
+    private static final int UPGRADE_FRAMES = 30;
+    private static final int MAX_UPGRADE_FRAMES = 960;
+    // Frames ignored after a change, while the pipeline settles.
+    private static final int SETTLE_FRAMES = 10;
+
+    private final double mTarget;
+    private final List<OperatingPoint> mLadder = new ArrayList<OperatingPoint>();
+
+    private int mLevel = 0;
+    private double mLatency = -1;
+    private int mLateFrames = 0;
+    private int mIdleFrames = 0;
+    private int mSettleFrames = 0;
+    private int mUpgradeFrames = UPGRADE_FRAMES;
+    private long mFrame = 0;
+    private long mUpgradedAt = -1;
+
+    public QosController(double target, int quality, int fps, int width, int height, int minQuality, int minFps, double minScale) {
+        mTarget = target;
+
+        List<Integer> qualities = new ArrayList<Integer>();
+        for (int q = quality; q > minQuality; q -= QUALITY_STEP) {
+            qualities.add(q);
+        }
+        qualities.add(Math.min(quality, minQuality));
+
+        List<Integer> rates = new ArrayList<Integer>();
+        for (double factor : FPS_FACTORS) {
+            int rate = (int) Math.round(fps * factor);
+            if (rate < minFps) break;
+            rates.add(rate);
+        }
+        if (rates.isEmpty() || rates.get(rates.size() - 1) > minFps) {
+            rates.add(Math.min(fps, minFps));
+        }
+
+        List<Double> scales = new ArrayList<Double>();
+        for (double factor : SCALE_FACTORS) {
+            if (factor < minScale) break;
+            scales.add(factor);
+        }
+        if (scales.isEmpty() || scales.get(scales.size() - 1) > minScale) {
+            scales.add(Math.min(1.0, minScale));
+        }
+
+        int minQ = qualities.get(qualities.size() - 1);
+        int minRate = rates.get(rates.size() - 1);
+        for (int q : qualities) {
+            add(q, fps, width, height);
+        }
+        for (int i = 1; i < rates.size(); i++) {
+            add(minQ, rates.get(i), width, height);
+        }
+        for (int i = 1; i < scales.size(); i++) {
+            add(minQ, minRate, (int) (width * scales.get(i)), (int) (height * scales.get(i)));
+        }
+    }
+
+    private void add(int quality, int fps, int width, int height) {
+        mLadder.add(new OperatingPoint(mLadder.size(), quality, Math.max(1, fps), Math.max(2, width), Math.max(2, height)));
+    }
+
+    public double getTarget() {
+        return mTarget;
+    }
+
+    public int getLevelCount() {
+        return mLadder.size();
+    }
+
+    public synchronized OperatingPoint getOperatingPoint() {
+        return mLadder.get(mLevel);
+    }
+
+    // Moving average of the frame latency in milliseconds, -1 before the first frame.
+    public synchronized double getLatency() {
+        return mLatency;
+    }
+
+    public synchronized void reset() {
+        mLevel = 0;
+        mLatency = -1;
+        mLateFrames = 0;
+        mIdleFrames = 0;
+        mSettleFrames = 0;
+        mUpgradeFrames = UPGRADE_FRAMES;
+        mFrame = 0;
+        mUpgradedAt = -1;
+    }
+
+    // Feeds one rendered frame, congested when frames had to be dropped from
+    // the queue since the previous one. Returns true when the operating
+    // point changed.
+    public synchronized boolean onFrame(double latency, boolean congested) {
+        mFrame++;
+
+        if (mSettleFrames > 0) {
+            mSettleFrames--;
+            return false;
+        }
+
+        mLatency = mLatency < 0 ? latency : mLatency + (latency - mLatency) * LATENCY_WEIGHT;
+
+        if (congested || mLatency > mTarget) {
+            mIdleFrames = 0;
+            if (++mLateFrames >= DEGRADE_FRAMES && mLevel < mLadder.size() - 1) {
+                if (mUpgradedAt >= 0 && mFrame - mUpgradedAt < 2L * mUpgradeFrames) {
+                    // The last raise did not hold, wait longer before the next one.
+                    mUpgradeFrames = Math.min(MAX_UPGRADE_FRAMES, mUpgradeFrames * 2);
+                }
+                return change(mLevel + 1);
+            }
+        } else if (mLatency < mTarget * UPGRADE_RATIO) {
+            mLateFrames = 0;
+            if (++mIdleFrames >= mUpgradeFrames && mLevel > 0) {
+                mUpgradedAt = mFrame;
+                return change(mLevel - 1);
+            }
+        } else {
+            mLateFrames = 0;
+            mIdleFrames = 0;
+        }
+
+        return false;
+    }
+
+    private boolean change(int level) {
+        mLevel = level;
+        mLateFrames = 0;
+        mIdleFrames = 0;
+        mSettleFrames = SETTLE_FRAMES;
+        mLatency = -1;
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Splits the rows of a frame into bands processed on a shared ForkJoinPool,
+// for frames large enough for the other cores to pay off, smaller frames stay
+// on the calling thread. Kernels write each output row from its own inputs
+// only, so the result is the same whatever the bands and their order.
+public class RowBands {
+
+    public interface Kernel {
+        // Processes rows from (inclusive) to to (exclusive), may run on any thread.
+        void run(int from, int to);
+    }
+
+    // 1280x720, frames of fewer output pixels are processed on one thread.
+    public static final int DEFAULT_THRESHOLD = 1280 * 720;
+
+    // Bands below this many rows cost more to schedule than they save.
+    private static final int MIN_BAND_ROWS = 8;
+    // Bands per thread, so that a slower core does not hold the others back.
+    private static final int BANDS_PER_THREAD = 4;
+
+    private static volatile int sThreshold = DEFAULT_THRESHOLD;
+    private static volatile int sParallelism = Runtime.getRuntime().availableProcessors();
+    // Current pool, replaced when the parallelism changes.
+    private static Pool sPool = null;
+
+    private RowBands() {}
+
+    // Output pixel count from which frames are split, 0 disables splitting.
+    // parallelism is the number of threads, the core count by default.
+    public static synchronized void configure(int threshold, int parallelism) {
+        sThreshold = threshold;
+        parallelism = Math.max(1, parallelism);
+        if (parallelism != sParallelism) {
+            // Running bands complete on the previous pool, the next frames start a new one.
+            shutdown();
+        }
+        sParallelism = parallelism;
+    }
+
+    // Shuts the pool down, when the plugin is destroyed. Frames being
+    // processed complete first, a later frame starts a new pool.
+    public static synchronized void shutdown() {
+        if (sPool != null) {
+            sPool.mRetired = true;
+            if (sPool.mUsers == 0) {
+                sPool.mForkJoinPool.shutdown();
+            }
+            sPool = null;
+        }
+    }
+
+    public static int getThreshold() {
+        return sThreshold;
+    }
+
+    public static int getParallelism() {
+        return sParallelism;
+    }
+
+    public static boolean isParallel(long pixels) {
+        int threshold = sThreshold;
+        return threshold > 0 && pixels >= threshold && sParallelism > 1;
+    }
+
+    // Runs kernel over rows [0, rows), in bands when pixels (the output pixel
+    // count) reaches the threshold. Returns once every row is processed.
+    public static void run(int rows, long pixels, Kernel kernel) {
+        if (!isParallel(pixels) || rows < 2 * MIN_BAND_ROWS) {
+            kernel.run(0, rows);
+            return;
+        }
+
+        // A pool replaced meanwhile is only shut down once released, the
+        // frame never runs on a pool that rejects or cancels its bands.
+        Pool pool = acquire();
+        try {
+            ForkJoinPool forkJoinPool = pool.mForkJoinPool;
+            int grain = Math.max(MIN_BAND_ROWS, rows / (forkJoinPool.getParallelism() * BANDS_PER_THREAD));
+            forkJoinPool.invoke(new Band(kernel, 0, rows, grain));
+        } finally {
+            release(pool);
+        }
+    }
+
+    private static synchronized Pool acquire() {
+        if (sPool == null) {
+            sPool = new Pool(new ForkJoinPool(sParallelism));
+        }
+        sPool.mUsers++;
+        return sPool;
+    }
+
+    private static synchronized void release(Pool pool) {
+        pool.mUsers--;
+        if (pool.mUsers == 0 && pool.mRetired) {
+            pool.mForkJoinPool.shutdown();
+        }
+    }
+
+    // A pool and the frames using it, guarded by the class lock.
+    private static class Pool {
+        private final ForkJoinPool mForkJoinPool;
+        private int mUsers = 0;
+        // Replaced or shut down, ends with its last frame.
+        private boolean mRetired = false;
+
+        Pool(ForkJoinPool forkJoinPool) {
+            mForkJoinPool = forkJoinPool;
+        }
+    }
+
+    private static class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Bands are never serialized.
+        private final transient Kernel mKernel;
+        private final int mFrom;
+        private final int mTo;
+        private final int mGrain;
+
+        Band(Kernel kernel, int from, int to, int grain) {
+            mKernel = kernel;
+            mFrom = from;
+            mTo = to;
+            mGrain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mGrain) {
+                mKernel.run(mFrom, mTo);
+                return;
+            }
+
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new Band(mKernel, mFrom, middle, mGrain), new Band(mKernel, middle, mTo, mGrain));
+        }
+    }
+}
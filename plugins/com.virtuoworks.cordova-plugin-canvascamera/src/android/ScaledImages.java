@@ -0,0 +1,145 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import android.graphics.ImageFormat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Thumbnail and additional outputs of a frame, scaled down from the fullsize
+// image and encoded. A render slot keeps one and refills it for every frame,
+// the lists, maps, sizes and level buffers are reused, so only the encoders
+// allocate once the number of images is stable. The levels are planned with
+// the frame transform, see FrameTransform.getCascade().
+public class ScaledImages {
+    private final List<String> mNames = new ArrayList<String>();
+    private final List<FrameEncoder> mEncoders = new ArrayList<FrameEncoder>();
+    // Requested size of each image to scale, one per image as the cascade expects.
+    private int[][] mSizes = new int[0][];
+    // Size of each scaled image, dimensions rounded to even.
+    private int[][] mScaledSizes = new int[0][];
+    private int[][] mCrops = new int[0][];
+    private byte[][] mBuffers = new byte[0][];
+    private byte[][] mLevels = new byte[0][];
+
+    private final Map<String, byte[]> mImages = new HashMap<String, byte[]>();
+    private final Map<String, int[]> mImageSizes = new HashMap<String, int[]>();
+    // Names put in the maps since the last clear().
+    private final List<String> mKeys = new ArrayList<String>();
+
+    // Clears the images, the buffers are kept.
+    public void clear() {
+        for (int i = 0; i < mKeys.size(); i++) {
+            // The values are cleared rather than the maps, the entries are reused.
+            mImages.put(mKeys.get(i), null);
+            mImageSizes.put(mKeys.get(i), null);
+        }
+        mKeys.clear();
+        mNames.clear();
+        mEncoders.clear();
+    }
+
+    // Starts a new frame of count images to scale, see add().
+    public void reset(int count) {
+        clear();
+        if (mSizes.length != count) {
+            mSizes = new int[count][2];
+            mScaledSizes = new int[count][2];
+            mCrops = new int[count][4];
+            mBuffers = new byte[count][];
+            mLevels = new byte[count][];
+        }
+    }
+
+    // Adds an image to scale to width x height, up to the count given to reset().
+    public void add(String name, int width, int height, FrameEncoder encoder) {
+        int index = mNames.size();
+        mSizes[index][0] = width;
+        mSizes[index][1] = height;
+        mNames.add(name);
+        mEncoders.add(encoder);
+    }
+
+    // Adds the image of the next level of the cascade given to scale().
+    public void add(String name, FrameEncoder encoder) {
+        mNames.add(name);
+        mEncoders.add(encoder);
+    }
+
+    // Puts an image as is, e.g. a thumbnail too small to be scaled down.
+    public void put(String name, byte[] data, int[] size) {
+        mKeys.add(name);
+        mImages.put(name, data);
+        mImageSizes.put(name, size);
+    }
+
+    // Puts the added image at index, scaled by the caller to its requested size.
+    public void put(int index, byte[] data) {
+        put(mNames.get(index), data, mSizes[index]);
+    }
+
+    // Scales every added image down from a width x height NV21 frame (see
+    // Nv21Transformer.cascade) and encodes it.
+    public void scale(byte[] frame, int width, int height) {
+        if (mNames.size() != mSizes.length) {
+            throw new IllegalStateException("Scaled " + mNames.size() + " of " + mSizes.length + " images");
+        }
+
+        Nv21Transformer.cascade(frame, width, height, mSizes, mBuffers, mLevels);
+        encode();
+    }
+
+    // Same as above through a planned cascade, one level per added image
+    // and in the same order, the frame being its source size.
+    public void scale(byte[] frame, Nv21Transformer.Cascade cascade) {
+        if (mNames.size() != mSizes.length || cascade.getCount() != mSizes.length) {
+            throw new IllegalStateException("Scaled " + mNames.size() + " of " + mSizes.length + " images, " + cascade.getCount() + " levels");
+        }
+
+        for (int i = 0; i < mSizes.length; i++) {
+            mSizes[i][0] = cascade.getSize(i)[0];
+            mSizes[i][1] = cascade.getSize(i)[1];
+        }
+        Nv21Transformer.cascade(frame, cascade, mBuffers, mLevels);
+        encode();
+    }
+
+    private void encode() {
+        for (int i = 0; i < mSizes.length; i++) {
+            int[] size = mScaledSizes[i];
+            size[0] = Nv21Transformer.toEven(mSizes[i][0]);
+            size[1] = Nv21Transformer.toEven(mSizes[i][1]);
+            int[] crop = mCrops[i];
+            crop[2] = size[0];
+            crop[3] = size[1];
+            put(mNames.get(i), mEncoders.get(i).encode(mLevels[i], ImageFormat.NV21, size[0], size[1], crop), size);
+        }
+    }
+
+    public int getCount() {
+        return mNames.size();
+    }
+
+    public String getName(int index) {
+        return mNames.get(index);
+    }
+
+    public FrameEncoder getEncoder(int index) {
+        return mEncoders.get(index);
+    }
+
+    // Requested size of the added image at index.
+    public int[] getSize(int index) {
+        return mSizes[index];
+    }
+
+    // Null when no image of this name was put for the frame.
+    public byte[] getImage(String name) {
+        return mImages.get(name);
+    }
+
+    public int[] getImageSize(String name) {
+        return mImageSizes.get(name);
+    }
+}
@@ -0,0 +1,73 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded lock free ring for exactly one producer thread and one consumer
+// thread : the producer only writes the tail, the consumer only writes the
+// head. The tail is published with a volatile write, so a consumer unparked
+// after an offer always sees the item, the head with an ordered write.
+// Nothing is allocated once the ring exists.
+public class SpscRing<T> {
+    private final Object[] mItems;
+    private final int mCapacity;
+
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    // Occupancy seen by the producer after each offer, written by the producer only.
+    private volatile long mOffered = 0;
+    private volatile long mOccupancySum = 0;
+
+    public SpscRing(int capacity) {
+        mCapacity = Math.max(1, capacity);
+        mItems = new Object[mCapacity];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    // Producer side, returns false when the ring is full.
+    public boolean offer(T item) {
+        long tail = mTail.get();
+        if (tail - mHead.get() >= mCapacity) {
+            return false;
+        }
+        mItems[(int) (tail % mCapacity)] = item;
+        mTail.set(tail + 1);
+
+        int occupancy = (int) (tail + 1 - mHead.get());
+        mOffered = mOffered + 1;
+        mOccupancySum = mOccupancySum + occupancy;
+        return true;
+    }
+
+    // Consumer side, returns null when the ring is empty.
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long head = mHead.get();
+        if (head >= mTail.get()) {
+            return null;
+        }
+        int index = (int) (head % mCapacity);
+        T item = (T) mItems[index];
+        mItems[index] = null;
+        mHead.lazySet(head + 1);
+        return item;
+    }
+
+    // Items waiting, exact from either side, a snapshot from any other thread.
+    public int size() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    public long getOfferedCount() {
+        return mOffered;
+    }
+
+    // Sum of the occupancies right after each offer, divided by the offered
+    // count it gives the mean occupancy.
+    public long getOccupancySum() {
+        return mOccupancySum;
+    }
+}
@@ -0,0 +1,265 @@
+package com.virtuoworks.cordova.plugin.canvascamera;
+
+import java.nio.ByteBuffer;
+
+// Integer crop, mirror and rotate kernels for 4:2:0 frames, without scaling.
+// Each plane is walked with a start offset and a fixed source step per output
+// column and per output row, so a pixel costs one load and one store, no
+// lookup table, no floating point and no bitmap.
+//
+// Mirroring happens before rotation, like the Matrix (preScale then
+// postRotate) used on bitmaps, rotation is clockwise. Frames are tightly
+// packed : NV21 is the luma plane then interleaved VU, I420 is the luma
+// plane then the U plane then the V plane.
+public class Yuv420Kernels {
+
+    public static final int NV21 = 0;
+    public static final int I420 = 1;
+
+    // Reused from frame to frame, one per calling thread.
+    private static final ThreadLocal<TransformKernel> sTransformKernel = new ThreadLocal<TransformKernel>() {
+        @Override
+        protected TransformKernel initialValue() {
+            return new TransformKernel();
+        }
+    };
+
+    private Yuv420Kernels() {}
+
+    public static int getFrameSize(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    // Returns dst when it fits the frame exactly, a new array otherwise.
+    public static byte[] obtain(byte[] dst, int width, int height) {
+        int size = getFrameSize(width, height);
+        return dst != null && dst.length == size ? dst : new byte[size];
+    }
+
+    // Crops src to crop (left, top, width, height, even width and height),
+    // mirrors it horizontally if requested, rotates it clockwise by angle
+    // (multiple of 90) and writes it to dst in the dstLayout. An odd left or
+    // top is exact on the luma plane, chroma planes are cropped from the even
+    // position below. The output is crop width x crop height, transposed for
+    // 90 and 270. Returns dst, or a new array when dst does not fit. Large
+    // frames are processed in bands of rows on several threads, see RowBands.
+    public static byte[] transform(byte[] src, int srcLayout, int srcWidth, int srcHeight, int[] crop, int angle, boolean mirror, byte[] dst, int dstLayout) {
+        angle = ((angle % 360) + 360) % 360;
+        boolean transposed = angle == 90 || angle == 270;
+
+        int outWidth = transposed ? crop[3] : crop[2];
+        int outHeight = transposed ? crop[2] : crop[3];
+        byte[] out = obtain(dst, outWidth, outHeight);
+
+        int srcFrameSize = srcWidth * srcHeight;
+        int outFrameSize = outWidth * outHeight;
+        int srcChromaWidth = srcWidth / 2;
+
+        // Chroma planes, V then U.
+        int srcV;
+        int srcU;
+        int srcPixel;
+        int srcStride;
+        if (srcLayout == NV21) {
+            srcV = srcFrameSize;
+            srcU = srcFrameSize + 1;
+            srcPixel = 2;
+            srcStride = srcWidth;
+        } else {
+            srcU = srcFrameSize;
+            srcV = srcFrameSize + srcFrameSize / 4;
+            srcPixel = 1;
+            srcStride = srcChromaWidth;
+        }
+
+        int dstV;
+        int dstU;
+        int dstPixel;
+        int dstStride;
+        if (dstLayout == NV21) {
+            dstV = outFrameSize;
+            dstU = outFrameSize + 1;
+            dstPixel = 2;
+            dstStride = outWidth;
+        } else {
+            dstU = outFrameSize;
+            dstV = outFrameSize + outFrameSize / 4;
+            dstPixel = 1;
+            dstStride = outWidth / 2;
+        }
+
+        TransformKernel kernel = sTransformKernel.get();
+        kernel.mSrc = src;
+        kernel.mOut = out;
+        kernel.mPairs = srcLayout == NV21 && dstLayout == NV21;
+        kernel.mOutWidth = outWidth;
+        kernel.mDstV = dstV;
+        kernel.mDstU = dstU;
+        kernel.mDstPixel = dstPixel;
+        kernel.mDstStride = dstStride;
+        getWalk(0, 1, srcWidth, crop[0], crop[1], crop[2], crop[3], angle, mirror, kernel.mLumaWalk);
+        getWalk(srcV, srcPixel, srcStride, crop[0] / 2, crop[1] / 2, crop[2] / 2, crop[3] / 2, angle, mirror, kernel.mVWalk);
+        getWalk(srcU, srcPixel, srcStride, crop[0] / 2, crop[1] / 2, crop[2] / 2, crop[3] / 2, angle, mirror, kernel.mUWalk);
+        try {
+            // A band of output row pairs is two luma rows and their chroma rows.
+            RowBands.run(outHeight / 2, (long) outWidth * outHeight, kernel);
+        } finally {
+            // The frames are not kept past the call.
+            kernel.mSrc = null;
+            kernel.mOut = null;
+        }
+
+        return out;
+    }
+
+    private static class TransformKernel implements RowBands.Kernel {
+        private byte[] mSrc;
+        private byte[] mOut;
+        // NV21 to NV21, VU pairs move together.
+        private boolean mPairs;
+        private int mOutWidth;
+        private int mDstV;
+        private int mDstU;
+        private int mDstPixel;
+        private int mDstStride;
+        private final int[] mLumaWalk = new int[3];
+        private final int[] mVWalk = new int[3];
+        private final int[] mUWalk = new int[3];
+
+        @Override
+        public void run(int from, int to) {
+            int chromaWidth = mOutWidth / 2;
+
+            // Luma plane
+            transformRows(mSrc, mLumaWalk, mOut, 0, 1, mOutWidth, mOutWidth, 2 * from, 2 * to);
+
+            if (mPairs) {
+                transformPairs(mSrc, mVWalk, mOut, mDstV, mDstStride, chromaWidth, from, to);
+            } else {
+                transformRows(mSrc, mVWalk, mOut, mDstV, mDstPixel, mDstStride, chromaWidth, from, to);
+                transformRows(mSrc, mUWalk, mOut, mDstU, mDstPixel, mDstStride, chromaWidth, from, to);
+            }
+        }
+    }
+
+    // Writes to walk the source offset of the first output sample of a
+    // plane cropped to (left, top, width, height), then the source steps for
+    // the next output column and the next output row.
+    private static void getWalk(int srcOffset, int pixel, int stride, int left, int top, int width, int height, int angle, boolean mirror, int[] walk) {
+        boolean transposed = angle == 90 || angle == 270;
+        boolean xReverse = mirror ^ (angle == 180 || angle == 270);
+        boolean yReverse = angle == 90 || angle == 180;
+
+        int x = xReverse ? left + width - 1 : left;
+        int y = yReverse ? top + height - 1 : top;
+        int xStep = xReverse ? -pixel : pixel;
+        int yStep = yReverse ? -stride : stride;
+
+        walk[0] = srcOffset + y * stride + x * pixel;
+        walk[1] = transposed ? yStep : xStep;
+        walk[2] = transposed ? xStep : yStep;
+    }
+
+    // Output rows [from, to) of a plane walked from walk (see getWalk()).
+    private static void transformRows(byte[] src, int[] walk, byte[] dst, int dstOffset, int dstPixel, int dstStride, int width, int from, int to) {
+        int columnStep = walk[1];
+        int rowStep = walk[2];
+
+        int row = walk[0] + from * rowStep;
+        for (int oy = from; oy < to; oy++) {
+            int s = row;
+            int o = dstOffset + oy * dstStride;
+            for (int ox = 0; ox < width; ox++) {
+                dst[o] = src[s];
+                s += columnStep;
+                o += dstPixel;
+            }
+            row += rowStep;
+        }
+    }
+
+    private static void transformPairs(byte[] src, int[] walk, byte[] dst, int dstOffset, int dstStride, int width, int from, int to) {
+        int columnStep = walk[1];
+        int rowStep = walk[2];
+
+        int row = walk[0] + from * rowStep;
+        for (int oy = from; oy < to; oy++) {
+            int s = row;
+            int o = dstOffset + oy * dstStride;
+            for (int ox = 0; ox < width; ox++) {
+                dst[o++] = src[s];
+                dst[o++] = src[s + 1];
+                s += columnStep;
+            }
+            row += rowStep;
+        }
+    }
+
+    // Packs YUV_420_888 planes (camera2 images) into a NV21 array (luma,
+    // then interleaved VU), whatever the row and pixel strides of the source
+    // planes. Chroma rows are copied in bulk when nv21Interleaved, see
+    // isNv21Interleaved.
+    public static void packNv21(ByteBuffer yPlane, int yRowStride, ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                                boolean nv21Interleaved, int width, int height, byte[] out) {
+        int frameSize = width * height;
+
+        // Luma plane, one bulk copy per row unless rows are not padded.
+        ByteBuffer y = yPlane.duplicate();
+        if (yRowStride == width) {
+            y.position(0);
+            y.get(out, 0, frameSize);
+        } else {
+            for (int row = 0; row < height; row++) {
+                y.position(row * yRowStride);
+                y.get(out, row * width, width);
+            }
+        }
+
+        int o = frameSize;
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (nv21Interleaved) {
+            // The V plane reads VUVU...V, the last U of each row is past its end.
+            int rowLength = 2 * chromaWidth - 1;
+            ByteBuffer vu = vPlane.duplicate();
+            for (int row = 0; row < chromaHeight; row++) {
+                int offset = row * uvRowStride;
+                vu.position(offset);
+                vu.get(out, o, rowLength);
+                out[o + rowLength] = uPlane.get(offset + rowLength - 1);
+                o += 2 * chromaWidth;
+            }
+            return;
+        }
+
+        // Separate or NV12 ordered planes, one sample at a time.
+        for (int row = 0; row < chromaHeight; row++) {
+            int offset = row * uvRowStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                out[o++] = vPlane.get(offset);
+                out[o++] = uPlane.get(offset);
+                offset += uvPixelStride;
+            }
+        }
+    }
+
+    // Whether the chroma planes are laid out like the chroma of a NV21
+    // buffer, the V plane reading VUVU... and the U plane starting one byte
+    // later: both with a pixel stride of 2, as long as a whole chroma plane,
+    // and the V plane read from its second byte equal to the U plane, the
+    // check CameraX makes. Nothing is written to the planes. The layout is
+    // the same for every image of a capture session, checked on its first.
+    public static boolean isNv21Interleaved(ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride, int width, int height) {
+        int length = (height / 2 - 1) * uvRowStride + 2 * (width / 2) - 1;
+        if (uvPixelStride != 2 || uPlane.limit() != vPlane.limit() || uPlane.limit() < length) {
+            return false;
+        }
+
+        ByteBuffer v = vPlane.duplicate();
+        v.position(1);
+        ByteBuffer u = uPlane.duplicate();
+        u.position(0);
+        u.limit(uPlane.limit() - 1);
+        return v.compareTo(u) == 0;
+    }
+}
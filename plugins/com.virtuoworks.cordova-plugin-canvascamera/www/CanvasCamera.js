@@ -24,7 +24,11 @@
 *    flashMode: false,
 *    hasThumbnail: true,
 *    thumbnailRatio: 1/6,
-*    cameraFacing: 'front'
+*    cameraFacing: 'front',
+*    pixelFormat: 'RGBA8888',
+*    binary: false,
+*    blink: false,
+*    cameraApi: 'camera'
 *  }
 **/
 'use strict';
@@ -166,6 +170,7 @@ CanvasCamera.prototype.createRenderer = (function(element, canvasCamera) {
     this.orientation = null;
 
     this.buffer = [];
+    this.objectURL = null;
 
     this.available = true;
     this.fullscreen = false;
@@ -185,25 +190,7 @@ CanvasCamera.prototype.createRenderer = (function(element, canvasCamera) {
       this.image.crossOrigin = 'Anonymous';
 
       this.image.addEventListener('load', function(event) {
-        var frame = this.canvasCamera.createFrame(
-            this.image,
-            this.element,
-            this
-        );
-
-        this.resize().clear();
-        if (this.onBeforeDraw) {
-          this.onBeforeDraw(frame);
-        }
-        this.draw(frame);
-        if (this.onAfterDraw) {
-          this.onAfterDraw(frame);
-        }
-
-        frame.recycle();
-        frame = null;
-
-        this.enable();
+        this.drawSource(this.image);
       }.bind(this));
 
       this.image.addEventListener('error', function(event) {
@@ -217,6 +204,74 @@ CanvasCamera.prototype.createRenderer = (function(element, canvasCamera) {
     return this;
   };
 
+  CanvasCamera.Renderer.prototype.drawSource = function(source) {
+    var frame = this.canvasCamera.createFrame(
+        source,
+        this.element,
+        this
+    );
+
+    this.resize().clear();
+    if (this.onBeforeDraw) {
+      this.onBeforeDraw(frame);
+    }
+    this.draw(frame);
+    if (this.onAfterDraw) {
+      this.onAfterDraw(frame);
+    }
+
+    frame.recycle();
+    frame = null;
+
+    this.enable();
+
+    return this;
+  };
+
+  CanvasCamera.Renderer.prototype.drawRaw = function(raw) {
+    if (raw && raw.buffer && raw.width && raw.height) {
+      if (!this.rawCanvas) {
+        this.rawCanvas = document.createElement('canvas');
+      }
+      this.rawCanvas.width = raw.width;
+      this.rawCanvas.height = raw.height;
+
+      var rawContext = this.rawCanvas.getContext('2d');
+      var imageData = rawContext.createImageData(raw.width, raw.height);
+      var pixels = new Uint8Array(raw.buffer);
+      var rgba = imageData.data;
+      var i;
+      var j;
+
+      // format can be 'GRAY8', 'RGB888' or 'RGBA8888'
+      switch (raw.format) {
+        case 'GRAY8':
+          for (i = 0, j = 0; i < pixels.length; i++, j += 4) {
+            rgba[j] = rgba[j + 1] = rgba[j + 2] = pixels[i];
+            rgba[j + 3] = 255;
+          }
+          break;
+        case 'RGB888':
+          for (i = 0, j = 0; i < pixels.length; i += 3, j += 4) {
+            rgba[j] = pixels[i];
+            rgba[j + 1] = pixels[i + 1];
+            rgba[j + 2] = pixels[i + 2];
+            rgba[j + 3] = 255;
+          }
+          break;
+        default:
+          rgba.set(pixels);
+      }
+
+      rawContext.putImageData(imageData, 0, 0);
+      this.drawSource(this.rawCanvas);
+    } else {
+      this.clear().enable();
+    }
+
+    return this;
+  };
+
   CanvasCamera.Renderer.prototype.onOrientationChange = function() {
     if (this.canvasCamera.getUIOrientation() !== this.orientation) {
       this.invert();
@@ -285,8 +340,10 @@ CanvasCamera.prototype.createRenderer = (function(element, canvasCamera) {
             this.orientation = data.orientation;
           }
 
+          this.disable();
+
           if (this.image) {
-            // type can be 'data' or 'file'
+            // type can be 'data', 'file' or 'raw'
             switch (this.canvasCamera.options.use) {
               case 'file':
                 // If we are using cordova-plugin-ionic-webview plugin which
@@ -306,12 +363,36 @@ CanvasCamera.prototype.createRenderer = (function(element, canvasCamera) {
                 ] + '?seed=' +
                 Math.round((new Date()).getTime() * Math.random() * 1000);
                 break;
+              case 'raw':
+                this.drawRaw(data[this.canvasCamera.options.use]);
+                break;
+              case 'mapped':
+                this.canvasCamera.readMappedFrame(data.mapped, function(blob) {
+                  if (this.objectURL) {
+                    window.URL.revokeObjectURL(this.objectURL);
+                  }
+                  this.objectURL = window.URL.createObjectURL(blob);
+                  this.image.src = this.objectURL;
+                }.bind(this), function(error) {
+                  this.clear().enable();
+                }.bind(this));
+                break;
               default:
-                this.image.src = data[this.canvasCamera.options.use];
+                if (this.objectURL) {
+                  window.URL.revokeObjectURL(this.objectURL);
+                  this.objectURL = null;
+                }
+                // binary frames carry their JPEG as a Blob.
+                if (data[this.canvasCamera.options.use] instanceof Blob) {
+                  this.objectURL = window.URL.createObjectURL(data[
+                      this.canvasCamera.options.use
+                  ]);
+                  this.image.src = this.objectURL;
+                } else {
+                  this.image.src = data[this.canvasCamera.options.use];
+                }
             }
           }
-
-          this.disable();
         }
       }
     }
@@ -523,7 +604,174 @@ CanvasCamera.prototype.cameraPosition = function(
   }, this.nativeClass, 'cameraPosition', [cameraFacing]);
 };
 
-CanvasCamera.prototype.capture = function(data) {
+CanvasCamera.prototype.setRegionOfInterest = function(roi, onError, onSuccess) {
+  exec(function(data) {
+    if (onSuccess && typeof onSuccess === 'function') {
+      onSuccess(data);
+    }
+  }, function(error) {
+    if (onError && typeof onError === 'function') {
+      onError(error);
+    }
+  }, this.nativeClass, 'setRegionOfInterest', [roi || null]);
+};
+
+CanvasCamera.prototype.getStats = function(options, onError, onSuccess) {
+  exec(function(data) {
+    if (onSuccess && typeof onSuccess === 'function') {
+      onSuccess(data);
+    }
+  }, function(error) {
+    if (onError && typeof onError === 'function') {
+      onError(error);
+    }
+  }, this.nativeClass, 'getStats', [options || null]);
+};
+
+CanvasCamera.prototype.readMappedFrame = (function() {
+  var SLOT_HEADER_LENGTH = 16;
+
+  var readSlice = function(file, start, end, onSuccess, onError) {
+    var reader = new FileReader();
+    reader.onloadend = function() {
+      if (reader.error) {
+        onError(reader.error);
+      } else {
+        onSuccess(reader.result);
+      }
+    };
+    reader.readAsArrayBuffer(file.slice(start, end));
+  };
+
+  // Reads a frame out of the mapped frame ring (see FrameMappedRing.java),
+  // needs cordova-plugin-file. Fails when the slot has been overwritten by a
+  // newer frame in the meantime.
+  return function(mapped, onSuccess, onError) {
+    var fail = function(error) {
+      if (onError && typeof onError === 'function') {
+        onError(error);
+      }
+    };
+
+    if (!mapped || !window.resolveLocalFileSystemURL) {
+      fail('No mapped frame or no file system access.');
+      return;
+    }
+
+    var slotStart = mapped.offset - SLOT_HEADER_LENGTH;
+    var slotEnd = mapped.offset + mapped.length;
+    var isCurrent = function(buffer) {
+      var view = new DataView(buffer);
+      return view.getUint32(0, true) === mapped.sequence &&
+          view.getUint32(4, true) === mapped.length;
+    };
+
+    window.resolveLocalFileSystemURL('file://' + mapped.file, function(entry) {
+      entry.file(function(file) {
+        readSlice(file, slotStart, slotEnd, function(slot) {
+          // The sequence is read again once the payload has been read.
+          readSlice(file, slotStart, mapped.offset, function(header) {
+            if (isCurrent(slot) && isCurrent(header)) {
+              onSuccess(new Blob([slot.slice(SLOT_HEADER_LENGTH)], {
+                type: mapped.type,
+              }));
+            } else {
+              fail('Mapped frame was overwritten.');
+            }
+          }, fail);
+        }, fail);
+      }, fail);
+    }, fail);
+  };
+}());
+
+CanvasCamera.prototype.decodeFrame = (function() {
+  var MAGIC = 0x45464343;
+  var FORMATS = [
+    '', 'JPEG', 'GRAY8', 'RGB888', 'RGBA8888', 'FILE', 'PNG', 'WEBP',
+  ];
+  var ORIENTATIONS = ['unknown', 'portrait', 'landscape'];
+  var FLAG_MIRRORED = 1;
+
+  // Decodes a frame envelope (see FrameEnvelope.java) into the same shape as
+  // a JSON frame result.
+  return function(envelope) {
+    var view = new DataView(envelope);
+    if (envelope.byteLength < 48 || view.getUint32(0, true) !== MAGIC) {
+      return null;
+    }
+
+    var headerLength = view.getUint8(5);
+    var format = FORMATS[view.getUint8(6)] || '';
+    var payloadLength = view.getUint32(44, true);
+    var payload = envelope.slice(headerLength, headerLength + payloadLength);
+
+    var fullsize = {
+      version: view.getUint8(4),
+      orientation: ORIENTATIONS[view.getUint8(7)] || 'unknown',
+      sequence: view.getUint32(8, true),
+      rotation: view.getUint16(12, true),
+      mirrored: (view.getUint16(14, true) & FLAG_MIRRORED) !== 0,
+      captureTimestamp: view.getFloat64(16, true),
+      timestamp: view.getFloat64(24, true),
+      width: view.getUint32(32, true),
+      height: view.getUint32(36, true),
+    };
+
+    switch (format) {
+      case 'JPEG':
+      case 'PNG':
+      case 'WEBP':
+        fullsize.data = new Blob([payload], {
+          type: 'image/' + format.toLowerCase(),
+        });
+        break;
+      case 'FILE':
+        fullsize.file = new TextDecoder('utf-8').decode(payload);
+        break;
+      default:
+        fullsize.raw = {
+          width: fullsize.width,
+          height: fullsize.height,
+          format: format,
+          stride: view.getUint32(40, true),
+          byteLength: payloadLength,
+          buffer: payload,
+        };
+    }
+
+    return {
+      message: 'OK',
+      output: {
+        images: {
+          fullsize: fullsize,
+        },
+      },
+    };
+  };
+}());
+
+CanvasCamera.prototype.capture = function(data, buffer) {
+  // With the binary option, each frame is an ArrayBuffer envelope, followed
+  // by the fields added by frame processors, if any.
+  if (data instanceof ArrayBuffer) {
+    data = this.decodeFrame(data);
+    if (data && buffer && !(buffer instanceof ArrayBuffer)) {
+      for (var field in buffer) {
+        if (buffer.hasOwnProperty(field) && field !== 'images') {
+          data.output[field] = buffer[field];
+        }
+      }
+    }
+  }
+
+  // In 'raw' mode, pixels come as a second ArrayBuffer argument.
+  if (buffer instanceof ArrayBuffer && data && data.output &&
+      data.output.images && data.output.images.fullsize &&
+      data.output.images.fullsize.raw) {
+    data.output.images.fullsize.raw.buffer = buffer;
+  }
+
   if (data && data.output && data.output.images) {
     if (data.output.images.fullsize &&
         data.output.images.fullsize[this.options.use]) {
@@ -574,6 +822,8 @@ CanvasCamera.prototype.setRenderingPresets = function() {
   switch (this.options.use) {
     case 'data':
     case 'file':
+    case 'raw':
+    case 'mapped':
       break;
     default:
       this.options.use = 'file';